@@ -2,20 +2,39 @@ package org.vincentyeh.img2pdf.gui;
 
 import com.formdev.flatlaf.FlatDarkLaf;
 import org.vincentyeh.img2pdf.gui.controller.Controller;
+import org.vincentyeh.img2pdf.gui.daemon.ConversionDaemon;
+import org.vincentyeh.img2pdf.gui.daemon.DaemonClient;
+import org.vincentyeh.img2pdf.gui.distributed.QueueDirectory;
+import org.vincentyeh.img2pdf.gui.distributed.QueueWorker;
+import org.vincentyeh.img2pdf.gui.isolation.ChildWorker;
+import org.vincentyeh.img2pdf.gui.isolation.ProcessPool;
 import org.vincentyeh.img2pdf.gui.model.Model;
+import org.vincentyeh.img2pdf.gui.model.image.ImageSources;
 import org.vincentyeh.img2pdf.gui.view.View;
 
 import javax.swing.*;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Properties;
 
 /**
  * Hello world!
  */
 public class App {
+    private static final long QUEUE_LEASE_TIMEOUT_MILLIS = 60_000;
 
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0) {
+            runCommand(args);
+            return;
+        }
 
-    public static void main(String[] args) {
         FlatDarkLaf.setup();
 
         JFrame frame = new JFrame(Constants.APP_TITLE);
@@ -28,7 +47,7 @@ public class App {
             }
         });
 
-        Model model = new Model();
+        Model model = createModel(1);
         View view = new View();
         Controller controller = new Controller(model, view.getUIMediator());
 
@@ -36,4 +55,137 @@ public class App {
         frame.pack();
         frame.setVisible(true);
     }
+
+    /**
+     * Headless commands:
+     * <pre>
+     * --daemon [port] [workers]
+     * --submit &lt;job.properties&gt; [port]
+     * --cancel &lt;job id&gt; [port]
+     * --pause [port]
+     * --resume [port]
+     * --enqueue &lt;job.properties&gt; &lt;queue dir&gt;
+     * --worker &lt;queue dir&gt; [threads] [--drain]
+     * --child                      (internal, started by ProcessPool)
+     * </pre>
+     */
+    private static void runCommand(String[] args) throws IOException {
+        switch (args[0]) {
+            case "--daemon": {
+                int port = argOrDefault(args, 1, ConversionDaemon.DEFAULT_PORT);
+                int workers = argOrDefault(args, 2, 1);
+                ConversionDaemon daemon = new ConversionDaemon(createModel(workers), port);
+                System.out.printf("%s daemon listening on 127.0.0.1:%d\n", Constants.APP_TITLE, daemon.getPort());
+                daemon.serve();
+                break;
+            }
+            case "--submit": {
+                if (args.length < 2)
+                    throw new IllegalArgumentException("job description file is required");
+                Properties description = new Properties();
+                try (InputStream in = new FileInputStream(args[1])) {
+                    description.load(in);
+                }
+                String last = new DaemonClient(argOrDefault(args, 2, ConversionDaemon.DEFAULT_PORT))
+                        .submit(description, System.out);
+                if (last == null || !last.equals("COMPLETE DONE"))
+                    System.exit(1);
+                break;
+            }
+            case "--cancel":
+                if (args.length < 2)
+                    throw new IllegalArgumentException("job id is required");
+                new DaemonClient(argOrDefault(args, 2, ConversionDaemon.DEFAULT_PORT))
+                        .cancel(Long.parseLong(args[1]), System.out);
+                break;
+            case "--enqueue": {
+                if (args.length < 3)
+                    throw new IllegalArgumentException("job description file and queue directory are required");
+                Properties description = new Properties();
+                try (InputStream in = new FileInputStream(args[1])) {
+                    description.load(in);
+                }
+                QueueDirectory queue = new QueueDirectory(Paths.get(args[2]), QUEUE_LEASE_TIMEOUT_MILLIS);
+                System.out.printf("%d task(s) enqueued\n", queue.enqueue(description));
+                break;
+            }
+            case "--worker": {
+                if (args.length < 2)
+                    throw new IllegalArgumentException("queue directory is required");
+                int threads = args.length > 2 && !args[2].equals("--drain") ? Integer.parseInt(args[2]) : 1;
+                boolean drain = Arrays.asList(args).contains("--drain");
+                QueueDirectory queue = new QueueDirectory(Paths.get(args[1]), QUEUE_LEASE_TIMEOUT_MILLIS);
+                Model model = createModel(threads);
+                try {
+                    new QueueWorker(queue, model, ManagementFactory.getRuntimeMXBean().getName(), threads, drain, System.out).run();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    model.shutdown();
+                }
+                break;
+            }
+            case "--child":
+                ChildWorker.serve(createModel(1), System.in, System.out);
+                break;
+            case "--pause":
+                new DaemonClient(argOrDefault(args, 1, ConversionDaemon.DEFAULT_PORT)).pause(System.out);
+                break;
+            case "--resume":
+                new DaemonClient(argOrDefault(args, 1, ConversionDaemon.DEFAULT_PORT)).resume(System.out);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown command: " + args[0]);
+        }
+    }
+
+    /**
+     * With -Dimg2pdf.isolated.workers=N the tasks are converted in N child JVMs,
+     * each limited to -Dimg2pdf.isolated.xmx (default 1g).
+     * -Dimg2pdf.prefetch.mb sets the read-ahead of source files (default 64, 0 disables it).
+     * -Dimg2pdf.offheap.mp=N converts tasks with an image of N megapixels or more off the heap.
+     * -Dimg2pdf.streaming.mp=N decodes images of N megapixels or more strip by strip (default 500, 0 disables it).
+     * -Dimg2pdf.streaming.pages=N writes tasks of N pages or more one page at a time (default 1000, 0 disables it).
+     * -Dimg2pdf.jpeg.passthrough=true converts every task with a JPEG file matching the color type off the library,
+     * to embed that file as it is. =false decodes and re-compresses JPEG files in every task.
+     * -Dimg2pdf.encoding.threads=N compresses N pages at a time for jobs with a size budget (default one per processor).
+     * -Dimg2pdf.sync.files=N and -Dimg2pdf.sync.seconds=S force finished outputs to disk in groups of N
+     * or after S seconds, then rename them into place (default 0, renamed at once and left to the OS to write back).
+     */
+    private static Model createModel(int workers) {
+        ImageSources.initialize();
+        Model model = new Model(workers);
+        Long prefetchMegabytes = Long.getLong("img2pdf.prefetch.mb");
+        if (prefetchMegabytes != null)
+            model.setPrefetchLookahead(prefetchMegabytes << 20);
+        Long offHeapMegapixels = Long.getLong("img2pdf.offheap.mp");
+        if (offHeapMegapixels != null)
+            model.setOffHeapThreshold(offHeapMegapixels * 1_000_000);
+        Long streamingMegapixels = Long.getLong("img2pdf.streaming.mp");
+        if (streamingMegapixels != null)
+            model.setStreamingThreshold(streamingMegapixels * 1_000_000);
+        Integer streamingPages = Integer.getInteger("img2pdf.streaming.pages");
+        if (streamingPages != null)
+            model.setStreamingPageThreshold(streamingPages);
+        String jpegPassthrough = System.getProperty("img2pdf.jpeg.passthrough");
+        if (jpegPassthrough != null) {
+            model.setJpegPassthrough(Boolean.parseBoolean(jpegPassthrough));
+            model.setJpegTaskRouting(Boolean.parseBoolean(jpegPassthrough));
+        }
+        Integer encodingThreads = Integer.getInteger("img2pdf.encoding.threads");
+        if (encodingThreads != null)
+            model.setEncodingThreads(encodingThreads);
+        int syncFiles = Integer.getInteger("img2pdf.sync.files", 0);
+        long syncSeconds = Long.getLong("img2pdf.sync.seconds", 0L);
+        if (syncFiles > 0 || syncSeconds > 0)
+            model.setSyncPolicy(syncFiles > 0 ? syncFiles : Integer.MAX_VALUE, syncSeconds * 1000);
+        int isolatedWorkers = Integer.getInteger("img2pdf.isolated.workers", 0);
+        if (isolatedWorkers > 0)
+            model.setIsolatedRunner(new ProcessPool(isolatedWorkers, System.getProperty("img2pdf.isolated.xmx", "1g")));
+        return model;
+    }
+
+    private static int argOrDefault(String[] args, int index, int defaultValue) {
+        return args.length > index ? Integer.parseInt(args[index]) : defaultValue;
+    }
 }
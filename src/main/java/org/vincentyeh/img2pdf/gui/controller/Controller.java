@@ -1,5 +1,7 @@
 package org.vincentyeh.img2pdf.gui.controller;
 
+import org.vincentyeh.img2pdf.gui.model.CollisionPolicy;
+import org.vincentyeh.img2pdf.gui.model.DestinationIndex;
 import org.vincentyeh.img2pdf.gui.model.Model;
 import org.vincentyeh.img2pdf.gui.model.ModelListener;
 import org.vincentyeh.img2pdf.gui.model.Task;
@@ -10,8 +12,10 @@ import org.vincentyeh.img2pdf.gui.view.UIState;
 import javax.swing.*;
 import java.io.File;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class Controller implements MediatorListener, ModelListener {
+    private static final long STOP_TIMEOUT_SECONDS = 10;
     private final DefaultListModel<String> listModel = new DefaultListModel<>();
     private final Model model;
     private final UIMediator mediator;
@@ -43,20 +47,46 @@ public class Controller implements MediatorListener, ModelListener {
         if (sources == null)
             return;
 
-        List<Task> tasks = Model.parseSourceFiles(sources, outputFormat, fileFilter);
+        File destination = state.getDestinationFolder();
+        List<Task> tasks = Model.parseSourceFiles(sources, outputFormat, fileFilter, state.getSplitPolicy(),
+                state.getCollisionPolicy(), destination);
+        DestinationIndex index = new DestinationIndex(tasks, destination);
+        if (!index.getCollisions().isEmpty()) {
+            CollisionPolicy policy = mediator.chooseCollisionPolicy(index);
+            if (policy != state.getCollisionPolicy()) {
+                state.setCollisionPolicy(policy);
+                tasks = Model.parseSourceFiles(sources, outputFormat, fileFilter, state.getSplitPolicy(), policy,
+                        destination);
+            }
+        }
         mediator.updateTasks(tasks);
         model.setTask(tasks);
     }
 
     @Override
     public void onConvertButtonClick(UIMediator mediator, UIState state) {
-        model.convert(state);
-
+        if (!model.isBusy())
+            mediator.clearLog();
+        try {
+            model.convert(state);
+        } catch (IllegalArgumentException e) {
+            mediator.addLog(String.format("[ERROR] %s", e.getMessage()));
+        }
     }
 
     @Override
     public void onStopButtonClick(UIMediator mediator) {
-
+        model.cancelAllJobs();
+        Thread watchdog = new Thread(() -> {
+            try {
+                if (!model.awaitIdle(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+                    mediator.addLog(String.format("[WARN] conversion did not stop within %d seconds", STOP_TIMEOUT_SECONDS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "stop-watchdog");
+        watchdog.setDaemon(true);
+        watchdog.start();
     }
 
     @Override
@@ -72,12 +102,11 @@ public class Controller implements MediatorListener, ModelListener {
     @Override
     public void onBatchStart() {
         mediator.setRunningState(true);
-        mediator.clearLog();
     }
 
     @Override
     public void onBatchComplete() {
-        mediator.setRunningState(false);
+        mediator.setRunningState(model.isBusy());
     }
 
     @Override
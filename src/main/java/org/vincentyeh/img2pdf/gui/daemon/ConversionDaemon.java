@@ -0,0 +1,219 @@
+package org.vincentyeh.img2pdf.gui.daemon;
+
+import org.vincentyeh.img2pdf.gui.model.Job;
+import org.vincentyeh.img2pdf.gui.model.Model;
+import org.vincentyeh.img2pdf.gui.model.ModelListener;
+import org.vincentyeh.img2pdf.gui.model.Task;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-running conversion server on the loopback interface.
+ * <p>
+ * The daemon keeps one {@link Model}, so its worker pool and factories stay warm between jobs.
+ * Each connection starts with the line of the {@link DaemonToken}, which only the owner of the daemon can read,
+ * and is closed with "ERROR unauthorized" otherwise. It then sends one command line:
+ * <pre>
+ * SUBMIT          followed by a job description in {@link Properties} format and a line "END"
+ * CANCEL &lt;id&gt;
+ * PAUSE
+ * RESUME
+ * </pre>
+ * The daemon answers SUBMIT with progress lines until the job is finished:
+ * QUEUED, START, BATCH, PAGE, LOG and finally COMPLETE or ERROR.
+ */
+public class ConversionDaemon {
+    public static final int DEFAULT_PORT = 52790;
+    static final String END_OF_DESCRIPTION = "END";
+
+    private final Model model;
+    private final ServerSocket serverSocket;
+    private final String token;
+    private volatile boolean running = true;
+
+    public ConversionDaemon(Model model, int port) throws IOException {
+        if (model == null)
+            throw new IllegalArgumentException("model==null");
+        this.model = model;
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        try {
+            this.token = DaemonToken.create(serverSocket.getLocalPort());
+        } catch (IOException e) {
+            serverSocket.close();
+            throw e;
+        }
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accepts connections until {@link #close()} is called.
+     */
+    public void serve() throws IOException {
+        while (running) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (!running)
+                    return;
+                throw e;
+            }
+            Thread handler = new Thread(() -> handle(socket), "daemon-connection");
+            handler.setDaemon(true);
+            handler.start();
+        }
+    }
+
+    public void close() throws IOException {
+        running = false;
+        DaemonToken.delete(serverSocket.getLocalPort());
+        serverSocket.close();
+        model.shutdown();
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket;
+             BufferedReader reader = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter writer = new PrintWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8), true)) {
+            if (!DaemonToken.matches(token, reader.readLine())) {
+                writer.println("ERROR unauthorized");
+                return;
+            }
+            String command = reader.readLine();
+            if (command == null)
+                return;
+            String[] parts = command.trim().split("\\s+");
+            switch (parts[0]) {
+                case "SUBMIT":
+                    submit(reader, writer);
+                    break;
+                case "CANCEL":
+                    cancel(parts, writer);
+                    break;
+                case "PAUSE":
+                    model.pauseJobs();
+                    writer.println("OK");
+                    break;
+                case "RESUME":
+                    model.resumeJobs();
+                    writer.println("OK");
+                    break;
+                default:
+                    writer.println("ERROR unknown command " + parts[0]);
+            }
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void cancel(String[] parts, PrintWriter writer) {
+        if (parts.length != 2) {
+            writer.println("ERROR usage: CANCEL <id>");
+            return;
+        }
+        long id;
+        try {
+            id = Long.parseLong(parts[1]);
+        } catch (NumberFormatException e) {
+            writer.println("ERROR invalid job id " + parts[1]);
+            return;
+        }
+        writer.println(model.cancelJob(id) ? "OK" : "ERROR unknown job");
+    }
+
+    private void submit(BufferedReader reader, PrintWriter writer) throws IOException {
+        StringBuilder text = new StringBuilder();
+        String line;
+        while ((line = reader.readLine()) != null && !line.equals(END_OF_DESCRIPTION)) {
+            text.append(line).append('\n');
+        }
+        Properties description = new Properties();
+        description.load(new StringReader(text.toString()));
+
+        ProgressStream progress = new ProgressStream(writer);
+        Job job;
+        try {
+            job = JobDescription.toJob(description, progress);
+            progress.send("QUEUED " + job.id);
+            model.submit(job);
+        } catch (RuntimeException e) {
+            progress.send("ERROR " + e.getMessage());
+            return;
+        }
+
+        try {
+            // A job cancelled while queued never starts, so its state is polled as well.
+            while (!progress.completed.await(1, TimeUnit.SECONDS)) {
+                if (job.isCancelled() && !progress.started)
+                    break;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        progress.send("COMPLETE " + job.getState());
+    }
+
+    /**
+     * Writes the events of one job back to its client.
+     */
+    private static class ProgressStream implements ModelListener {
+        private final PrintWriter writer;
+        private final CountDownLatch completed = new CountDownLatch(1);
+        private volatile boolean started = false;
+
+        private ProgressStream(PrintWriter writer) {
+            this.writer = writer;
+        }
+
+        private synchronized void send(String line) {
+            writer.println(line);
+        }
+
+        @Override
+        public void onBatchProgressUpdate(int progress, int total) {
+            send(String.format("BATCH %d/%d", progress, total));
+        }
+
+        @Override
+        public void onConversionProgressUpdate(int progress, int total) {
+            send(String.format("PAGE %d/%d", progress, total));
+        }
+
+        @Override
+        public void onBatchStart() {
+            started = true;
+            send("START");
+        }
+
+        @Override
+        public void onBatchComplete() {
+            completed.countDown();
+        }
+
+        @Override
+        public void onSourcesUpdate(List<Task> source) {
+
+        }
+
+        @Override
+        public void onLogUpdate(List<String> log) {
+
+        }
+
+        @Override
+        public void onLogAppend(String log) {
+            send("LOG " + log);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package org.vincentyeh.img2pdf.gui.daemon;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+/**
+ * Thin client of {@link ConversionDaemon}, authenticated by the {@link DaemonToken} of its port.
+ */
+public class DaemonClient {
+    private final int port;
+
+    public DaemonClient(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Submits a job and copies the progress lines to {@code out} until the job is finished.
+     * Relative paths of the job are resolved against the working directory of the client.
+     *
+     * @return The last line sent by the daemon.
+     */
+    public String submit(Properties description, PrintStream out) throws IOException {
+        StringWriter text = new StringWriter();
+        JobDescription.withAbsolutePaths(description).store(text, null);
+        return send("SUBMIT\n" + text + ConversionDaemon.END_OF_DESCRIPTION, out);
+    }
+
+    public String cancel(long jobId, PrintStream out) throws IOException {
+        return send("CANCEL " + jobId, out);
+    }
+
+    public String pause(PrintStream out) throws IOException {
+        return send("PAUSE", out);
+    }
+
+    public String resume(PrintStream out) throws IOException {
+        return send("RESUME", out);
+    }
+
+    private String send(String request, PrintStream out) throws IOException {
+        String token = DaemonToken.read(port);
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter writer = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true)) {
+            writer.println(token);
+            writer.println(request);
+            String last = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                out.println(line);
+                last = line;
+            }
+            return last;
+        }
+    }
+}
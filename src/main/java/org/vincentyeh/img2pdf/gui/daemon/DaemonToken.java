@@ -0,0 +1,102 @@
+package org.vincentyeh.img2pdf.gui.daemon;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Secret a {@link ConversionDaemon} shares with the clients of its owner through a file only the owner can read,
+ * {@code ~/.img2pdf/daemon-<port>.token}. Every connection starts with the token, so other local users cannot
+ * submit jobs that read and write with the rights of the owner, nor cancel or pause the jobs of the owner.
+ */
+class DaemonToken {
+    private static final int TOKEN_BYTES = 32;
+
+    private DaemonToken() {
+
+    }
+
+    /**
+     * Writes a new random token for the port, replacing the token of an earlier daemon.
+     *
+     * @return The token.
+     */
+    static String create(int port) throws IOException {
+        byte[] random = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(random);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(random);
+
+        Path folder = folder();
+        boolean posix = Files.getFileStore(folder.getParent()).supportsFileAttributeView("posix");
+        if (!Files.isDirectory(folder)) {
+            if (posix)
+                Files.createDirectories(folder, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            else
+                Files.createDirectories(folder);
+        }
+        Path file = file(port);
+        Files.deleteIfExists(file);
+        try {
+            if (posix) {
+                // Created with its permissions, so there is no moment when others could open it.
+                Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+            } else {
+                // E.g. Windows, where the profile folder is already private to its user.
+                File plain = Files.createFile(file).toFile();
+                plain.setReadable(false, false);
+                plain.setWritable(false, false);
+                plain.setReadable(true, true);
+                plain.setWritable(true, true);
+            }
+        } catch (FileAlreadyExistsException e) {
+            throw new IOException("Token file was created by another process: " + file, e);
+        }
+        Files.write(file, token.getBytes(StandardCharsets.US_ASCII), StandardOpenOption.TRUNCATE_EXISTING);
+        // A daemon that is stopped rather than closed removes it as well.
+        file.toFile().deleteOnExit();
+        return token;
+    }
+
+    /**
+     * @return The token of the daemon on the port.
+     */
+    static String read(int port) throws IOException {
+        Path file = file(port);
+        if (!Files.isReadable(file))
+            throw new IOException("No daemon token for port " + port + ", expected in " + file);
+        return new String(Files.readAllBytes(file), StandardCharsets.US_ASCII).trim();
+    }
+
+    static void delete(int port) {
+        try {
+            Files.deleteIfExists(file(port));
+        } catch (IOException e) {
+            file(port).toFile().deleteOnExit();
+        }
+    }
+
+    /**
+     * Compares in constant time, so the token cannot be guessed byte by byte from the response time.
+     */
+    static boolean matches(String expected, String actual) {
+        return actual != null && MessageDigest.isEqual(expected.getBytes(StandardCharsets.US_ASCII),
+                actual.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static Path folder() {
+        return Paths.get(System.getProperty("user.home"), ".img2pdf");
+    }
+
+    private static Path file(int port) {
+        return folder().resolve("daemon-" + port + ".token");
+    }
+}
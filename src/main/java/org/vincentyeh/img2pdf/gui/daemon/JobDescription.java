@@ -0,0 +1,247 @@
+package org.vincentyeh.img2pdf.gui.daemon;
+
+import org.vincentyeh.img2pdf.gui.model.CollisionPolicy;
+import org.vincentyeh.img2pdf.gui.model.ColorMode;
+import org.vincentyeh.img2pdf.gui.model.Job;
+import org.vincentyeh.img2pdf.gui.model.Model;
+import org.vincentyeh.img2pdf.gui.model.ModelListener;
+import org.vincentyeh.img2pdf.gui.model.SplitPolicy;
+import org.vincentyeh.img2pdf.gui.model.Task;
+import org.vincentyeh.img2pdf.gui.model.schedule.CostModel;
+import org.vincentyeh.img2pdf.gui.model.schedule.SchedulingPolicy;
+import org.vincentyeh.img2pdf.lib.image.ColorType;
+import org.vincentyeh.img2pdf.lib.pdf.parameter.PageAlign;
+import org.vincentyeh.img2pdf.lib.pdf.parameter.PageDirection;
+import org.vincentyeh.img2pdf.lib.pdf.parameter.PageSize;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.StringJoiner;
+
+/**
+ * Job description sent by {@link DaemonClient}, stored as {@link Properties}.
+ * <p>
+ * Only {@link #SOURCES} and {@link #DESTINATION} are required, the other keys default to the values of the GUI.
+ */
+public class JobDescription {
+    /**
+     * Source directories separated by {@link File#pathSeparator}.
+     */
+    public static final String SOURCES = "sources";
+    public static final String DESTINATION = "destination";
+    public static final String OUTPUT_FORMAT = "output_format";
+    public static final String FILE_FILTER = "file_filter";
+    public static final String PRIORITY = "priority";
+    public static final String COLOR_TYPE = "color_type";
+    /**
+     * {@link ColorMode} of the pages, {@link ColorMode#FIXED} by default.
+     */
+    public static final String COLOR_MODE = "color_mode";
+    public static final String PAGE_SIZE = "page_size";
+    public static final String PAGE_DIRECTION = "page_direction";
+    public static final String HORIZONTAL_ALIGN = "horizontal_align";
+    public static final String VERTICAL_ALIGN = "vertical_align";
+    public static final String AUTO_ROTATE = "auto_rotate";
+    /**
+     * Resolution to which larger images are reduced, 0 by default to keep them as they are.
+     */
+    public static final String TARGET_DPI = "target_dpi";
+    /**
+     * Size limits in kilobytes of each output file and of each page, 0 by default for none.
+     */
+    public static final String MAX_DOCUMENT_KB = "max_document_kb";
+    public static final String MAX_PAGE_KB = "max_page_kb";
+    /**
+     * Color error within which color pages are written with a palette, 0 by default for never.
+     */
+    public static final String PALETTE_TOLERANCE = "palette_tolerance";
+    /**
+     * Whether the output files are linearized for fast web view, false by default.
+     */
+    public static final String LINEARIZE = "linearize";
+    /**
+     * Whether the output files are written with object streams and a cross-reference stream, false by default.
+     */
+    public static final String COMPACT = "compact";
+    public static final String OWNER_PASSWORD = "owner_password";
+    public static final String USER_PASSWORD = "user_password";
+    public static final String SCHEDULING = "scheduling";
+    public static final String COST_MODEL = "cost_model";
+    /**
+     * Maximum pages per output file, see {@link SplitPolicy}.
+     */
+    public static final String SPLIT_PAGES = "split_pages";
+    /**
+     * Maximum estimated megabytes per output file, see {@link SplitPolicy}.
+     */
+    public static final String SPLIT_MEGABYTES = "split_mb";
+    /**
+     * What happens to outputs of the same name, a {@link CollisionPolicy}, OVERWRITE by default.
+     */
+    public static final String COLLISION_POLICY = "collision_policy";
+    /**
+     * Source files of a single task separated by {@link File#pathSeparator}, used instead of {@link #SOURCES}.
+     */
+    public static final String FILES = "files";
+    /**
+     * File name of a single task output inside {@link #DESTINATION}.
+     */
+    public static final String OUTPUT_NAME = "output_name";
+
+    private JobDescription() {
+
+    }
+
+    public static Job toJob(Properties description, ModelListener listener) {
+        String sources = require(description, SOURCES);
+
+        File[] directories = Arrays.stream(sources.split(File.pathSeparator))
+                .filter(path -> !path.isEmpty())
+                .map(File::new)
+                .toArray(File[]::new);
+        List<Task> tasks = Model.parseSourceFiles(directories,
+                description.getProperty(OUTPUT_FORMAT, "<NAME>.pdf"),
+                description.getProperty(FILE_FILTER, "*.{PNG,png,JPG,jpg}"),
+                toSplitPolicy(description),
+                toCollisionPolicy(description),
+                new File(require(description, DESTINATION)));
+        return toJob(description, tasks, listener);
+    }
+
+    public static SplitPolicy toSplitPolicy(Properties description) {
+        return new SplitPolicy(Integer.parseInt(description.getProperty(SPLIT_PAGES, "0")),
+                Long.parseLong(description.getProperty(SPLIT_MEGABYTES, "0")) << 20);
+    }
+
+    public static CollisionPolicy toCollisionPolicy(Properties description) {
+        return CollisionPolicy.valueOf(description.getProperty(COLLISION_POLICY, CollisionPolicy.OVERWRITE.name()));
+    }
+
+    /**
+     * Builds a job of already parsed tasks, taking only the settings from the description.
+     */
+    public static Job toJob(Properties description, List<Task> tasks, ModelListener listener) {
+        return toJobBuilder(description, tasks, listener).build();
+    }
+
+    /**
+     * @return A builder with the settings of the description, for a job that needs more than those.
+     */
+    public static Job.Builder toJobBuilder(Properties description, List<Task> tasks, ModelListener listener) {
+        String destination = require(description, DESTINATION);
+        String ownerPassword = description.getProperty(OWNER_PASSWORD);
+        String userPassword = description.getProperty(USER_PASSWORD);
+
+        return new Job.Builder()
+                .setPriority(Integer.parseInt(description.getProperty(PRIORITY, String.valueOf(Job.NORMAL_PRIORITY))))
+                .setTasks(tasks)
+                .setDestinationFolder(new File(destination))
+                .setEncryption(ownerPassword != null || userPassword != null, ownerPassword, userPassword)
+                .setColorType(ColorType.valueOf(description.getProperty(COLOR_TYPE, ColorType.sRGB.name())))
+                .setColorMode(ColorMode.valueOf(description.getProperty(COLOR_MODE, ColorMode.FIXED.name())))
+                .setPageSize(PageSize.valueOf(description.getProperty(PAGE_SIZE, PageSize.A4.name())))
+                .setPageDirection(PageDirection.valueOf(description.getProperty(PAGE_DIRECTION, PageDirection.Portrait.name())))
+                .setAlign(PageAlign.VerticalAlign.valueOf(description.getProperty(VERTICAL_ALIGN, PageAlign.VerticalAlign.CENTER.name())),
+                        PageAlign.HorizontalAlign.valueOf(description.getProperty(HORIZONTAL_ALIGN, PageAlign.HorizontalAlign.CENTER.name())))
+                .setAutoRotate(Boolean.parseBoolean(description.getProperty(AUTO_ROTATE, "false")))
+                .setTargetDpi(Integer.parseInt(description.getProperty(TARGET_DPI, "0")))
+                .setSizeBudget(Long.parseLong(description.getProperty(MAX_DOCUMENT_KB, "0")) << 10,
+                        Long.parseLong(description.getProperty(MAX_PAGE_KB, "0")) << 10)
+                .setPaletteTolerance(Integer.parseInt(description.getProperty(PALETTE_TOLERANCE, "0")))
+                .setLinearize(Boolean.parseBoolean(description.getProperty(LINEARIZE, "false")))
+                .setCompact(Boolean.parseBoolean(description.getProperty(COMPACT, "false")))
+                .setScheduling(SchedulingPolicy.valueOf(description.getProperty(SCHEDULING, SchedulingPolicy.FIFO.name())),
+                        CostModel.valueOf(description.getProperty(COST_MODEL, CostModel.BYTES.name())))
+                .setListener(listener);
+    }
+
+    /**
+     * @return The settings of the job, without its tasks.
+     */
+    public static Properties fromJob(Job job) {
+        Properties description = new Properties();
+        description.setProperty(DESTINATION, job.destinationFolder.getAbsolutePath());
+        description.setProperty(PRIORITY, String.valueOf(job.priority));
+        description.setProperty(COLOR_TYPE, job.colorType.name());
+        description.setProperty(COLOR_MODE, job.colorMode.name());
+        if (job.pageSize != null)
+            description.setProperty(PAGE_SIZE, job.pageSize.name());
+        if (job.pageDirection != null)
+            description.setProperty(PAGE_DIRECTION, job.pageDirection.name());
+        if (job.horizontalAlign != null)
+            description.setProperty(HORIZONTAL_ALIGN, job.horizontalAlign.name());
+        if (job.verticalAlign != null)
+            description.setProperty(VERTICAL_ALIGN, job.verticalAlign.name());
+        description.setProperty(AUTO_ROTATE, String.valueOf(job.autoRotate));
+        description.setProperty(TARGET_DPI, String.valueOf(job.targetDpi));
+        description.setProperty(MAX_DOCUMENT_KB, String.valueOf(job.maxDocumentBytes >> 10));
+        description.setProperty(MAX_PAGE_KB, String.valueOf(job.maxPageBytes >> 10));
+        description.setProperty(PALETTE_TOLERANCE, String.valueOf(job.paletteTolerance));
+        description.setProperty(LINEARIZE, String.valueOf(job.linearize));
+        description.setProperty(COMPACT, String.valueOf(job.compact));
+        description.setProperty(SCHEDULING, job.schedulingPolicy.name());
+        description.setProperty(COST_MODEL, job.costModel.name());
+        if (job.encrypted) {
+            description.setProperty(OWNER_PASSWORD, job.ownerPassword == null ? "" : job.ownerPassword);
+            description.setProperty(USER_PASSWORD, job.userPassword == null ? "" : job.userPassword);
+        }
+        return description;
+    }
+
+    /**
+     * @return A copy of the settings which describes the single given task.
+     */
+    public static Properties describeTask(Properties settings, Task task) {
+        Properties description = new Properties();
+        description.putAll(settings);
+        description.remove(SOURCES);
+        StringJoiner files = new StringJoiner(File.pathSeparator);
+        for (File file : task.files) {
+            files.add(file.getAbsolutePath());
+        }
+        description.setProperty(FILES, files.toString());
+        description.setProperty(OUTPUT_NAME, task.destination.getName());
+        return description;
+    }
+
+    public static Task toTask(Properties description) {
+        File[] files = Arrays.stream(require(description, FILES).split(File.pathSeparator))
+                .filter(path -> !path.isEmpty())
+                .map(File::new)
+                .toArray(File[]::new);
+        return new Task(new File(require(description, OUTPUT_NAME)), files);
+    }
+
+    /**
+     * @return A copy of the description whose source and destination paths are resolved against the working
+     * directory of this process, for a daemon that runs in another one.
+     */
+    public static Properties withAbsolutePaths(Properties description) {
+        Properties resolved = new Properties();
+        resolved.putAll(description);
+        for (String key : new String[]{SOURCES, FILES}) {
+            String paths = description.getProperty(key);
+            if (paths == null)
+                continue;
+            StringJoiner absolute = new StringJoiner(File.pathSeparator);
+            for (String path : paths.split(File.pathSeparator)) {
+                if (!path.isEmpty())
+                    absolute.add(new File(path).getAbsolutePath());
+            }
+            resolved.setProperty(key, absolute.toString());
+        }
+        String destination = description.getProperty(DESTINATION);
+        if (destination != null && !destination.isEmpty())
+            resolved.setProperty(DESTINATION, new File(destination).getAbsolutePath());
+        return resolved;
+    }
+
+    private static String require(Properties description, String key) {
+        String value = description.getProperty(key);
+        if (value == null || value.isEmpty())
+            throw new IllegalArgumentException(key + "==null");
+        return value;
+    }
+}
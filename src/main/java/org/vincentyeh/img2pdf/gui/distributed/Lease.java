@@ -0,0 +1,30 @@
+package org.vincentyeh.img2pdf.gui.distributed;
+
+import java.nio.file.Path;
+
+/**
+ * Claim of one worker on one queued task.
+ * <p>
+ * Lease files are named {@code <task>.<generation>.lease}. Taking over an expired lease creates the next
+ * generation with CREATE_NEW, so exactly one worker wins and the highest generation is the owner.
+ */
+public class Lease {
+    public final String taskName;
+    public final int generation;
+    public final Path path;
+
+    Lease(String taskName, int generation, Path path) {
+        this.taskName = taskName;
+        this.generation = generation;
+        this.path = path;
+    }
+
+    static String fileName(String taskName, int generation) {
+        return taskName + "." + generation + QueueDirectory.LEASE_SUFFIX;
+    }
+
+    @Override
+    public String toString() {
+        return path.getFileName().toString();
+    }
+}
@@ -0,0 +1,232 @@
+package org.vincentyeh.img2pdf.gui.distributed;
+
+import org.vincentyeh.img2pdf.gui.daemon.JobDescription;
+import org.vincentyeh.img2pdf.gui.model.DestinationIndex;
+import org.vincentyeh.img2pdf.gui.model.Model;
+import org.vincentyeh.img2pdf.gui.model.Task;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Work queue kept in a directory shared by several worker processes, possibly on different hosts.
+ * <pre>
+ * tasks/&lt;task&gt;.task                 task description, written once by {@link #enqueue}
+ * leases/&lt;task&gt;.&lt;gen&gt;.lease        claim of a worker, its modification time is the heartbeat
+ * done/&lt;task&gt;.done                  completion marker
+ * failed/&lt;task&gt;.failed              failure marker holding the error message
+ * </pre>
+ * Expiry compares the lease modification time with the local clock, so the hosts should be time-synchronized.
+ * The last lease generation of a finished task is kept, so a claim that raced with the completion can neither reuse
+ * its generation nor start from generation 0 again.
+ */
+public class QueueDirectory {
+    static final String TASK_SUFFIX = ".task";
+    static final String LEASE_SUFFIX = ".lease";
+    static final String DONE_SUFFIX = ".done";
+    static final String FAILED_SUFFIX = ".failed";
+
+    private final Path tasks;
+    private final Path leases;
+    private final Path done;
+    private final Path failed;
+    private final long leaseTimeoutMillis;
+
+    public QueueDirectory(Path root, long leaseTimeoutMillis) throws IOException {
+        if (root == null)
+            throw new IllegalArgumentException("root==null");
+        if (leaseTimeoutMillis <= 0)
+            throw new IllegalArgumentException("leaseTimeoutMillis<=0");
+        this.tasks = Files.createDirectories(root.resolve("tasks"));
+        this.leases = Files.createDirectories(root.resolve("leases"));
+        this.done = Files.createDirectories(root.resolve("done"));
+        this.failed = Files.createDirectories(root.resolve("failed"));
+        this.leaseTimeoutMillis = leaseTimeoutMillis;
+    }
+
+    public long getLeaseTimeoutMillis() {
+        return leaseTimeoutMillis;
+    }
+
+    /**
+     * Splits a job description into one task file per source directory, leaving out the tasks whose output
+     * a later task writes again.
+     *
+     * @return Number of enqueued tasks.
+     */
+    public int enqueue(Properties jobDescription) throws IOException {
+        // Workers may run in other directories, so they get absolute paths.
+        jobDescription = JobDescription.withAbsolutePaths(jobDescription);
+        String sources = jobDescription.getProperty(JobDescription.SOURCES);
+        if (sources == null)
+            throw new IllegalArgumentException(JobDescription.SOURCES + "==null");
+        String destinationPath = jobDescription.getProperty(JobDescription.DESTINATION);
+        File destination = destinationPath == null ? null : new File(destinationPath);
+        File[] directories = Arrays.stream(sources.split(File.pathSeparator))
+                .filter(path -> !path.isEmpty())
+                .map(File::new)
+                .toArray(File[]::new);
+        List<Task> parsed = Model.parseSourceFiles(directories,
+                jobDescription.getProperty(JobDescription.OUTPUT_FORMAT, "<NAME>.pdf"),
+                jobDescription.getProperty(JobDescription.FILE_FILTER, "*.{PNG,png,JPG,jpg}"),
+                JobDescription.toSplitPolicy(jobDescription),
+                JobDescription.toCollisionPolicy(jobDescription),
+                destination);
+        // Settings that no worker would accept fail here rather than on every worker.
+        JobDescription.toJob(jobDescription, parsed, null);
+        // Workers convert tasks independently, so an output written again by a later task is dropped here.
+        DestinationIndex index = new DestinationIndex(parsed, destination);
+        parsed = parsed.stream().filter(task -> !index.isOverwritten(task)).collect(Collectors.toList());
+
+        String batch = UUID.randomUUID().toString();
+        for (int i = 0; i < parsed.size(); i++) {
+            Properties description = JobDescription.describeTask(jobDescription, parsed.get(i));
+
+            String name = String.format("%s-%06d", batch, i);
+            Path temp = tasks.resolve(name + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                description.store(writer, null);
+            }
+            // Workers only list *.task, so they never read a half-written description.
+            Files.move(temp, tasks.resolve(name + TASK_SUFFIX), StandardCopyOption.ATOMIC_MOVE);
+        }
+        return parsed.size();
+    }
+
+    /**
+     * @return Names of the tasks without a completion or failure marker.
+     */
+    public List<String> listUnfinished() throws IOException {
+        Set<String> finished = new HashSet<>();
+        finished.addAll(listNames(done, DONE_SUFFIX));
+        finished.addAll(listNames(failed, FAILED_SUFFIX));
+        List<String> unfinished = new ArrayList<>();
+        for (String name : listNames(tasks, TASK_SUFFIX)) {
+            if (!finished.contains(name))
+                unfinished.add(name);
+        }
+        Collections.sort(unfinished);
+        return unfinished;
+    }
+
+    /**
+     * Claims a task which is unleased or whose lease has expired.
+     *
+     * @return The lease, or null if another worker holds the task or has won the claim.
+     */
+    public Lease tryClaim(String taskName, String workerId) throws IOException {
+        if (isFinished(taskName))
+            return null;
+        Lease current = currentLease(taskName);
+        int generation = 0;
+        if (current != null) {
+            if (!isExpired(current))
+                return null;
+            generation = current.generation + 1;
+        }
+        Path path = leases.resolve(Lease.fileName(taskName, generation));
+        try {
+            Files.write(path, workerId.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE_NEW);
+        } catch (FileAlreadyExistsException e) {
+            return null;
+        }
+        // complete() writes the marker before it releases the leases, so a claim that raced with it sees the marker.
+        if (isFinished(taskName)) {
+            Files.deleteIfExists(path);
+            return null;
+        }
+        return new Lease(taskName, generation, path);
+    }
+
+    /**
+     * Refreshes the lease.
+     *
+     * @return false if the lease was taken over by another worker.
+     */
+    public boolean heartbeat(Lease lease) throws IOException {
+        if (!isOwner(lease))
+            return false;
+        Files.setLastModifiedTime(lease.path, FileTime.fromMillis(System.currentTimeMillis()));
+        return true;
+    }
+
+    public boolean isOwner(Lease lease) throws IOException {
+        Lease current = currentLease(lease.taskName);
+        return current != null && current.generation == lease.generation;
+    }
+
+    public Properties readTask(String taskName) throws IOException {
+        Properties description = new Properties();
+        try (Reader reader = Files.newBufferedReader(tasks.resolve(taskName + TASK_SUFFIX), StandardCharsets.UTF_8)) {
+            description.load(reader);
+        }
+        return description;
+    }
+
+    /**
+     * Writes the marker of a finished task and releases every lease generation of it but the last.
+     * Nothing is written if the lease was taken over in the meantime.
+     */
+    public boolean complete(Lease lease, boolean success, String message) throws IOException {
+        if (!isOwner(lease))
+            return false;
+        Path marker = success
+                ? done.resolve(lease.taskName + DONE_SUFFIX)
+                : failed.resolve(lease.taskName + FAILED_SUFFIX);
+        Files.write(marker, (message == null ? "" : message).getBytes(StandardCharsets.UTF_8));
+        Lease last = currentLease(lease.taskName);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(leases, lease.taskName + ".*" + LEASE_SUFFIX)) {
+            for (Path path : stream) {
+                if (last == null || !path.equals(last.path))
+                    Files.deleteIfExists(path);
+            }
+        }
+        return true;
+    }
+
+    private boolean isFinished(String taskName) {
+        return Files.exists(done.resolve(taskName + DONE_SUFFIX))
+                || Files.exists(failed.resolve(taskName + FAILED_SUFFIX));
+    }
+
+    private boolean isExpired(Lease lease) throws IOException {
+        try {
+            long modified = Files.getLastModifiedTime(lease.path).toMillis();
+            return System.currentTimeMillis() - modified > leaseTimeoutMillis;
+        } catch (NoSuchFileException e) {
+            return true;
+        }
+    }
+
+    private Lease currentLease(String taskName) throws IOException {
+        Lease current = null;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(leases, taskName + ".*" + LEASE_SUFFIX)) {
+            for (Path path : stream) {
+                String fileName = path.getFileName().toString();
+                String generation = fileName.substring(taskName.length() + 1, fileName.length() - LEASE_SUFFIX.length());
+                try {
+                    int value = Integer.parseInt(generation);
+                    if (current == null || value > current.generation)
+                        current = new Lease(taskName, value, path);
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        return current;
+    }
+
+    private static List<String> listNames(Path directory, String suffix) throws IOException {
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + suffix)) {
+            for (Path path : stream) {
+                String fileName = path.getFileName().toString();
+                names.add(fileName.substring(0, fileName.length() - suffix.length()));
+            }
+        }
+        return names;
+    }
+}
@@ -0,0 +1,199 @@
+package org.vincentyeh.img2pdf.gui.distributed;
+
+import org.vincentyeh.img2pdf.gui.daemon.JobDescription;
+import org.vincentyeh.img2pdf.gui.model.Job;
+import org.vincentyeh.img2pdf.gui.model.Model;
+import org.vincentyeh.img2pdf.gui.model.ModelListener;
+import org.vincentyeh.img2pdf.gui.model.Task;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Worker process of a {@link QueueDirectory}.
+ * <p>
+ * Each claim thread claims one task at a time, converts it through the normal {@link Model} path and writes the
+ * completion marker. Leases of running tasks are refreshed in the background, and a task whose lease was taken
+ * over is cancelled locally. Its output is only renamed into place after the lease is checked once more.
+ */
+public class QueueWorker {
+    private static final long POLL_INTERVAL_MILLIS = 1000;
+
+    private final QueueDirectory queue;
+    private final Model model;
+    private final String workerId;
+    private final int threads;
+    private final boolean drain;
+    private final PrintStream log;
+    private final Map<Lease, Job> running = new ConcurrentHashMap<>();
+    private final Random random = new Random();
+
+    /**
+     * @param drain Exit once every task of the queue is finished instead of waiting for new tasks.
+     */
+    public QueueWorker(QueueDirectory queue, Model model, String workerId, int threads, boolean drain, PrintStream log) {
+        if (queue == null)
+            throw new IllegalArgumentException("queue==null");
+        if (model == null)
+            throw new IllegalArgumentException("model==null");
+        if (threads < 1)
+            throw new IllegalArgumentException("threads<1");
+        this.queue = queue;
+        this.model = model;
+        this.workerId = workerId;
+        this.threads = threads;
+        this.drain = drain;
+        this.log = log;
+    }
+
+    public void run() throws InterruptedException {
+        ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "lease-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, queue.getLeaseTimeoutMillis() / 3);
+        heartbeat.scheduleAtFixedRate(this::refreshLeases, period, period, TimeUnit.MILLISECONDS);
+
+        ExecutorService claimers = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            claimers.execute(this::claimLoop);
+        }
+        claimers.shutdown();
+        try {
+            while (!claimers.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.printf("[%s] %d task(s) running\n", workerId, running.size());
+            }
+        } finally {
+            claimers.shutdownNow();
+            heartbeat.shutdownNow();
+        }
+    }
+
+    private void claimLoop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                List<String> unfinished = queue.listUnfinished();
+                if (unfinished.isEmpty() && drain)
+                    return;
+
+                Lease lease = claimAny(unfinished);
+                if (lease == null) {
+                    Thread.sleep(POLL_INTERVAL_MILLIS);
+                    continue;
+                }
+                process(lease);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException | RuntimeException e) {
+                log.printf("[%s] [ERROR] %s\n", workerId, e.getMessage());
+                try {
+                    Thread.sleep(POLL_INTERVAL_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private Lease claimAny(List<String> unfinished) throws IOException {
+        if (unfinished.isEmpty())
+            return null;
+        // Workers start at different offsets so that they do not all race for the same task.
+        int offset = random.nextInt(unfinished.size());
+        for (int i = 0; i < unfinished.size(); i++) {
+            Lease lease = queue.tryClaim(unfinished.get((offset + i) % unfinished.size()), workerId);
+            if (lease != null)
+                return lease;
+        }
+        return null;
+    }
+
+    private void process(Lease lease) throws IOException, InterruptedException {
+        Properties description = queue.readTask(lease.taskName);
+        Task task = JobDescription.toTask(description);
+        Completion completion = new Completion();
+        // The output is only renamed into place while this worker still holds the lease.
+        Job job = JobDescription.toJobBuilder(description, Collections.singletonList(task), completion)
+                .setCommitGuard(claimed -> queue.isOwner(lease))
+                .build();
+
+        running.put(lease, job);
+        try {
+            log.printf("[%s] claimed %s (%s)\n", workerId, lease, task.destination.getName());
+            model.submit(job);
+            // A job cancelled while queued never starts, so its state is polled as well.
+            while (!completion.completed.await(1, TimeUnit.SECONDS)) {
+                if (job.isCancelled() && !completion.started)
+                    break;
+            }
+        } finally {
+            running.remove(lease);
+        }
+
+        if (job.isCancelled() || task.getStatus() == Task.Status.CANCELLED) {
+            log.printf("[%s] lost lease %s\n", workerId, lease);
+            return;
+        }
+        boolean success = task.getStatus() == Task.Status.DONE;
+        if (queue.complete(lease, success, completion.lastLog))
+            log.printf("[%s] %s\n", workerId, completion.lastLog);
+    }
+
+    private void refreshLeases() {
+        for (Map.Entry<Lease, Job> entry : running.entrySet()) {
+            try {
+                if (!queue.heartbeat(entry.getKey()))
+                    model.cancelJob(entry.getValue().id);
+            } catch (IOException e) {
+                log.printf("[%s] [WARN] heartbeat of %s failed: %s\n", workerId, entry.getKey(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Waits for the single-task job of one claim.
+     */
+    private static class Completion implements ModelListener {
+        private final CountDownLatch completed = new CountDownLatch(1);
+        private volatile boolean started = false;
+        private volatile String lastLog = null;
+
+        @Override
+        public void onBatchProgressUpdate(int progress, int total) {
+
+        }
+
+        @Override
+        public void onConversionProgressUpdate(int progress, int total) {
+
+        }
+
+        @Override
+        public void onBatchStart() {
+            started = true;
+        }
+
+        @Override
+        public void onBatchComplete() {
+            completed.countDown();
+        }
+
+        @Override
+        public void onSourcesUpdate(List<Task> source) {
+
+        }
+
+        @Override
+        public void onLogUpdate(List<String> log) {
+
+        }
+
+        @Override
+        public void onLogAppend(String log) {
+            lastLog = log;
+        }
+    }
+}
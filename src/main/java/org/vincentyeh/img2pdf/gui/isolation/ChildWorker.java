@@ -0,0 +1,136 @@
+package org.vincentyeh.img2pdf.gui.isolation;
+
+import org.vincentyeh.img2pdf.gui.daemon.JobDescription;
+import org.vincentyeh.img2pdf.gui.model.Job;
+import org.vincentyeh.img2pdf.gui.model.Model;
+import org.vincentyeh.img2pdf.gui.model.ModelListener;
+import org.vincentyeh.img2pdf.gui.model.Task;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Entry point of a child JVM started by {@link ProcessPool}.
+ * <p>
+ * Reads task descriptions from stdin, each one terminated by {@link #END_OF_TASK}, and converts them one at a time.
+ * Protocol lines on stdout start with {@link #PREFIX}, so that anything else printed by libraries is ignored:
+ * <pre>
+ * @@STAGING &lt;path of the file the output is written to before it is renamed&gt;
+ * @@PAGE &lt;progress&gt;/&lt;total&gt;
+ * @@LOG &lt;message&gt;
+ * @@RESULT &lt;task status&gt; &lt;message&gt;
+ * </pre>
+ */
+public class ChildWorker {
+    static final String PREFIX = "@@";
+    static final String END_OF_TASK = "END";
+
+    private ChildWorker() {
+
+    }
+
+    /**
+     * @param model Converts the tasks, it is shut down when the input ends.
+     */
+    public static void serve(Model model, InputStream input, PrintStream output) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), true);
+        // The parent deletes the staging file if it has to kill this process.
+        model.setStagingListener(staging -> send(writer, "STAGING " + staging.getAbsolutePath()));
+        try {
+            StringBuilder text = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.equals(END_OF_TASK)) {
+                    text.append(line).append('\n');
+                    continue;
+                }
+                Properties description = new Properties();
+                description.load(new StringReader(text.toString()));
+                text.setLength(0);
+                convert(model, description, writer);
+            }
+        } finally {
+            model.shutdown();
+        }
+    }
+
+    private static void convert(Model model, Properties description, PrintWriter writer) {
+        Task task;
+        Reply reply = new Reply(writer);
+        try {
+            task = JobDescription.toTask(description);
+            Job job = JobDescription.toJob(description, Collections.singletonList(task), reply);
+            model.submit(job);
+            reply.completed.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            reply.send("RESULT " + Task.Status.FAILED + " interrupted");
+            return;
+        } catch (RuntimeException e) {
+            reply.send("RESULT " + Task.Status.FAILED + " " + e.getMessage());
+            return;
+        }
+        reply.send("RESULT " + task.getStatus() + " " + (reply.lastLog == null ? "" : reply.lastLog));
+    }
+
+    private static void send(PrintWriter writer, String line) {
+        synchronized (writer) {
+            writer.println(PREFIX + line);
+        }
+    }
+
+    private static class Reply implements ModelListener {
+        private final PrintWriter writer;
+        private final CountDownLatch completed = new CountDownLatch(1);
+        private volatile String lastLog;
+
+        private Reply(PrintWriter writer) {
+            this.writer = writer;
+        }
+
+        private void send(String line) {
+            ChildWorker.send(writer, line);
+        }
+
+        @Override
+        public void onBatchProgressUpdate(int progress, int total) {
+
+        }
+
+        @Override
+        public void onConversionProgressUpdate(int progress, int total) {
+            send(String.format("PAGE %d/%d", progress, total));
+        }
+
+        @Override
+        public void onBatchStart() {
+
+        }
+
+        @Override
+        public void onBatchComplete() {
+            completed.countDown();
+        }
+
+        @Override
+        public void onSourcesUpdate(List<Task> source) {
+
+        }
+
+        @Override
+        public void onLogUpdate(List<String> log) {
+
+        }
+
+        @Override
+        public void onLogAppend(String log) {
+            lastLog = log;
+            send("LOG " + log);
+        }
+    }
+}
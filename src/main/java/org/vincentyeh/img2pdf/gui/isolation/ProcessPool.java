@@ -0,0 +1,247 @@
+package org.vincentyeh.img2pdf.gui.isolation;
+
+import org.vincentyeh.img2pdf.gui.App;
+import org.vincentyeh.img2pdf.gui.daemon.JobDescription;
+import org.vincentyeh.img2pdf.gui.model.IsolatedRunner;
+import org.vincentyeh.img2pdf.gui.model.Job;
+import org.vincentyeh.img2pdf.gui.model.ModelListener;
+import org.vincentyeh.img2pdf.gui.model.Task;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool of child JVMs, each with its own heap, which convert one task at a time.
+ * <p>
+ * A child that dies is restarted and only the task it was converting is queued again,
+ * up to {@link #MAX_ATTEMPTS} times. The staging file the child was writing is deleted.
+ */
+public class ProcessPool implements IsolatedRunner {
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final BlockingQueue<Assignment> queue = new LinkedBlockingQueue<>();
+    private final List<Thread> supervisors = new ArrayList<>();
+    private final List<String> command;
+    private volatile boolean closed = false;
+
+    /**
+     * @param maxHeap Value of -Xmx of each child, e.g. "2g".
+     */
+    public ProcessPool(int size, String maxHeap) {
+        if (size < 1)
+            throw new IllegalArgumentException("size<1");
+        if (maxHeap == null)
+            throw new IllegalArgumentException("maxHeap==null");
+        String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getAbsolutePath();
+        this.command = new ArrayList<>(Arrays.asList(java,
+                "-Xmx" + maxHeap,
+                // An OutOfMemoryError must end the child, otherwise the parent waits for a result forever.
+                "-XX:+ExitOnOutOfMemoryError",
+                "-Dfile.encoding=UTF-8"));
+        // The children convert with the same settings, but never start a pool of their own.
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith("img2pdf.") && !name.startsWith("img2pdf.isolated."))
+                command.add("-D" + name + "=" + System.getProperty(name));
+        }
+        command.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"), App.class.getName(), "--child"));
+
+        for (int i = 0; i < size; i++) {
+            Thread supervisor = new Thread(this::supervise, "child-supervisor-" + (i + 1));
+            supervisor.setDaemon(true);
+            supervisor.start();
+            supervisors.add(supervisor);
+        }
+    }
+
+    @Override
+    public Assignment submit(Job job, Task task, ModelListener listener) {
+        if (closed)
+            throw new IllegalStateException("pool is closed");
+        Assignment assignment = new Assignment(JobDescription.describeTask(JobDescription.fromJob(job), task), listener);
+        queue.add(assignment);
+        return assignment;
+    }
+
+    @Override
+    public int getSize() {
+        return supervisors.size();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (Thread supervisor : supervisors) {
+            supervisor.interrupt();
+        }
+        Assignment assignment;
+        while ((assignment = queue.poll()) != null) {
+            assignment.cancel();
+        }
+    }
+
+    private void supervise() {
+        Child child = null;
+        try {
+            while (!closed) {
+                Assignment assignment = queue.take();
+                if (assignment.cancelled)
+                    continue;
+                try {
+                    if (child == null || !child.process.isAlive())
+                        child = new Child(new ProcessBuilder(command)
+                                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                                .start());
+                    assignment.process = child.process;
+                    if (assignment.cancelled)
+                        throw new IOException("cancelled");
+                    long started = System.nanoTime();
+                    Result result = child.convert(assignment);
+                    assignment.elapsedNanos = System.nanoTime() - started;
+                    assignment.result.complete(result);
+                } catch (IOException e) {
+                    if (child != null)
+                        kill(child.process);
+                    child = null;
+                    assignment.discardStaging();
+                    if (assignment.cancelled) {
+                        assignment.result.complete(new Result(Task.Status.CANCELLED, null));
+                    } else if (++assignment.attempts < MAX_ATTEMPTS) {
+                        queue.add(assignment);
+                    } else {
+                        assignment.result.complete(new Result(Task.Status.FAILED,
+                                "worker process crashed " + MAX_ATTEMPTS + " times: " + e.getMessage()));
+                    }
+                } finally {
+                    assignment.process = null;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (child != null)
+                child.process.destroyForcibly();
+        }
+    }
+
+    /**
+     * Kills the child and waits a moment for it to exit, so that its open files can be deleted on every platform.
+     */
+    private static void kill(Process process) {
+        process.destroyForcibly();
+        try {
+            process.waitFor(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * One child JVM and its pipes.
+     */
+    private static class Child {
+        private final Process process;
+        private final PrintWriter writer;
+        private final BufferedReader reader;
+
+        private Child(Process process) {
+            this.process = process;
+            this.writer = new PrintWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+            this.reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        }
+
+        private Result convert(Assignment assignment) throws IOException {
+            StringWriter text = new StringWriter();
+            assignment.description.store(text, null);
+            writer.println(text);
+            writer.println(ChildWorker.END_OF_TASK);
+            writer.flush();
+            if (writer.checkError())
+                throw new IOException("unable to write to worker process");
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.startsWith(ChildWorker.PREFIX))
+                    continue;
+                String message = line.substring(ChildWorker.PREFIX.length());
+                if (message.startsWith("STAGING ")) {
+                    assignment.staging = new File(message.substring("STAGING ".length()));
+                } else if (message.startsWith("PAGE ") && assignment.listener != null) {
+                    String[] progress = message.substring("PAGE ".length()).split("/");
+                    assignment.listener.onConversionProgressUpdate(Integer.parseInt(progress[0]), Integer.parseInt(progress[1]));
+                } else if (message.startsWith("RESULT ")) {
+                    String[] result = message.substring("RESULT ".length()).split(" ", 2);
+                    // The child has renamed or deleted its staging file by now.
+                    assignment.staging = null;
+                    return new Result(Task.Status.valueOf(result[0]), result.length > 1 ? result[1] : "");
+                }
+            }
+            throw new IOException("worker process exited");
+        }
+    }
+
+    /**
+     * A task handed to the pool.
+     */
+    public static class Assignment implements IsolatedRunner.Assignment {
+        private final Properties description;
+        private final ModelListener listener;
+        private final CompletableFuture<Result> result = new CompletableFuture<>();
+        private volatile boolean cancelled = false;
+        private volatile Process process;
+        private int attempts = 0;
+        private volatile long elapsedNanos = 0;
+        /**
+         * Output the child is writing, to be deleted if the child is killed.
+         */
+        private volatile File staging;
+
+        private Assignment(Properties description, ModelListener listener) {
+            this.description = description;
+            this.listener = listener;
+        }
+
+        /**
+         * Kills the child converting this task, if any. The child is restarted for the next task.
+         */
+        @Override
+        public void cancel() {
+            cancelled = true;
+            Process running = process;
+            if (running != null)
+                running.destroyForcibly();
+            else
+                result.complete(new Result(Task.Status.CANCELLED, null));
+        }
+
+        @Override
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        @Override
+        public Result await() throws InterruptedException {
+            try {
+                return result.get();
+            } catch (ExecutionException e) {
+                return new Result(Task.Status.FAILED, e.getCause().getMessage());
+            }
+        }
+
+        private void discardStaging() {
+            File file = staging;
+            staging = null;
+            if (file != null && !file.delete() && file.exists())
+                file.deleteOnExit();
+        }
+    }
+
+}
@@ -0,0 +1,152 @@
+package org.vincentyeh.img2pdf.gui.model;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the number of tasks converted at the same time and tunes the limit while converting.
+ * <p>
+ * Every {@link #SAMPLE_INTERVAL_MILLIS} the pages/sec, the share of time spent in GC and the free heap are sampled.
+ * Under GC or heap pressure the limit goes down. Otherwise the limit keeps moving in the direction that last
+ * improved the throughput and turns around when the throughput drops (hill climbing).
+ */
+public class AdaptiveConcurrency {
+    private static final long SAMPLE_INTERVAL_MILLIS = 2000;
+    private static final double MAX_GC_FRACTION = 0.15;
+    private static final double MIN_FREE_HEAP_FRACTION = 0.15;
+    /**
+     * Throughput changes smaller than this are treated as noise.
+     */
+    private static final double TOLERANCE = 0.05;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final AtomicLong pages = new AtomicLong();
+    private final ScheduledExecutorService sampler;
+
+    private int limit;
+    private int active = 0;
+    private int direction = 1;
+    private double lastThroughput = 0;
+    private long lastPages = 0;
+    private long lastGcMillis;
+    private long lastSampleNanos;
+    /**
+     * Integral of the limit over time up to {@link #limitSince}, in thread seconds.
+     */
+    private double limitSeconds = 0;
+    private long limitSince;
+
+    public AdaptiveConcurrency(int minLimit, int maxLimit) {
+        if (minLimit < 1)
+            throw new IllegalArgumentException("minLimit<1");
+        if (maxLimit < minLimit)
+            throw new IllegalArgumentException("maxLimit<minLimit");
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = minLimit;
+        this.lastGcMillis = totalGcMillis();
+        this.lastSampleNanos = System.nanoTime();
+        this.limitSince = lastSampleNanos;
+        this.sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "concurrency-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleAtFixedRate(this::sample, SAMPLE_INTERVAL_MILLIS, SAMPLE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Blocks until one more task may start.
+     */
+    public synchronized void acquire() throws InterruptedException {
+        while (active >= limit) {
+            wait();
+        }
+        active++;
+    }
+
+    public synchronized void release() {
+        active--;
+        notifyAll();
+    }
+
+    public void recordPages(int count) {
+        pages.addAndGet(count);
+    }
+
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return The integral of the limit over time since the controller was created, in thread seconds. The
+     * difference of two readings divided by the seconds between them is the average limit in between.
+     */
+    public synchronized double getLimitSeconds() {
+        return limitSeconds + limit * ((System.nanoTime() - limitSince) / 1e9);
+    }
+
+    public void shutdown() {
+        sampler.shutdownNow();
+    }
+
+    private void sample() {
+        long now = System.nanoTime();
+        long pagesNow = pages.get();
+        long gcMillis = totalGcMillis();
+        double seconds = (now - lastSampleNanos) / 1e9;
+        double throughput = (pagesNow - lastPages) / seconds;
+        double gcFraction = (gcMillis - lastGcMillis) / 1000.0 / seconds;
+        lastSampleNanos = now;
+        lastPages = pagesNow;
+        lastGcMillis = gcMillis;
+
+        Runtime runtime = Runtime.getRuntime();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        double freeFraction = (double) (runtime.maxMemory() - used) / runtime.maxMemory();
+
+        synchronized (this) {
+            if (active == 0) {
+                lastThroughput = 0;
+                return;
+            }
+            if (gcFraction > MAX_GC_FRACTION || freeFraction < MIN_FREE_HEAP_FRACTION) {
+                direction = -1;
+                setLimit(limit - 1);
+            } else {
+                if (throughput < lastThroughput * (1 - TOLERANCE))
+                    direction = -direction;
+                // Raising an unsaturated limit changes nothing and would mislead the next sample.
+                if (direction < 0 || active >= limit)
+                    setLimit(limit + direction);
+            }
+            lastThroughput = throughput;
+        }
+    }
+
+    private void setLimit(int value) {
+        int bounded = Math.max(minLimit, Math.min(maxLimit, value));
+        if (bounded == minLimit || bounded == maxLimit)
+            direction = bounded == minLimit ? 1 : -1;
+        long now = System.nanoTime();
+        limitSeconds += limit * ((now - limitSince) / 1e9);
+        limitSince = now;
+        limit = bounded;
+        notifyAll();
+    }
+
+    private static long totalGcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            long time = bean.getCollectionTime();
+            if (time > 0)
+                total += time;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,20 @@
+package org.vincentyeh.img2pdf.gui.model;
+
+/**
+ * What happens to tasks whose output format gives them the same destination, see {@link DestinationIndex}.
+ */
+public enum CollisionPolicy {
+    /**
+     * The names are kept and only the last task of each destination is converted, the earlier ones are skipped.
+     */
+    OVERWRITE,
+    /**
+     * The first task of each destination keeps its name, the others get " (2)", " (3)" and so on before the extension.
+     */
+    SUFFIX,
+    /**
+     * The names of the tasks sharing a destination are prefixed with as many parent folders of their source
+     * directories as it takes to tell them apart, and suffixed like {@link #SUFFIX} if that is not enough.
+     */
+    PARENT
+}
@@ -0,0 +1,19 @@
+package org.vincentyeh.img2pdf.gui.model;
+
+/**
+ * How the color type of the pages of a job is chosen.
+ */
+public enum ColorMode {
+    /**
+     * Every page is stored with the color type of the job.
+     */
+    FIXED,
+    /**
+     * Each page is stored as 1-bit or gray when it has no meaningful color, and with the color type of the job otherwise.
+     */
+    AUTO,
+    /**
+     * Every page is stored as 1-bit, gray and color pages are thresholded.
+     */
+    BILEVEL
+}
@@ -0,0 +1,238 @@
+package org.vincentyeh.img2pdf.gui.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tasks by destination, to find the ones that would overwrite each other's output before any of them is converted.
+ * <p>
+ * A task writes the file name of its destination into the destination folder of its job, so only that name counts.
+ * Names that differ only in case count as the same destination if the file system of the destination folder
+ * ignores case, as the default ones of Windows and macOS do.
+ */
+public class DestinationIndex {
+    private static final Map<Path, Boolean> IGNORES_CASE = new ConcurrentHashMap<>();
+
+    private final boolean ignoreCase;
+    private final Map<String, List<Task>> tasksByName;
+    private final Map<String, List<Task>> collisions = new HashMap<>();
+
+    /**
+     * @param destinationFolder Folder the tasks are written to, null to compare names exactly.
+     */
+    public DestinationIndex(List<Task> tasks, File destinationFolder) {
+        ignoreCase = ignoresCase(destinationFolder);
+        tasksByName = new HashMap<>(tasks.size() * 2);
+        for (Task task : tasks) {
+            String name = key(task.destination.getName(), ignoreCase);
+            List<Task> sharing = tasksByName.computeIfAbsent(name, key -> new ArrayList<>(1));
+            sharing.add(task);
+            if (sharing.size() == 2)
+                collisions.put(name, sharing);
+        }
+    }
+
+    /**
+     * @return The destinations of more than one task, each with its tasks in order.
+     */
+    public Map<String, List<Task>> getCollisions() {
+        return collisions;
+    }
+
+    /**
+     * @return The number of tasks writing the destination of the task, itself included.
+     */
+    public int countSharing(Task task) {
+        List<Task> sharing = tasksByName.get(key(task.destination.getName(), ignoreCase));
+        return sharing == null ? 0 : sharing.size();
+    }
+
+    /**
+     * @return Whether a later task writes the destination of the task again.
+     */
+    public boolean isOverwritten(Task task) {
+        List<Task> sharing = tasksByName.get(key(task.destination.getName(), ignoreCase));
+        return sharing != null && sharing.get(sharing.size() - 1) != task;
+    }
+
+    /**
+     * Whether the file system of the folder, or of its nearest existing ancestor, finds a file by a name
+     * in the other case. It is probed once per folder, and assumed to be case sensitive if that fails.
+     */
+    public static boolean ignoresCase(File folder) {
+        if (folder == null)
+            return false;
+        File existing = folder.getAbsoluteFile();
+        while (existing != null && !existing.isDirectory()) {
+            existing = existing.getParentFile();
+        }
+        if (existing == null)
+            return false;
+        return IGNORES_CASE.computeIfAbsent(existing.toPath(), DestinationIndex::probeCase);
+    }
+
+    private static boolean probeCase(Path folder) {
+        // An entry of the folder with a cased name tells without writing anything.
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(folder)) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                if (!swapCase(name).equals(name))
+                    return isSameFile(entry, entry.resolveSibling(swapCase(name)));
+            }
+        } catch (IOException | DirectoryIteratorException e) {
+            return false;
+        }
+        try {
+            Path probe = Files.createTempFile(folder, ".case", ".tmp");
+            try {
+                return isSameFile(probe, probe.resolveSibling(swapCase(probe.getFileName().toString())));
+            } finally {
+                Files.deleteIfExists(probe);
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static boolean isSameFile(Path path, Path swapped) {
+        try {
+            return Files.exists(swapped) && Files.isSameFile(path, swapped);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static String swapCase(String name) {
+        StringBuilder swapped = new StringBuilder(name.length());
+        for (char c : name.toCharArray()) {
+            swapped.append(Character.isUpperCase(c) ? Character.toLowerCase(c) : Character.toUpperCase(c));
+        }
+        return swapped.toString();
+    }
+
+    /**
+     * Renames the outputs that share a destination as the policy says.
+     *
+     * @param sources Source directory of each output, for {@link CollisionPolicy#PARENT}.
+     * @param names   File names of the outputs.
+     * @return The names, the same as given for {@link CollisionPolicy#OVERWRITE}.
+     */
+    static String[] disambiguate(File[] sources, String[] names, CollisionPolicy policy, boolean ignoreCase) {
+        String[] resolved = names.clone();
+        if (policy == CollisionPolicy.OVERWRITE)
+            return resolved;
+
+        Map<String, List<Integer>> groups = new LinkedHashMap<>(names.length * 2);
+        for (int i = 0; i < names.length; i++) {
+            groups.computeIfAbsent(key(names[i], ignoreCase), name -> new ArrayList<>(1)).add(i);
+        }
+        // Every original name stays taken, so a new name never collides with a later one.
+        Set<String> taken = new HashSet<>(groups.keySet());
+        for (List<Integer> group : groups.values()) {
+            if (group.size() < 2)
+                continue;
+            List<Integer> remaining = policy == CollisionPolicy.PARENT
+                    ? prefixParents(sources, resolved, group, taken, ignoreCase)
+                    : group.subList(1, group.size());
+            for (int i : remaining) {
+                String candidate;
+                int number = 2;
+                do {
+                    candidate = withSuffix(resolved[i], number++);
+                } while (!taken.add(key(candidate, ignoreCase)));
+                resolved[i] = candidate;
+            }
+        }
+        return resolved;
+    }
+
+    /**
+     * Prefixes the names of the group with their parent folders, one more folder at a time for the names that are
+     * still taken or shared, until every name is new or its folders run out. Outputs of a directory listed twice
+     * cannot be told apart by folders and follow the first.
+     *
+     * @return The outputs whose prefixed name is still not new.
+     */
+    private static List<Integer> prefixParents(File[] sources, String[] resolved, List<Integer> group,
+                                               Set<String> taken, boolean ignoreCase) {
+        List<List<String>> parents = new ArrayList<>(group.size());
+        Map<File, Integer> firstOfSource = new HashMap<>();
+        int[] first = new int[group.size()];
+        for (int j = 0; j < group.size(); j++) {
+            int i = group.get(j);
+            first[j] = firstOfSource.computeIfAbsent(sources[i].getAbsoluteFile(), source -> parents.size());
+            List<String> names = new ArrayList<>();
+            for (File parent = sources[i].getAbsoluteFile().getParentFile();
+                 parent != null && !parent.getName().isEmpty(); parent = parent.getParentFile()) {
+                names.add(parent.getName());
+            }
+            parents.add(names);
+        }
+
+        int[] depths = new int[group.size()];
+        String[] prefixed = new String[group.size()];
+        boolean deepened = true;
+        while (deepened) {
+            Map<String, Integer> counts = new HashMap<>();
+            for (int j = 0; j < group.size(); j++) {
+                prefixed[j] = withPrefix(resolved[group.get(j)], parents.get(j), depths[first[j]] + 1);
+                if (first[j] == j)
+                    counts.merge(key(prefixed[j], ignoreCase), 1, Integer::sum);
+            }
+            deepened = false;
+            for (int j = 0; j < group.size(); j++) {
+                String name = key(prefixed[j], ignoreCase);
+                if (first[j] != j)
+                    continue;
+                if ((counts.get(name) > 1 || taken.contains(name)) && depths[j] + 1 < parents.get(j).size()) {
+                    depths[j]++;
+                    deepened = true;
+                }
+            }
+        }
+
+        List<Integer> remaining = new ArrayList<>();
+        for (int j = 0; j < group.size(); j++) {
+            int i = group.get(j);
+            resolved[i] = prefixed[j];
+            if (!taken.add(key(prefixed[j], ignoreCase)))
+                remaining.add(i);
+        }
+        return remaining;
+    }
+
+    /**
+     * @param parents Names of the parent folders, the nearest first.
+     * @param depth   Number of them to prefix, the farthest first.
+     */
+    private static String withPrefix(String name, List<String> parents, int depth) {
+        StringBuilder prefix = new StringBuilder();
+        for (int level = Math.min(depth, parents.size()) - 1; level >= 0; level--) {
+            prefix.append(parents.get(level)).append('_');
+        }
+        return prefix + name;
+    }
+
+    private static String withSuffix(String name, int number) {
+        int extension = name.lastIndexOf('.');
+        return extension > 0 ? name.substring(0, extension) + " (" + number + ")" + name.substring(extension)
+                : name + " (" + number + ")";
+    }
+
+    private static String key(String name, boolean ignoreCase) {
+        return ignoreCase ? name.toLowerCase(Locale.ROOT) : name;
+    }
+}
@@ -0,0 +1,51 @@
+package org.vincentyeh.img2pdf.gui.model;
+
+/**
+ * Converts tasks outside of this process, so that a task which runs out of memory or crashes cannot take the
+ * other tasks with it.
+ */
+public interface IsolatedRunner {
+    /**
+     * @return Number of tasks converted at a time.
+     */
+    int getSize();
+
+    /**
+     * Queues a task to be converted with the settings of its job.
+     *
+     * @param listener Receives the page progress of the task. May be null.
+     */
+    Assignment submit(Job job, Task task, ModelListener listener);
+
+    void close();
+
+    /**
+     * A task handed to the runner.
+     */
+    interface Assignment {
+        /**
+         * Stops the task, killing its conversion if it has started.
+         */
+        void cancel();
+
+        /**
+         * @return Time the successful attempt took, 0 if it did not run.
+         */
+        long getElapsedNanos();
+
+        Result await() throws InterruptedException;
+    }
+
+    class Result {
+        public final Task.Status status;
+        /**
+         * Log line of the conversion, e.g. "[OK] name.pdf", or the reason of a crash.
+         */
+        public final String message;
+
+        public Result(Task.Status status, String message) {
+            this.status = status;
+            this.message = message;
+        }
+    }
+}
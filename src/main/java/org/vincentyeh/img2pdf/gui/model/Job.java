@@ -0,0 +1,323 @@
+package org.vincentyeh.img2pdf.gui.model;
+
+import org.vincentyeh.img2pdf.gui.model.pdf.DirectConverter;
+import org.vincentyeh.img2pdf.gui.model.schedule.CostModel;
+import org.vincentyeh.img2pdf.gui.model.schedule.SchedulingPolicy;
+import org.vincentyeh.img2pdf.lib.image.ColorType;
+import org.vincentyeh.img2pdf.lib.pdf.parameter.PageAlign;
+import org.vincentyeh.img2pdf.lib.pdf.parameter.PageDirection;
+import org.vincentyeh.img2pdf.lib.pdf.parameter.PageSize;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Frozen copy of the settings of one Convert click.
+ * <p>
+ * A job never changes after it is built, except for its state, so the worker
+ * threads can read it while the user keeps editing the UI.
+ */
+public class Job {
+    public static final int LOW_PRIORITY = -10;
+    public static final int NORMAL_PRIORITY = 0;
+    public static final int HIGH_PRIORITY = 10;
+
+    private static final AtomicLong ID_SEQUENCE = new AtomicLong();
+
+    public final long id;
+    public final int priority;
+    public final List<Task> tasks;
+    public final File destinationFolder;
+    public final boolean encrypted;
+    public final String ownerPassword;
+    public final String userPassword;
+    public final ColorType colorType;
+    public final ColorMode colorMode;
+    public final PageSize pageSize;
+    public final PageDirection pageDirection;
+    public final PageAlign.HorizontalAlign horizontalAlign;
+    public final PageAlign.VerticalAlign verticalAlign;
+    public final boolean autoRotate;
+    /**
+     * Resolution to which larger images are reduced at their printed size, 0 to keep every image as it is.
+     */
+    public final int targetDpi;
+    /**
+     * Size limits of the document and of each page in bytes, 0 for none. Pages are compressed as JPEG to fit them.
+     */
+    public final long maxDocumentBytes;
+    public final long maxPageBytes;
+    /**
+     * Color error, in levels, within which color pages are written with a palette of up to 256 colors, 0 for never.
+     */
+    public final int paletteTolerance;
+    /**
+     * Whether the output files are linearized for fast web view.
+     */
+    public final boolean linearize;
+    /**
+     * Whether the output files are written with object streams, a cross-reference stream and parallel deflate.
+     */
+    public final boolean compact;
+    public final SchedulingPolicy schedulingPolicy;
+    public final CostModel costModel;
+    /**
+     * Receives the events of this job only, in addition to the model listener. May be null.
+     */
+    public final ModelListener listener;
+    /**
+     * Asked before each output of this job is renamed into place. May be null to always allow it.
+     */
+    public final CommitGuard commitGuard;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.QUEUED);
+    private final List<Runnable> cancelHooks = new CopyOnWriteArrayList<>();
+
+    private Job(Builder builder) {
+        this.id = ID_SEQUENCE.incrementAndGet();
+        this.priority = builder.priority;
+        this.tasks = Collections.unmodifiableList(new ArrayList<>(builder.tasks));
+        this.destinationFolder = builder.destinationFolder;
+        this.encrypted = builder.encrypted;
+        this.ownerPassword = builder.encrypted ? builder.ownerPassword : null;
+        this.userPassword = builder.encrypted ? builder.userPassword : null;
+        this.colorType = builder.colorType;
+        this.colorMode = builder.colorMode;
+        this.pageSize = builder.pageSize;
+        this.pageDirection = builder.pageDirection;
+        this.horizontalAlign = builder.horizontalAlign;
+        this.verticalAlign = builder.verticalAlign;
+        this.autoRotate = builder.autoRotate;
+        this.targetDpi = builder.targetDpi;
+        this.maxDocumentBytes = builder.maxDocumentBytes;
+        this.maxPageBytes = builder.maxPageBytes;
+        this.paletteTolerance = builder.paletteTolerance;
+        this.linearize = builder.linearize;
+        this.compact = builder.compact;
+        this.schedulingPolicy = builder.schedulingPolicy;
+        this.costModel = builder.costModel;
+        this.listener = builder.listener;
+        this.commitGuard = builder.commitGuard;
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    public boolean isCancelled() {
+        return state.get() == State.CANCELLED;
+    }
+
+    boolean start() {
+        return state.compareAndSet(State.QUEUED, State.RUNNING);
+    }
+
+    void finish() {
+        state.compareAndSet(State.RUNNING, State.DONE);
+    }
+
+    boolean cancel() {
+        while (true) {
+            State current = state.get();
+            if (current == State.DONE || current == State.CANCELLED)
+                return false;
+            if (state.compareAndSet(current, State.CANCELLED))
+                break;
+        }
+        for (Runnable hook : cancelHooks) {
+            try {
+                hook.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Registers an action that releases resources of the running job when it is cancelled.
+     * The hook runs immediately if the job is already cancelled.
+     */
+    void addCancelHook(Runnable hook) {
+        cancelHooks.add(hook);
+        if (isCancelled() && cancelHooks.remove(hook))
+            hook.run();
+    }
+
+    void removeCancelHook(Runnable hook) {
+        cancelHooks.remove(hook);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Job#%d(%d tasks, priority=%d)", id, tasks.size(), priority);
+    }
+
+    public enum State {
+        QUEUED, RUNNING, CANCELLED, DONE
+    }
+
+    /**
+     * Decides whether the converted output of a task may still replace its destination, for tasks that another
+     * process can take over while they are converted.
+     */
+    public interface CommitGuard {
+        boolean mayCommit(Task task) throws IOException;
+    }
+
+    public static class Builder {
+        private int priority = NORMAL_PRIORITY;
+        private List<Task> tasks = Collections.emptyList();
+        private File destinationFolder;
+        private boolean encrypted = false;
+        private String ownerPassword;
+        private String userPassword;
+        private ColorType colorType;
+        private ColorMode colorMode = ColorMode.FIXED;
+        private PageSize pageSize;
+        private PageDirection pageDirection;
+        private PageAlign.HorizontalAlign horizontalAlign;
+        private PageAlign.VerticalAlign verticalAlign;
+        private boolean autoRotate = false;
+        private int targetDpi = 0;
+        private long maxDocumentBytes = 0;
+        private long maxPageBytes = 0;
+        private int paletteTolerance = 0;
+        private boolean linearize = false;
+        private boolean compact = false;
+        private SchedulingPolicy schedulingPolicy = SchedulingPolicy.FIFO;
+        private CostModel costModel = CostModel.BYTES;
+        private ModelListener listener;
+        private CommitGuard commitGuard;
+
+        public Builder setPriority(int priority) {
+            this.priority = priority;
+            return this;
+        }
+
+        public Builder setTasks(List<Task> tasks) {
+            this.tasks = tasks;
+            return this;
+        }
+
+        public Builder setDestinationFolder(File destinationFolder) {
+            this.destinationFolder = destinationFolder;
+            return this;
+        }
+
+        public Builder setEncryption(boolean encrypted, String ownerPassword, String userPassword) {
+            this.encrypted = encrypted;
+            this.ownerPassword = ownerPassword;
+            this.userPassword = userPassword;
+            return this;
+        }
+
+        public Builder setColorType(ColorType colorType) {
+            this.colorType = colorType;
+            return this;
+        }
+
+        public Builder setColorMode(ColorMode colorMode) {
+            this.colorMode = colorMode;
+            return this;
+        }
+
+        public Builder setPageSize(PageSize pageSize) {
+            this.pageSize = pageSize;
+            return this;
+        }
+
+        public Builder setPageDirection(PageDirection pageDirection) {
+            this.pageDirection = pageDirection;
+            return this;
+        }
+
+        public Builder setAlign(PageAlign.VerticalAlign verticalAlign, PageAlign.HorizontalAlign horizontalAlign) {
+            this.verticalAlign = verticalAlign;
+            this.horizontalAlign = horizontalAlign;
+            return this;
+        }
+
+        public Builder setAutoRotate(boolean autoRotate) {
+            this.autoRotate = autoRotate;
+            return this;
+        }
+
+        public Builder setTargetDpi(int targetDpi) {
+            this.targetDpi = targetDpi;
+            return this;
+        }
+
+        public Builder setSizeBudget(long maxDocumentBytes, long maxPageBytes) {
+            this.maxDocumentBytes = maxDocumentBytes;
+            this.maxPageBytes = maxPageBytes;
+            return this;
+        }
+
+        public Builder setPaletteTolerance(int paletteTolerance) {
+            this.paletteTolerance = paletteTolerance;
+            return this;
+        }
+
+        public Builder setLinearize(boolean linearize) {
+            this.linearize = linearize;
+            return this;
+        }
+
+        public Builder setCompact(boolean compact) {
+            this.compact = compact;
+            return this;
+        }
+
+        public Builder setScheduling(SchedulingPolicy schedulingPolicy, CostModel costModel) {
+            this.schedulingPolicy = schedulingPolicy;
+            this.costModel = costModel;
+            return this;
+        }
+
+        public Builder setListener(ModelListener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        public Builder setCommitGuard(CommitGuard commitGuard) {
+            this.commitGuard = commitGuard;
+            return this;
+        }
+
+        public Job build() {
+            if (tasks == null)
+                throw new IllegalArgumentException("tasks==null");
+            if (destinationFolder == null)
+                throw new IllegalArgumentException("destinationFolder==null");
+            if (colorType == null)
+                throw new IllegalArgumentException("colorType==null");
+            if (colorMode == null)
+                throw new IllegalArgumentException("colorMode==null");
+            if (targetDpi < 0)
+                throw new IllegalArgumentException("targetDpi<0");
+            if (maxDocumentBytes < 0 || maxPageBytes < 0)
+                throw new IllegalArgumentException("size budget<0");
+            if (paletteTolerance < 0)
+                throw new IllegalArgumentException("paletteTolerance<0");
+            if (schedulingPolicy == null)
+                throw new IllegalArgumentException("schedulingPolicy==null");
+            if (costModel == null)
+                throw new IllegalArgumentException("costModel==null");
+            Job job = new Job(this);
+            // Such a job would go to the library, which would silently ignore the options and hold every page.
+            List<String> options = DirectConverter.exclusiveOptions(job);
+            String unsupported = DirectConverter.unsupportedSetting(job);
+            if (!options.isEmpty() && unsupported != null)
+                throw new IllegalArgumentException(String.format("%s cannot be combined with %s",
+                        String.join(", ", options), unsupported));
+            return job;
+        }
+    }
+}
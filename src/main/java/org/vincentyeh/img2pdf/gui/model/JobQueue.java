@@ -0,0 +1,163 @@
+package org.vincentyeh.img2pdf.gui.model;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Priority queue of {@link Job}s drained by a fixed pool of worker threads.
+ * <p>
+ * Higher priority jobs run first, equal priorities run in submission order.
+ */
+public class JobQueue {
+    private static final Comparator<Job> ORDER = Comparator
+            .comparingInt((Job job) -> -job.priority)
+            .thenComparingLong(job -> job.id);
+
+    private final PriorityBlockingQueue<Job> queue = new PriorityBlockingQueue<>(11, ORDER);
+    private final Map<Long, Job> jobs = new ConcurrentHashMap<>();
+    private final AtomicInteger active = new AtomicInteger();
+    private final Object pauseLock = new Object();
+    private volatile boolean paused = false;
+    private final ExecutorService workers;
+    private final JobRunner runner;
+
+    public interface JobRunner {
+        /**
+         * Runs a started job and finishes it before reporting its completion to the listeners of the job.
+         */
+        void run(Job job);
+    }
+
+    public JobQueue(int workerCount, JobRunner runner) {
+        if (workerCount < 1)
+            throw new IllegalArgumentException("workerCount<1");
+        if (runner == null)
+            throw new IllegalArgumentException("runner==null");
+        this.runner = runner;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workerCount, r -> {
+            Thread thread = new Thread(r, "job-worker-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < workerCount; i++) {
+            workers.execute(this::drain);
+        }
+    }
+
+    public void submit(Job job) {
+        if (job == null)
+            throw new IllegalArgumentException("job==null");
+        jobs.put(job.id, job);
+        queue.put(job);
+    }
+
+    /**
+     * Cancels a queued or running job. A running job stops at its next check.
+     *
+     * @return false if the job is unknown or already finished.
+     */
+    public boolean cancel(long jobId) {
+        Job job = jobs.remove(jobId);
+        if (job == null)
+            return false;
+        boolean cancelled = job.cancel();
+        // After the cancellation, so a worker handing the job back to a paused queue sees it cancelled.
+        synchronized (pauseLock) {
+            queue.remove(job);
+            pauseLock.notifyAll();
+        }
+        return cancelled;
+    }
+
+    public void cancelAll() {
+        for (Long id : jobs.keySet()) {
+            cancel(id);
+        }
+    }
+
+    public void pause() {
+        paused = true;
+    }
+
+    public void resume() {
+        synchronized (pauseLock) {
+            paused = false;
+            pauseLock.notifyAll();
+        }
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * Blocks the calling worker while the queue is paused.
+     */
+    public void awaitResumed() throws InterruptedException {
+        synchronized (pauseLock) {
+            while (paused) {
+                pauseLock.wait();
+            }
+        }
+    }
+
+    /**
+     * Blocks the worker of the given job while the queue is paused, returning early if the job is cancelled.
+     */
+    public void awaitResumed(Job job) throws InterruptedException {
+        synchronized (pauseLock) {
+            while (paused && !job.isCancelled()) {
+                pauseLock.wait();
+            }
+        }
+    }
+
+    public int getPendingCount() {
+        return queue.size();
+    }
+
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    public void shutdown() {
+        cancelAll();
+        workers.shutdownNow();
+    }
+
+    private void drain() {
+        while (!Thread.currentThread().isInterrupted()) {
+            Job job;
+            try {
+                // A paused worker holds no job, which would be neither pending nor running, so it waits before taking one.
+                awaitResumed();
+                job = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            synchronized (pauseLock) {
+                if (paused) {
+                    if (!job.isCancelled())
+                        queue.put(job);
+                    continue;
+                }
+            }
+            if (!job.start())
+                continue;
+
+            active.incrementAndGet();
+            try {
+                runner.run(job);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            } finally {
+                jobs.remove(job.id);
+                active.decrementAndGet();
+            }
+        }
+    }
+}
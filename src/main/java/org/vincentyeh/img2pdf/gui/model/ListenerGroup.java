@@ -0,0 +1,60 @@
+package org.vincentyeh.img2pdf.gui.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Forwards model events to the model-wide listener and to the listener of a single job.
+ */
+class ListenerGroup implements ModelListener {
+    private final List<ModelListener> listeners = new ArrayList<>();
+
+    ListenerGroup(ModelListener... listeners) {
+        for (ModelListener listener : listeners) {
+            if (listener != null)
+                this.listeners.add(listener);
+        }
+    }
+
+    @Override
+    public void onBatchProgressUpdate(int progress, int total) {
+        for (ModelListener listener : listeners)
+            listener.onBatchProgressUpdate(progress, total);
+    }
+
+    @Override
+    public void onConversionProgressUpdate(int progress, int total) {
+        for (ModelListener listener : listeners)
+            listener.onConversionProgressUpdate(progress, total);
+    }
+
+    @Override
+    public void onBatchStart() {
+        for (ModelListener listener : listeners)
+            listener.onBatchStart();
+    }
+
+    @Override
+    public void onBatchComplete() {
+        for (ModelListener listener : listeners)
+            listener.onBatchComplete();
+    }
+
+    @Override
+    public void onSourcesUpdate(List<Task> source) {
+        for (ModelListener listener : listeners)
+            listener.onSourcesUpdate(source);
+    }
+
+    @Override
+    public void onLogUpdate(List<String> log) {
+        for (ModelListener listener : listeners)
+            listener.onLogUpdate(log);
+    }
+
+    @Override
+    public void onLogAppend(String log) {
+        for (ModelListener listener : listeners)
+            listener.onLogAppend(log);
+    }
+}
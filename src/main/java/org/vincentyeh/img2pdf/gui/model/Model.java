@@ -1,12 +1,17 @@
 package org.vincentyeh.img2pdf.gui.model;
 
+import org.vincentyeh.img2pdf.gui.model.image.RasterPool;
+import org.vincentyeh.img2pdf.gui.model.io.OutputStager;
+import org.vincentyeh.img2pdf.gui.model.io.Prefetcher;
+import org.vincentyeh.img2pdf.gui.model.pdf.DirectConverter;
+import org.vincentyeh.img2pdf.gui.model.schedule.CostModel;
+import org.vincentyeh.img2pdf.gui.model.schedule.Schedule;
 import org.vincentyeh.img2pdf.gui.model.util.file.FileNameFormatter;
 import org.vincentyeh.img2pdf.gui.model.util.file.FileSorter;
 import org.vincentyeh.img2pdf.gui.model.util.file.GlobbingFileFilter;
 import org.vincentyeh.img2pdf.gui.model.util.interfaces.NameFormatter;
 import org.vincentyeh.img2pdf.gui.view.UIState;
 import org.vincentyeh.img2pdf.lib.Img2Pdf;
-import org.vincentyeh.img2pdf.lib.image.ColorType;
 import org.vincentyeh.img2pdf.lib.pdf.framework.factory.IDocument;
 import org.vincentyeh.img2pdf.lib.pdf.framework.factory.ImagePDFFactory;
 import org.vincentyeh.img2pdf.lib.pdf.framework.factory.ImagePDFFactoryListener;
@@ -16,143 +21,700 @@ import org.vincentyeh.img2pdf.lib.pdf.parameter.*;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 public class Model {
-    private List<Task> sources = new LinkedList<>();
+    private static final long DEFAULT_PREFETCH_BYTES = 64L << 20;
+    private static final long DEFAULT_RASTER_POOL_BYTES = 256L << 20;
+
+    private final TaskRegistry registry = new TaskRegistry();
+    private final JobQueue jobQueue;
+    private final AdaptiveConcurrency concurrency;
+    /**
+     * Conversion rate of one thread per cost model, learned from earlier jobs.
+     */
+    private final Map<CostModel, Double> costRates = new ConcurrentHashMap<>();
+    private final ExecutorService taskExecutor;
+    private volatile Prefetcher prefetcher = new Prefetcher(DEFAULT_PREFETCH_BYTES);
+    private final RasterPool rasterPool = new RasterPool(DEFAULT_RASTER_POOL_BYTES);
+    private final DirectConverter directConverter = new DirectConverter(rasterPool);
+    private final OutputStager outputStager = new OutputStager();
+    private final AtomicInteger runningJobs = new AtomicInteger();
+    private final ThreadLocal<ImagePDFFactory> factories = new ThreadLocal<>();
+    private final Set<ImagePDFFactory> liveFactories = ConcurrentHashMap.newKeySet();
     private ModelListener listener = null;
+    private volatile IsolatedRunner isolatedRunner = null;
+
+    public Model() {
+        this(1);
+    }
+
+    /**
+     * @param workers Number of jobs converted at the same time.
+     */
+    public Model(int workers) {
+        this.jobQueue = new JobQueue(workers, this::runJob);
+        int processors = Runtime.getRuntime().availableProcessors();
+        this.concurrency = new AdaptiveConcurrency(1, processors);
+        AtomicInteger threadNumber = new AtomicInteger();
+        // Fixed threads keep their warm factories, the controller decides how many of them are busy.
+        this.taskExecutor = Executors.newFixedThreadPool(processors, r -> {
+            Thread thread = new Thread(r, "task-worker-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
 
     public static List<Task> parseSourceFiles(File[] directories, String outputFormat, String fileFilterPattern) {
-        List<Task> sources = new LinkedList<>();
-        NameFormatter<File> formatter = new FileNameFormatter(outputFormat);
+        return parseSourceFiles(directories, outputFormat, fileFilterPattern, SplitPolicy.NONE);
+    }
+
+    public static List<Task> parseSourceFiles(File[] directories, String outputFormat, String fileFilterPattern, SplitPolicy splitPolicy) {
+        return parseSourceFiles(directories, outputFormat, fileFilterPattern, splitPolicy, CollisionPolicy.OVERWRITE, null);
+    }
+
+    /**
+     * Directories are listed and their outputs named in parallel, then the names shared by several outputs
+     * are looked up in a {@link DestinationIndex} and renamed as the collision policy says.
+     *
+     * @param splitPolicy     Directories beyond its limits become one task per part, named by {@link FileNameFormatter#PART}.
+     * @param collisionPolicy   What to do with outputs of the same name.
+     * @param destinationFolder Folder the outputs go to, which tells whether names differing in case collide.
+     *                          Null to compare names exactly.
+     */
+    public static List<Task> parseSourceFiles(File[] directories, String outputFormat, String fileFilterPattern,
+                                              SplitPolicy splitPolicy, CollisionPolicy collisionPolicy,
+                                              File destinationFolder) {
+        FileNameFormatter formatter = new FileNameFormatter(outputFormat);
         FileFilter filter = new GlobbingFileFilter(fileFilterPattern);
         Comparator<File> sorter = new FileSorter(FileSorter.Sortby.NUMERIC, FileSorter.Sequence.INCREASE);
 
         if (directories == null)
             throw new IllegalArgumentException("directories==null");
 
-        Arrays.stream(directories).forEach(
+        List<Output> outputs = Arrays.stream(directories).parallel().flatMap(
                 (directory) -> {
+                    List<Output> parsed = new ArrayList<>();
                     try {
                         File[] files = directory.listFiles(filter);
                         if (files == null)
-                            return;
+                            return parsed.stream();
                         files = Arrays.stream(files).map(File::getAbsoluteFile).toArray(File[]::new);
                         Arrays.sort(files, sorter);
-                        sources.add(new Task(new File(formatter.format(directory)), files));
+                        List<File[]> parts = splitPolicy.split(files);
+                        if (parts.size() == 1) {
+                            parsed.add(new Output(directory, new File(formatter.format(directory)).getName(), files));
+                            return parsed.stream();
+                        }
+                        for (int i = 0; i < parts.size(); i++) {
+                            String name = formatter.format(directory, i + 1, parts.size());
+                            parsed.add(new Output(directory, new File(name).getName(), parts.get(i)));
+                        }
                     } catch (NameFormatter.FormatException e) {
 //                            JOptionPane.showMessageDialog(null, e.getCause().getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
                         e.printStackTrace();
                     }
-                });
+                    return parsed.stream();
+                }).collect(Collectors.toList());
+
+        String[] names = DestinationIndex.disambiguate(
+                outputs.stream().map(output -> output.directory).toArray(File[]::new),
+                outputs.stream().map(output -> output.name).toArray(String[]::new),
+                collisionPolicy,
+                DestinationIndex.ignoresCase(destinationFolder));
+        List<Task> sources = new ArrayList<>(outputs.size());
+        for (int i = 0; i < outputs.size(); i++) {
+            sources.add(new Task(new File(names[i]), outputs.get(i).files));
+        }
         return sources;
     }
 
+    /**
+     * Output of a source directory or one of its parts, before the name is final. Only the file name of
+     * the formatted name is kept, as that is all a task writes into the destination folder.
+     */
+    private static class Output {
+        private final File directory;
+        private final String name;
+        private final File[] files;
+
+        private Output(File directory, String name, File[] files) {
+            this.directory = directory;
+            this.name = name;
+            this.files = files;
+        }
+    }
+
     public void setTask(List<Task> tasks) {
-        this.sources = tasks;
+        registry.setAll(tasks);
     }
 
     public void removeTask(int index) {
-        if (index < 0 || index >= sources.size())
-            throw new IllegalArgumentException("index out of range");
-        this.sources.remove(index);
+        registry.remove(index);
     }
 
     public void removeTask(Task task) {
-        this.sources.remove(task);
+        registry.remove(task);
+    }
+
+    public void removeTasks(Collection<Task> tasks) {
+        registry.remove(tasks);
     }
 
     public void removeAllTasks() {
-        this.sources.clear();
+        registry.clear();
+    }
+
+    public TaskRegistry getTaskRegistry() {
+        return registry;
+    }
+
+
+    public Job createJob(UIState state, int priority) {
+        return new Job.Builder()
+                .setPriority(priority)
+                .setTasks(registry.snapshot())
+                .setDestinationFolder(state.getDestinationFolder())
+                .setEncryption(state.isEncrypted(), state.getOwnerPassword(), state.getUserPassword())
+                .setColorType(state.getColorType())
+                .setColorMode(state.getColorMode())
+                .setPageSize(state.getPageSize())
+                .setPageDirection(state.getPageDirection())
+                .setAlign(state.getVerticalAlign(), state.getHorizontalAlign())
+                .setAutoRotate(state.isAutoRotate())
+                .setTargetDpi(state.getTargetDpi())
+                .setSizeBudget(state.getMaxDocumentBytes(), state.getMaxPageBytes())
+                .setPaletteTolerance(state.getPaletteTolerance())
+                .setLinearize(state.isLinearize())
+                .setCompact(state.isCompact())
+                .setScheduling(state.getSchedulingPolicy(), state.getCostModel())
+                .build();
     }
 
+    public Job convert(UIState state) {
+        Job job = createJob(state, Job.NORMAL_PRIORITY);
+        submit(job);
+        return job;
+    }
+
+    public void submit(Job job) {
+        File output_folder = job.destinationFolder;
+
+        if (!output_folder.exists()) {
+            boolean success = output_folder.mkdirs();
+            if (!success)
+                throw new IllegalStateException("Unable to create directories");
+        }
+        if (output_folder.isFile())
+            throw new IllegalArgumentException("Uestination should be folder");
 
-    public void convert(UIState state) {
+        jobQueue.submit(job);
+        listenerFor(job).onLogAppend(String.format("[QUEUED] %s", job));
+    }
+
+    public boolean cancelJob(long jobId) {
+        return jobQueue.cancel(jobId);
+    }
+
+    /**
+     * Drops every queued job and stops the running ones at their next page.
+     */
+    public void cancelAllJobs() {
+        jobQueue.cancelAll();
+    }
+
+    /**
+     * @return true if every running job has stopped within the timeout.
+     */
+    public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (runningJobs) {
+            while (isBusy()) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0)
+                    return false;
+                runningJobs.wait(remaining);
+            }
+        }
+        return true;
+    }
+
+    public void pauseJobs() {
+        jobQueue.pause();
+    }
+
+    public void resumeJobs() {
+        jobQueue.resume();
+    }
+
+    public boolean isBusy() {
+        return runningJobs.get() > 0 || jobQueue.getPendingCount() > 0;
+    }
+
+    private void runJob(Job job) {
+        runningJobs.incrementAndGet();
+        ModelListener listener = listenerFor(job);
+        listener.onBatchStart();
         try {
-            File tempFolder = Files.createTempDirectory("org.vincentyeh.img2pdf.gui").toFile();
-            tempFolder.deleteOnExit();
-            listener.onBatchProgressUpdate(0, sources.size());
-            File output_folder = state.getDestinationFolder();
-            boolean encryption = state.isEncrypted();
-            String owner_password = state.getOwnerPassword();
-            String user_password = state.getUserPassword();
-            ColorType colorType = state.getColorType();
-
-            if (!output_folder.exists()) {
-                boolean success = output_folder.mkdirs();
-                if (!success)
-                    throw new IllegalStateException("Unable to create directories");
+            List<Task> tasks = skipOverwritten(job, listener);
+            listener.onBatchProgressUpdate(0, tasks.size());
+            Schedule schedule = Schedule.plan(tasks, job.schedulingPolicy, job.costModel);
+            IsolatedRunner runner = isolatedRunner;
+            int threads = runner != null ? runner.getSize() : concurrency.getLimit();
+            Double learnedRate = costRates.get(job.costModel);
+            double rate = learnedRate != null ? learnedRate : job.costModel.getDefaultRate();
+            listener.onLogAppend(String.format("[SCHEDULE] %s by %s: predicted makespan %.1f s on %d thread(s)%s",
+                    job.schedulingPolicy, job.costModel, schedule.predictMakespan(rate, threads), threads,
+                    learnedRate != null ? "" : " at the default rate"));
+
+            long started = System.nanoTime();
+            double limitSecondsBefore = concurrency.getLimitSeconds();
+            if (runner != null)
+                runIsolated(job, schedule, runner, listener);
+            else
+                runInProcess(job, schedule, listener);
+            double actual = (System.nanoTime() - started) / 1e9;
+
+            double measuredRate = schedule.getMeasuredRate();
+            if (!Double.isNaN(measuredRate)) {
+                costRates.merge(job.costModel, measuredRate, (previous, current) -> 0.7 * previous + 0.3 * current);
+                // The controller moves the limit during the job, so the prediction uses the limit it granted on average.
+                double averageThreads = runner != null || actual <= 0 ? threads
+                        : (concurrency.getLimitSeconds() - limitSecondsBefore) / actual;
+                int usedThreads = Math.max(1, (int) Math.round(averageThreads));
+                listener.onLogAppend(String.format("[SCHEDULE] %s by %s: actual makespan %.1f s, predicted %.1f s on %.1f thread(s) on average",
+                        job.schedulingPolicy, job.costModel, actual, schedule.predictMakespan(measuredRate, usedThreads), averageThreads));
+            }
+
+            if (job.isCancelled()) {
+                for (Task task : job.tasks) {
+                    if (task.getStatus() == Task.Status.PENDING)
+                        registry.setStatus(task, Task.Status.CANCELLED);
+                }
+                listener.onLogAppend(String.format("[CANCELLED] %s", job));
             }
-            if (output_folder.isFile())
-                throw new IllegalArgumentException("Uestination should be folder");
+        } finally {
+            // Reports the outputs of the job still held for a group sync before the job counts as finished.
+            outputStager.flush();
+            job.finish();
+            synchronized (runningJobs) {
+                runningJobs.decrementAndGet();
+                runningJobs.notifyAll();
+            }
+            listener.onBatchComplete();
+        }
+    }
 
+    /**
+     * Marks the tasks whose output a later task of the job writes again as cancelled, so no work is spent on them.
+     *
+     * @return The other tasks.
+     */
+    private List<Task> skipOverwritten(Job job, ModelListener listener) {
+        DestinationIndex index = new DestinationIndex(job.tasks, job.destinationFolder);
+        if (index.getCollisions().isEmpty())
+            return job.tasks;
+        List<Task> remaining = new ArrayList<>(job.tasks.size());
+        for (Task task : job.tasks) {
+            if (index.isOverwritten(task)) {
+                registry.setStatus(task, Task.Status.CANCELLED);
+                listener.onLogAppend(String.format("[SKIPPED] %s -> overwritten by a later task", task.destination.getName()));
+            } else {
+                remaining.add(task);
+            }
+        }
+        return remaining;
+    }
 
-            Thread conversion_thread = new Thread(() -> {
-                listener.onBatchStart();
-                ImagePDFFactory factory = Img2Pdf.createPDFBoxMaxPerformanceFactory();
+    /**
+     * Converts the tasks of the job in parallel, as many at a time as the {@link AdaptiveConcurrency} allows.
+     */
+    private void runInProcess(Job job, Schedule schedule, ModelListener listener) {
+        List<Task> sources = schedule.getTasks();
+        int total = sources.size();
+        Set<ImagePDFFactory> busyFactories = ConcurrentHashMap.newKeySet();
+        // Stops the factories' own threads right away instead of waiting for the current tasks.
+        Runnable cancelHook = () -> busyFactories.forEach(ImagePDFFactory::shutdown);
+        job.addCancelHook(cancelHook);
 
-                DocumentArgument documentArgument = createDocumentArgument(encryption, owner_password, user_password);
-                PageArgument pageArgument = createPageArgument(
-                        state.getVerticalAlign(),
-                        state.getHorizontalAlign(),
-                        state.getPageSize(),
-                        state.getPageDirection(),
-                        state.isAutoRotate()
-                );
+        DocumentArgument documentArgument = createDocumentArgument(job.encrypted, job.ownerPassword, job.userPassword);
+        PageArgument pageArgument = createPageArgument(
+                job.verticalAlign,
+                job.horizontalAlign,
+                job.pageSize,
+                job.pageDirection,
+                job.autoRotate
+        );
 
+        AtomicInteger finished = new AtomicInteger();
+        List<Future<?>> running = new ArrayList<>();
+        Prefetcher.Session prefetch = prefetcher.open();
+        for (Task task : sources) {
+            prefetch.enqueue(task.files);
+        }
+        try {
+            for (int i = 0; i < sources.size(); i++) {
+                Task task = sources.get(i);
+                int position = i;
+                jobQueue.awaitResumed(job);
+                if (job.isCancelled())
+                    break;
+                concurrency.acquire();
+                if (job.isCancelled()) {
+                    concurrency.release();
+                    break;
+                }
 
-                for (int i = 0; i < sources.size(); i++) {
+                registry.setStatus(task, Task.Status.RUNNING);
+                running.add(taskExecutor.submit(() -> {
+                    ImagePDFFactory factory = warmFactory();
+                    busyFactories.add(factory);
+                    long taskStarted = System.nanoTime();
                     try {
-                        IDocument document = factory.start(
-                                sources.get(i).files,
-                                colorType,
-                                documentArgument,
-                                pageArgument,
-                                factoryListener);
-                        document.save(new File(output_folder, sources.get(i).destination.getName()));
-                        document.close();
-                        listener.onLogAppend(String.format("[OK] %s", sources.get(i).destination.getName()));
-                    } catch (PDFFactoryException | IOException e) {
-                        listener.onLogAppend(String.format("[ERROR] %s -> %s", sources.get(i).destination.getName(), e.getCause().getMessage()));
+                        if (convertTask(job, task, factory, documentArgument, pageArgument,
+                                createFactoryListener(job, listener, prefetch), listener))
+                            schedule.recordDuration(position, System.nanoTime() - taskStarted);
                     } finally {
-                        listener.onBatchProgressUpdate(i + 1, sources.size());
+                        prefetch.consumed(task.files);
+                        busyFactories.remove(factory);
+                        if (job.isCancelled())
+                            discardFactory(factory);
+                        concurrency.release();
+                        listener.onBatchProgressUpdate(finished.incrementAndGet(), total);
                     }
+                }));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // Every submitted task is waited for, even after one of them failed or the loop broke off.
+            awaitAll(sources, running, listener);
+            prefetch.close();
+            job.removeCancelHook(cancelHook);
+        }
+    }
+
+    /**
+     * Waits for each future and reports a task whose conversion threw instead of returning as failed.
+     *
+     * @param tasks   Tasks in the order of their futures.
+     * @param running Futures of the tasks submitted so far.
+     */
+    private void awaitAll(List<Task> tasks, List<Future<?>> running, ModelListener listener) {
+        boolean interrupted = false;
+        for (int i = 0; i < running.size(); i++) {
+            Task task = tasks.get(i);
+            while (true) {
+                try {
+                    running.get(i).get();
+                    break;
+                } catch (InterruptedException e) {
+                    // The tasks keep their factories and permits until they finish, so they are waited for anyway.
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (task.getStatus() == Task.Status.RUNNING)
+                        registry.setStatus(task, Task.Status.FAILED);
+                    listener.onLogAppend(String.format("[ERROR] %s -> %s", task.destination.getName(), e.getCause()));
+                    break;
                 }
-                factory.shutdown();
-                listener.onBatchComplete();
-            });
-            conversion_thread.start();
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
 
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+    /**
+     * Hands every task of the job to the {@link IsolatedRunner} at once and collects the results in order.
+     */
+    private void runIsolated(Job job, Schedule schedule, IsolatedRunner runner, ModelListener listener) {
+        List<Task> sources = schedule.getTasks();
+        int total = sources.size();
+        List<IsolatedRunner.Assignment> assignments = new CopyOnWriteArrayList<>();
+        Runnable cancelHook = () -> assignments.forEach(IsolatedRunner.Assignment::cancel);
+        job.addCancelHook(cancelHook);
+        // The children read through the same OS page cache, so prefetching in this process helps them as well.
+        Prefetcher.Session prefetch = prefetcher.open();
+        try {
+            for (Task task : sources) {
+                if (job.isCancelled())
+                    break;
+                prefetch.enqueue(task.files);
+                registry.setStatus(task, Task.Status.RUNNING);
+                assignments.add(runner.submit(job, task, listener));
+            }
+            for (int i = 0; i < assignments.size(); i++) {
+                Task task = sources.get(i);
+                IsolatedRunner.Assignment assignment = assignments.get(i);
+                IsolatedRunner.Result result = assignment.await();
+                prefetch.consumed(task.files);
+                registry.setStatus(task, result.status);
+                if (result.status == Task.Status.DONE)
+                    schedule.recordDuration(i, assignment.getElapsedNanos());
+                if (result.status == Task.Status.CANCELLED)
+                    listener.onLogAppend(String.format("[CANCELLED] %s", task.destination.getName()));
+                else if (result.status == Task.Status.DONE)
+                    listener.onLogAppend(result.message);
+                else
+                    listener.onLogAppend(String.format("[ERROR] %s -> %s", task.destination.getName(), result.message));
+                listener.onBatchProgressUpdate(i + 1, total);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            assignments.forEach(IsolatedRunner.Assignment::cancel);
+        } finally {
+            prefetch.close();
+            job.removeCancelHook(cancelHook);
         }
     }
 
+    /**
+     * Converts the task into a staging file and hands it to the {@link OutputStager}. The task stays RUNNING
+     * until its output is renamed into place, which may wait for the rest of its sync group.
+     *
+     * @return Whether the document was converted.
+     */
+    private boolean convertTask(Job job, Task task, ImagePDFFactory factory,
+                                DocumentArgument documentArgument, PageArgument pageArgument,
+                                ImagePDFFactoryListener factoryListener, ModelListener listener) {
+        String name = task.destination.getName();
+        File output = new File(job.destinationFolder, name);
+        IDocument document = null;
+        File staging = null;
+        try {
+            if (job.isCancelled())
+                throw new CancellationException();
+            staging = outputStager.stage(output);
+            if (directConverter.accepts(job, task)) {
+                directConverter.convert(job, task.files, staging, factoryListener);
+            } else {
+                String fallback = directConverter.libraryFallback(job, task);
+                if (fallback != null)
+                    listener.onLogAppend(String.format("[ROUTE] %s -> converted by the library for its %s, with every page in memory",
+                            name, fallback));
+                document = factory.start(
+                        task.files,
+                        job.colorType,
+                        documentArgument,
+                        pageArgument,
+                        factoryListener);
+                if (job.isCancelled())
+                    throw new CancellationException();
+                document.save(staging);
+            }
+            if (job.isCancelled())
+                throw new CancellationException();
+            File converted = staging;
+            staging = null;
+            outputStager.commit(converted, output, new OutputStager.CommitListener() {
+                @Override
+                public boolean mayCommit() throws IOException {
+                    return job.commitGuard == null || job.commitGuard.mayCommit(task);
+                }
+
+                @Override
+                public void onCommitted() {
+                    registry.setStatus(task, Task.Status.DONE);
+                    listener.onLogAppend(String.format("[OK] %s", name));
+                }
 
-    private final ImagePDFFactoryListener factoryListener = new ImagePDFFactoryListener() {
-        private int total;
+                @Override
+                public void onCommitFailed(IOException e) {
+                    registry.setStatus(task, Task.Status.FAILED);
+                    listener.onLogAppend(String.format("[ERROR] %s -> %s, the converted document is kept as %s",
+                            name, e.getMessage(), converted));
+                }
 
-        @Override
-        public void initializing(int total) {
-            this.total = total;
-            listener.onConversionProgressUpdate(0, this.total);
+                @Override
+                public void onDiscarded() {
+                    registry.setStatus(task, Task.Status.CANCELLED);
+                    listener.onLogAppend(String.format("[CANCELLED] %s -> the output may no longer be written", name));
+                }
+            });
+            return true;
+        } catch (PDFFactoryException | IOException | RuntimeException e) {
+            if (staging != null)
+                outputStager.discard(staging);
+            if (job.isCancelled()) {
+                registry.setStatus(task, Task.Status.CANCELLED);
+                listener.onLogAppend(String.format("[CANCELLED] %s", name));
+            } else {
+                registry.setStatus(task, Task.Status.FAILED);
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                listener.onLogAppend(String.format("[ERROR] %s -> %s", name, cause.getMessage()));
+            }
+        } finally {
+            if (document != null) {
+                try {
+                    document.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
         }
+        return false;
+    }
+
+    private ImagePDFFactoryListener createFactoryListener(Job job, ModelListener listener, Prefetcher.Session prefetch) {
+        return new ImagePDFFactoryListener() {
+            private int total;
+
+            @Override
+            public void initializing(int total) {
+                this.total = total;
+                listener.onConversionProgressUpdate(0, this.total);
+            }
+
+            @Override
+            public void onConversionComplete() {
+
+            }
 
-        @Override
-        public void onConversionComplete() {
+            @Override
+            public void onAppend(File file, int appended, int total) {
+                // Aborts the document between pages once the job is cancelled.
+                if (job.isCancelled())
+                    throw new CancellationException();
+                concurrency.recordPages(1);
+                prefetch.consumed(file);
+                listener.onConversionProgressUpdate(appended, this.total);
+            }
+        };
+    }
 
+
+    private ModelListener listenerFor(Job job) {
+        return new ListenerGroup(listener, job.listener);
+    }
+
+    /**
+     * @return The factory of the calling task thread, kept warm between tasks and jobs.
+     */
+    private ImagePDFFactory warmFactory() {
+        ImagePDFFactory factory = factories.get();
+        if (factory == null || !liveFactories.contains(factory)) {
+            factory = Img2Pdf.createPDFBoxMaxPerformanceFactory();
+            factories.set(factory);
+            liveFactories.add(factory);
         }
+        return factory;
+    }
+
+    private void discardFactory(ImagePDFFactory factory) {
+        liveFactories.remove(factory);
+        factory.shutdown();
+    }
 
-        @Override
-        public void onAppend(File file, int appended, int total) {
-            listener.onConversionProgressUpdate(appended, this.total);
+    /**
+     * Cancels all jobs and releases the worker pool and its factories.
+     */
+    public void shutdown() {
+        jobQueue.shutdown();
+        taskExecutor.shutdownNow();
+        concurrency.shutdown();
+        prefetcher.shutdown();
+        rasterPool.clear();
+        directConverter.shutdown();
+        outputStager.close();
+        for (ImagePDFFactory factory : liveFactories) {
+            factory.shutdown();
         }
-    };
+        liveFactories.clear();
+        if (isolatedRunner != null)
+            isolatedRunner.close();
+    }
+
+    /**
+     * Sets how many bytes of upcoming source files may be read ahead of the conversion, 0 disables read-ahead.
+     */
+    public void setPrefetchLookahead(long bytes) {
+        Prefetcher previous = prefetcher;
+        prefetcher = new Prefetcher(bytes);
+        previous.shutdown();
+    }
+
+    /**
+     * Tasks with an image of at least this many pixels are converted by {@link DirectConverter},
+     * which keeps the decoded pixels off the heap. 0 leaves every task to the conversion library.
+     */
+    public void setOffHeapThreshold(long pixels) {
+        directConverter.setOffHeapThreshold(pixels);
+    }
+
+    /**
+     * Images of at least this many pixels are decoded and written strip by strip, see {@link DirectConverter}.
+     */
+    public void setStreamingThreshold(long pixels) {
+        directConverter.setStreamingThreshold(pixels);
+    }
+
+    /**
+     * Tasks of at least this many pages are written one page at a time, see {@link DirectConverter}.
+     */
+    public void setStreamingPageThreshold(int pages) {
+        directConverter.setStreamingPageThreshold(pages);
+    }
+
+    /**
+     * Whether JPEG files matching the color type are embedded without decoding, see {@link DirectConverter}.
+     */
+    public void setJpegPassthrough(boolean enabled) {
+        directConverter.setJpegPassthrough(enabled);
+    }
+
+    /**
+     * Whether tasks are converted by the {@link DirectConverter} because they have a JPEG file to embed.
+     */
+    public void setJpegTaskRouting(boolean enabled) {
+        directConverter.setJpegTaskRouting(enabled);
+    }
 
+    /**
+     * Number of threads compressing pages ahead of the writer for jobs with a size budget.
+     */
+    public void setEncodingThreads(int threads) {
+        directConverter.setEncodingThreads(threads);
+    }
+
+    /**
+     * Holds complete outputs until this many are complete or the first has waited this long, then forces them
+     * to disk and renames them together, see {@link OutputStager}. 0 files renames every output on its own.
+     */
+    public void setSyncPolicy(int files, long millis) {
+        outputStager.setSyncPolicy(files, millis);
+    }
+
+    /**
+     * Converts the tasks of later jobs outside of this process, e.g. in child JVMs. Pass null to convert in process
+     * again.
+     */
+    public void setIsolatedRunner(IsolatedRunner isolatedRunner) {
+        this.isolatedRunner = isolatedRunner;
+    }
+
+    /**
+     * @param listener Told every staging file before it is written, so that the process which started this one can
+     *                 delete it if it has to kill this process. May be null.
+     */
+    public void setStagingListener(Consumer<File> listener) {
+        outputStager.setStagingListener(listener);
+    }
 
     public void setModelListener(ModelListener listener) {
         this.listener = listener;
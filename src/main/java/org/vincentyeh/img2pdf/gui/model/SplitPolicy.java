@@ -0,0 +1,69 @@
+package org.vincentyeh.img2pdf.gui.model;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Limits of one output document. A source directory that exceeds them is converted into several parts.
+ * <p>
+ * The size of a part is estimated by the size of its source files, which the output follows closely
+ * for images that are already compressed.
+ */
+public class SplitPolicy {
+    public static final SplitPolicy NONE = new SplitPolicy(0, 0);
+
+    /**
+     * Maximum number of pages of a part, 0 for no limit.
+     */
+    public final int maxPages;
+    /**
+     * Maximum estimated size of a part in bytes, 0 for no limit.
+     */
+    public final long maxBytes;
+
+    public SplitPolicy(int maxPages, long maxBytes) {
+        if (maxPages < 0)
+            throw new IllegalArgumentException("maxPages<0");
+        if (maxBytes < 0)
+            throw new IllegalArgumentException("maxBytes<0");
+        this.maxPages = maxPages;
+        this.maxBytes = maxBytes;
+    }
+
+    public boolean isSplitting() {
+        return maxPages > 0 || maxBytes > 0;
+    }
+
+    /**
+     * Cuts the sorted files into consecutive parts within the limits. Every part has at least one file,
+     * even if that file alone is larger than {@link #maxBytes}.
+     */
+    public List<File[]> split(File[] files) {
+        if (!isSplitting())
+            return Collections.singletonList(files);
+
+        List<File[]> parts = new ArrayList<>();
+        int start = 0;
+        long bytes = 0;
+        for (int i = 0; i < files.length; i++) {
+            long length = files[i].length();
+            boolean full = (maxPages > 0 && i - start >= maxPages) || (maxBytes > 0 && bytes + length > maxBytes);
+            if (full && i > start) {
+                parts.add(Arrays.copyOfRange(files, start, i));
+                start = i;
+                bytes = 0;
+            }
+            bytes += length;
+        }
+        parts.add(Arrays.copyOfRange(files, start, files.length));
+        return parts;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SplitPolicy(maxPages=%d, maxBytes=%d)", maxPages, maxBytes);
+    }
+}
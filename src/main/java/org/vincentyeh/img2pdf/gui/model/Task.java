@@ -1,13 +1,31 @@
 package org.vincentyeh.img2pdf.gui.model;
 
 import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Task {
+    private static final AtomicLong ID_SEQUENCE = new AtomicLong();
+
+    public final long id;
     public final File destination;
     public final File[] files;
+    private volatile Status status = Status.PENDING;
 
     public Task(File destination, File[] files) {
+        this.id = ID_SEQUENCE.incrementAndGet();
         this.destination = destination;
         this.files = files;
     }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    void setStatus(Status status) {
+        this.status = status;
+    }
+
+    public enum Status {
+        PENDING, RUNNING, DONE, FAILED, CANCELLED
+    }
 }
@@ -0,0 +1,132 @@
+package org.vincentyeh.img2pdf.gui.model;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds the tasks of the current batch.
+ * <p>
+ * Readers always see an immutable snapshot, so the conversion thread can iterate
+ * while the EDT replaces or removes tasks. Mutations are rare and copy the snapshot.
+ * A removal is a user action on a few rows, and copying even 100k references takes well under a millisecond,
+ * which is less than repainting the table afterwards. Rows removed together are copied once.
+ * <p>
+ * The status counts only change under the lock of the registry, so a status change never races with the removal
+ * or replacement of its task.
+ */
+public class TaskRegistry {
+    private volatile List<Task> snapshot = Collections.emptyList();
+    private final Map<Long, Task> index = new ConcurrentHashMap<>();
+    private final Map<Task.Status, AtomicInteger> statusCounts = new EnumMap<>(Task.Status.class);
+
+    public TaskRegistry() {
+        for (Task.Status status : Task.Status.values()) {
+            statusCounts.put(status, new AtomicInteger());
+        }
+    }
+
+    public synchronized void setAll(List<Task> tasks) {
+        if (tasks == null)
+            throw new IllegalArgumentException("tasks==null");
+        index.clear();
+        resetCounts();
+        for (Task task : tasks) {
+            index.put(task.id, task);
+            statusCounts.get(task.getStatus()).incrementAndGet();
+        }
+        snapshot = Collections.unmodifiableList(new ArrayList<>(tasks));
+    }
+
+    public synchronized void remove(int position) {
+        List<Task> current = snapshot;
+        if (position < 0 || position >= current.size())
+            throw new IllegalArgumentException("index out of range");
+        removeAt(current, position);
+    }
+
+    public synchronized void remove(Task task) {
+        if (task == null || index.get(task.id) != task)
+            return;
+        List<Task> current = snapshot;
+        removeAt(current, current.indexOf(task));
+    }
+
+    /**
+     * Removes every given task that is registered, with a single copy of the snapshot.
+     */
+    public synchronized void remove(Collection<Task> tasks) {
+        Set<Task> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Task task : tasks) {
+            if (task != null && index.get(task.id) == task)
+                removed.add(task);
+        }
+        if (removed.isEmpty())
+            return;
+        List<Task> current = snapshot;
+        List<Task> next = new ArrayList<>(current.size() - removed.size());
+        for (Task task : current) {
+            if (removed.contains(task)) {
+                index.remove(task.id);
+                statusCounts.get(task.getStatus()).decrementAndGet();
+            } else {
+                next.add(task);
+            }
+        }
+        snapshot = Collections.unmodifiableList(next);
+    }
+
+    public synchronized void clear() {
+        index.clear();
+        resetCounts();
+        snapshot = Collections.emptyList();
+    }
+
+    public Task get(int position) {
+        return snapshot.get(position);
+    }
+
+    public Task getById(long id) {
+        return index.get(id);
+    }
+
+    public int size() {
+        return snapshot.size();
+    }
+
+    /**
+     * @return An immutable view of the tasks at the time of the call.
+     */
+    public List<Task> snapshot() {
+        return snapshot;
+    }
+
+    public synchronized void setStatus(Task task, Task.Status status) {
+        Task.Status previous = task.getStatus();
+        task.setStatus(status);
+        if (index.get(task.id) != task)
+            return;
+        statusCounts.get(previous).decrementAndGet();
+        statusCounts.get(status).incrementAndGet();
+    }
+
+    public int countOf(Task.Status status) {
+        return statusCounts.get(status).get();
+    }
+
+    private void removeAt(List<Task> current, int position) {
+        Task removed = current.get(position);
+        List<Task> next = new ArrayList<>(current.size() - 1);
+        next.addAll(current.subList(0, position));
+        next.addAll(current.subList(position + 1, current.size()));
+        index.remove(removed.id);
+        statusCounts.get(removed.getStatus()).decrementAndGet();
+        snapshot = Collections.unmodifiableList(next);
+    }
+
+    private void resetCounts() {
+        for (AtomicInteger count : statusCounts.values()) {
+            count.set(0);
+        }
+    }
+}
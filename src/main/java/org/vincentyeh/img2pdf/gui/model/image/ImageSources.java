@@ -0,0 +1,74 @@
+package org.vincentyeh.img2pdf.gui.model.image;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Dimension;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Opens source images for decoding.
+ */
+public class ImageSources {
+    private ImageSources() {
+
+    }
+
+    /**
+     * Turns the ImageIO disk cache off before any image is read, including by the conversion library.
+     * It is a setting of the whole JVM, so it is left to the application to call this once at start up.
+     */
+    public static void initialize() {
+        // Sources are seekable files, spilling their streams into ImageIO's temporary cache only costs I/O.
+        ImageIO.setUseCache(false);
+    }
+
+    /**
+     * @return A stream over the file mapped into memory, for decoding.
+     */
+    public static ImageInputStream open(File file) throws IOException {
+        return new MappedImageInputStream(file);
+    }
+
+    /**
+     * @return A reader positioned on the given stream, or null if no reader supports the format.
+     */
+    public static ImageReader createReader(ImageInputStream stream, boolean headerOnly) {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+        if (!readers.hasNext())
+            return null;
+        ImageReader reader = readers.next();
+        reader.setInput(stream, true, headerOnly);
+        return reader;
+    }
+
+    /**
+     * @return Width times height of the first image, read from its header only, or -1 if the file cannot be read.
+     */
+    public static long readPixelCount(File file) {
+        Dimension size = readSize(file);
+        return size == null ? -1 : (long) size.width * size.height;
+    }
+
+    /**
+     * @return Size of the first image, read from its header only, or null if the file cannot be read.
+     */
+    public static Dimension readSize(File file) {
+        // A header is a few kilobytes, not worth a mapping.
+        try (ImageInputStream stream = new FileImageInputStream(file)) {
+            ImageReader reader = createReader(stream, true);
+            if (reader == null)
+                return null;
+            try {
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package org.vincentyeh.img2pdf.gui.model.image;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Frame header of a JPEG file, read from its markers without decoding anything.
+ */
+public class JpegHeader {
+    public final int width;
+    public final int height;
+    public final int components;
+    public final int precision;
+    public final boolean progressive;
+    /**
+     * Color transform of the Adobe APP14 marker, -1 without the marker.
+     * 0 means that three components are stored as RGB instead of YCbCr.
+     */
+    public final int adobeTransform;
+
+    private JpegHeader(int width, int height, int components, int precision, boolean progressive, int adobeTransform) {
+        this.width = width;
+        this.height = height;
+        this.components = components;
+        this.precision = precision;
+        this.progressive = progressive;
+        this.adobeTransform = adobeTransform;
+    }
+
+    /**
+     * @return The header, or null if the file is not a Huffman-coded JPEG.
+     */
+    public static JpegHeader read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 8192))) {
+            if (in.readUnsignedShort() != 0xFFD8)
+                return null;
+            int adobeTransform = -1;
+            while (true) {
+                int marker = in.readUnsignedByte();
+                if (marker != 0xFF)
+                    return null;
+                int type = in.readUnsignedByte();
+                while (type == 0xFF)
+                    type = in.readUnsignedByte();
+                // Markers without a length.
+                if (type == 0x01 || (type >= 0xD0 && type <= 0xD7))
+                    continue;
+                if (type == 0xD9 || type == 0xDA)
+                    return null;
+
+                int length = in.readUnsignedShort() - 2;
+                if (length < 0)
+                    return null;
+                if (type == 0xC0 || type == 0xC1 || type == 0xC2) {
+                    int precision = in.readUnsignedByte();
+                    int height = in.readUnsignedShort();
+                    int width = in.readUnsignedShort();
+                    int components = in.readUnsignedByte();
+                    // A height of 0 is defined later by a DNL marker, which PDF readers do not all support.
+                    if (height == 0 || width == 0)
+                        return null;
+                    return new JpegHeader(width, height, components, precision, type == 0xC2, adobeTransform);
+                }
+                if ((type >= 0xC3 && type <= 0xCF) && type != 0xC4 && type != 0xC8 && type != 0xCC)
+                    return null;
+                if (type == 0xEE && length >= 12) {
+                    byte[] segment = new byte[length];
+                    in.readFully(segment);
+                    if (segment[0] == 'A' && segment[1] == 'd' && segment[2] == 'o' && segment[3] == 'b' && segment[4] == 'e')
+                        adobeTransform = segment[11] & 0xff;
+                    continue;
+                }
+                skipFully(in, length);
+            }
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static void skipFully(DataInputStream in, int length) throws IOException {
+        while (length > 0) {
+            int skipped = in.skipBytes(length);
+            if (skipped <= 0)
+                throw new EOFException();
+            length -= skipped;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package org.vincentyeh.img2pdf.gui.model.image;
+
+import javax.imageio.stream.ImageInputStreamImpl;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * {@link javax.imageio.stream.ImageInputStream} over a memory-mapped file.
+ * <p>
+ * Reads are served straight from the page cache, without a heap copy of the file and without the
+ * ImageIO disk cache. Only the {@link #WINDOW_SIZE} window around the stream position is mapped, when it is first read,
+ * and a window is unmapped as soon as the stream moves out of it or is closed, so that the file can be deleted
+ * or renamed right after, which Windows refuses while a mapping is alive. Where the platform does not allow to
+ * unmap, the window is released by the garbage collector.
+ */
+public class MappedImageInputStream extends ImageInputStreamImpl {
+    private static final long WINDOW_SIZE = 1L << 26;
+    private static final Unmapper UNMAPPER = Unmapper.find();
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long length;
+    private MappedByteBuffer window;
+    private long windowStart = -1;
+
+    public MappedImageInputStream(File file) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        this.channel = this.file.getChannel();
+        try {
+            this.length = channel.size();
+        } catch (IOException e) {
+            this.file.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        if (streamPos >= length)
+            return -1;
+        int value = windowAt(streamPos).get((int) (streamPos - windowStart)) & 0xff;
+        streamPos++;
+        return value;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        checkClosed();
+        if (off < 0 || len < 0 || off + len > b.length)
+            throw new IndexOutOfBoundsException();
+        bitOffset = 0;
+        if (len == 0)
+            return 0;
+        if (streamPos >= length)
+            return -1;
+
+        int total = 0;
+        while (total < len && streamPos < length) {
+            MappedByteBuffer mapped = windowAt(streamPos);
+            int offset = (int) (streamPos - windowStart);
+            int count = Math.min(len - total, mapped.limit() - offset);
+            mapped.position(offset);
+            mapped.get(b, off + total, count);
+            total += count;
+            streamPos += count;
+        }
+        return total;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public boolean isCached() {
+        return true;
+    }
+
+    @Override
+    public boolean isCachedMemory() {
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+        release();
+        file.close();
+    }
+
+    /**
+     * @return The window holding the position, mapped now if the stream was in another one.
+     */
+    private MappedByteBuffer windowAt(long position) throws IOException {
+        long start = position - position % WINDOW_SIZE;
+        if (start != windowStart) {
+            release();
+            window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_SIZE, length - start));
+            windowStart = start;
+        }
+        return window;
+    }
+
+    private void release() {
+        if (window != null)
+            UNMAPPER.unmap(window);
+        window = null;
+        windowStart = -1;
+    }
+
+    /**
+     * Unmaps a buffer through the cleaner of the JDK, which has no public way to do so.
+     */
+    private static class Unmapper {
+        private final Object unsafe;
+        private final Method method;
+
+        private Unmapper(Object unsafe, Method method) {
+            this.unsafe = unsafe;
+            this.method = method;
+        }
+
+        static Unmapper find() {
+            try {
+                // Java 9 and later.
+                Class<?> type = Class.forName("sun.misc.Unsafe");
+                Field instance = type.getDeclaredField("theUnsafe");
+                instance.setAccessible(true);
+                return new Unmapper(instance.get(null), type.getMethod("invokeCleaner", ByteBuffer.class));
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                // Java 8, where every direct buffer has a cleaner of its own.
+                return new Unmapper(null, null);
+            }
+        }
+
+        void unmap(MappedByteBuffer buffer) {
+            try {
+                if (method != null) {
+                    method.invoke(unsafe, buffer);
+                } else {
+                    Method cleaner = buffer.getClass().getMethod("cleaner");
+                    cleaner.setAccessible(true);
+                    Object instance = cleaner.invoke(buffer);
+                    if (instance != null)
+                        instance.getClass().getMethod("clean").invoke(instance);
+                }
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                // Left to the garbage collector.
+            }
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package org.vincentyeh.img2pdf.gui.model.image;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Palette of up to 256 colors for a page with few colors, such as a chart, screenshot or form.
+ * <p>
+ * The palette is built from a sample of rows like {@link ColorAnalysis}. A page whose sampled pixels have
+ * 256 colors or less gets exactly those colors. Otherwise the sampled colors, reduced to 5 bits per component,
+ * are split by median cut, and the page is accepted when the root mean square error of the sampled pixels
+ * mapped to the palette stays within the tolerance.
+ * <p>
+ * Rows that were not sampled may have other colors, so the error is measured again over every pixel
+ * {@link #toIndices mapped} to the palette, and the page is to be written otherwise if it {@link #isExceeded exceeds}
+ * the tolerance.
+ */
+public class Palette {
+    private static final int SAMPLE_ROWS = 512;
+    public static final int MAX_COLORS = 256;
+    private static final int BINS = 1 << 15;
+    /**
+     * Entries of the cache of recently mapped colors, a power of two.
+     */
+    private static final int CACHE_SIZE = 1 << 12;
+
+    private final int[] colors;
+    private final double tolerance;
+    /**
+     * Index of each 5-bit color, -1 until it is looked up, for a palette built by median cut.
+     * A palette of exact colors maps every color by itself through the cache instead.
+     */
+    private final short[] binIndices;
+    private final int[] cachedColors = new int[CACHE_SIZE];
+    private final byte[] cachedIndices = new byte[CACHE_SIZE];
+    /**
+     * Sum of the squared errors of the pixels mapped so far.
+     */
+    private long mappedError = 0;
+
+    private Palette(int[] colors, double tolerance, boolean exact) {
+        this.colors = colors;
+        this.tolerance = tolerance;
+        Arrays.fill(cachedColors, -1);
+        if (exact) {
+            binIndices = null;
+        } else {
+            binIndices = new short[BINS];
+            Arrays.fill(binIndices, (short) -1);
+        }
+    }
+
+    /**
+     * @param tolerance Root mean square error per component, in levels, that the palette may cause.
+     * @return The palette of the image, or null if it has too many colors for one within the tolerance.
+     */
+    public static Palette of(PixelSource source, double tolerance) throws IOException {
+        if (source.getBands() != 3)
+            return null;
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int step = Math.max(1, height / SAMPLE_ROWS);
+        int rows = (height - step / 2 + step - 1) / step;
+        byte[] sample = new byte[rows * width * 3];
+        byte[] row = new byte[width * 3];
+        for (int y = step / 2, offset = 0; y < height; y += step, offset += row.length) {
+            source.readRows(y, 1, row);
+            System.arraycopy(row, 0, sample, offset, row.length);
+        }
+
+        int[] exact = distinctColors(sample);
+        if (exact != null)
+            return new Palette(exact, tolerance, true);
+        Palette palette = new Palette(medianCut(sample), tolerance, false);
+        return palette.error(sample) <= tolerance ? palette : null;
+    }
+
+    public int size() {
+        return colors.length;
+    }
+
+    /**
+     * @return Bits per index: 1, 2, 4 or 8.
+     */
+    public int getBits() {
+        int bits = 1;
+        while (1 << bits < colors.length) {
+            bits <<= 1;
+        }
+        return bits;
+    }
+
+    /**
+     * @return The colors as RGB triples.
+     */
+    public byte[] getColors() {
+        byte[] rgb = new byte[colors.length * 3];
+        for (int i = 0; i < colors.length; i++) {
+            rgb[i * 3] = (byte) (colors[i] >> 16);
+            rgb[i * 3 + 1] = (byte) (colors[i] >> 8);
+            rgb[i * 3 + 2] = (byte) colors[i];
+        }
+        return rgb;
+    }
+
+    /**
+     * Maps a row of RGB pixels to the nearest colors and packs their indices, most significant first.
+     * The error of the mapped pixels adds up for {@link #isExceeded}.
+     */
+    public void toIndices(byte[] rgb, int offset, int width, byte[] indices, int indicesOffset) {
+        int bits = getBits();
+        int perByte = 8 / bits;
+        int packed = 0;
+        long error = 0;
+        for (int x = 0, i = offset; x < width; x++, i += 3) {
+            int color = (rgb[i] & 0xff) << 16 | (rgb[i + 1] & 0xff) << 8 | rgb[i + 2] & 0xff;
+            int index = indexOf(color);
+            error += distance(color, colors[index]);
+            packed = packed << bits | index;
+            if (x % perByte == perByte - 1) {
+                indices[indicesOffset + x / perByte] = (byte) packed;
+                packed = 0;
+            }
+        }
+        int remainder = width % perByte;
+        if (remainder != 0)
+            indices[indicesOffset + width / perByte] = (byte) (packed << (8 - remainder * bits));
+        mappedError += error;
+    }
+
+    /**
+     * @param pixels Pixel count of the whole page.
+     * @return true if the pixels mapped so far already bring the root mean square error of the page above the tolerance.
+     */
+    public boolean isExceeded(long pixels) {
+        return mappedError > tolerance * tolerance * pixels * 3;
+    }
+
+    private int indexOf(int color) {
+        if (binIndices != null) {
+            int bin = (color >> 9 & 0x7c00) | (color >> 6 & 0x3e0) | (color >> 3 & 0x1f);
+            if (binIndices[bin] < 0)
+                binIndices[bin] = (short) nearest(color & 0xf8f8f8 | 0x040404);
+            return binIndices[bin];
+        }
+        int slot = (color * 0x9E3779B1) >>> (32 - 12);
+        if (cachedColors[slot] == color)
+            return cachedIndices[slot] & 0xff;
+        int index = nearest(color);
+        cachedColors[slot] = color;
+        cachedIndices[slot] = (byte) index;
+        return index;
+    }
+
+    private int nearest(int color) {
+        int best = 0;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int i = 0; i < colors.length && bestDistance > 0; i++) {
+            int distance = distance(color, colors[i]);
+            if (distance < bestDistance) {
+                best = i;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+
+    private static int distance(int a, int b) {
+        int red = (a >> 16 & 0xff) - (b >> 16 & 0xff);
+        int green = (a >> 8 & 0xff) - (b >> 8 & 0xff);
+        int blue = (a & 0xff) - (b & 0xff);
+        return red * red + green * green + blue * blue;
+    }
+
+    /**
+     * @return Root mean square error per component of the pixels mapped to this palette.
+     */
+    private double error(byte[] rgb) {
+        long sum = 0;
+        for (int i = 0; i < rgb.length; i += 3) {
+            int color = (rgb[i] & 0xff) << 16 | (rgb[i + 1] & 0xff) << 8 | rgb[i + 2] & 0xff;
+            sum += distance(color, colors[indexOf(color)]);
+        }
+        return rgb.length == 0 ? 0 : Math.sqrt((double) sum / rgb.length);
+    }
+
+    /**
+     * @return The colors of the pixels, or null if there are more than {@link #MAX_COLORS}.
+     */
+    private static int[] distinctColors(byte[] rgb) {
+        // Open addressing, -1 for an empty slot.
+        int[] table = new int[MAX_COLORS * 4];
+        Arrays.fill(table, -1);
+        int count = 0;
+        int last = -1;
+        for (int i = 0; i < rgb.length; i += 3) {
+            int color = (rgb[i] & 0xff) << 16 | (rgb[i + 1] & 0xff) << 8 | rgb[i + 2] & 0xff;
+            if (color == last)
+                continue;
+            last = color;
+            int slot = (color * 0x9E3779B1) >>> (32 - 10);
+            while (table[slot] != -1 && table[slot] != color) {
+                slot = (slot + 1) & (table.length - 1);
+            }
+            if (table[slot] == -1) {
+                if (++count > MAX_COLORS)
+                    return null;
+                table[slot] = color;
+            }
+        }
+        int[] colors = new int[count];
+        for (int slot = 0, i = 0; slot < table.length; slot++) {
+            if (table[slot] != -1)
+                colors[i++] = table[slot];
+        }
+        return colors;
+    }
+
+    /**
+     * Splits the histogram of 5-bit colors at the weighted median of the longest side of the box with the
+     * widest spread, until there are {@link #MAX_COLORS} boxes, and takes the mean color of each box.
+     */
+    private static int[] medianCut(byte[] rgb) {
+        int[] counts = new int[BINS];
+        long[] sums = new long[BINS * 3];
+        for (int i = 0; i < rgb.length; i += 3) {
+            int red = rgb[i] & 0xff;
+            int green = rgb[i + 1] & 0xff;
+            int blue = rgb[i + 2] & 0xff;
+            int bin = (red >> 3) << 10 | (green >> 3) << 5 | blue >> 3;
+            counts[bin]++;
+            sums[bin * 3] += red;
+            sums[bin * 3 + 1] += green;
+            sums[bin * 3 + 2] += blue;
+        }
+        int used = 0;
+        for (int count : counts) {
+            if (count > 0)
+                used++;
+        }
+        int[] bins = new int[used];
+        for (int bin = 0, i = 0; bin < BINS; bin++) {
+            if (counts[bin] > 0)
+                bins[i++] = bin;
+        }
+
+        List<Box> boxes = new ArrayList<>();
+        boxes.add(new Box(bins, 0, bins.length));
+        while (boxes.size() < MAX_COLORS) {
+            Box widest = null;
+            for (Box box : boxes) {
+                if (box.end - box.start > 1 && (widest == null || box.spread() > widest.spread()))
+                    widest = box;
+            }
+            if (widest == null)
+                break;
+            boxes.add(widest.split(counts));
+        }
+
+        int[] colors = new int[boxes.size()];
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = boxes.get(i).mean(counts, sums);
+        }
+        return colors;
+    }
+
+    /**
+     * Range of the shared bin array, bounded by the smallest and largest component on each side.
+     */
+    private static class Box {
+        private final int[] bins;
+        private final int start;
+        private int end;
+        private final int[] low = new int[3];
+        private final int[] high = new int[3];
+
+        Box(int[] bins, int start, int end) {
+            this.bins = bins;
+            this.start = start;
+            this.end = end;
+            shrink();
+        }
+
+        private static int component(int bin, int side) {
+            return bin >> (10 - side * 5) & 31;
+        }
+
+        private void shrink() {
+            Arrays.fill(low, 31);
+            Arrays.fill(high, 0);
+            for (int i = start; i < end; i++) {
+                for (int side = 0; side < 3; side++) {
+                    int value = component(bins[i], side);
+                    low[side] = Math.min(low[side], value);
+                    high[side] = Math.max(high[side], value);
+                }
+            }
+        }
+
+        private int longestSide() {
+            int side = 0;
+            for (int i = 1; i < 3; i++) {
+                if (high[i] - low[i] > high[side] - low[side])
+                    side = i;
+            }
+            return side;
+        }
+
+        int spread() {
+            int side = longestSide();
+            return high[side] - low[side];
+        }
+
+        /**
+         * Keeps the lower half of the bins and returns the upper half.
+         */
+        Box split(int[] counts) {
+            int side = longestSide();
+            // Sorted by the component on the longest side, kept above the 15 bits of the bin.
+            int[] sorted = new int[end - start];
+            for (int i = start; i < end; i++) {
+                sorted[i - start] = component(bins[i], side) << 15 | bins[i];
+            }
+            Arrays.sort(sorted);
+            long total = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                bins[start + i] = sorted[i] & (BINS - 1);
+                total += counts[bins[start + i]];
+            }
+            int median = start + 1;
+            long below = counts[bins[start]];
+            while (median < end - 1 && below * 2 < total) {
+                below += counts[bins[median++]];
+            }
+            Box upper = new Box(bins, median, end);
+            end = median;
+            shrink();
+            return upper;
+        }
+
+        int mean(int[] counts, long[] sums) {
+            long count = 0;
+            long red = 0;
+            long green = 0;
+            long blue = 0;
+            for (int i = start; i < end; i++) {
+                int bin = bins[i];
+                count += counts[bin];
+                red += sums[bin * 3];
+                green += sums[bin * 3 + 1];
+                blue += sums[bin * 3 + 2];
+            }
+            return (int) ((red + count / 2) / count) << 16 | (int) ((green + count / 2) / count) << 8
+                    | (int) ((blue + count / 2) / count);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package org.vincentyeh.img2pdf.gui.model.image;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Decoded pixels of an image with 8 bits per component, read row by row.
+ */
+public interface PixelSource extends Closeable {
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * @return 1 for gray, 3 for RGB.
+     */
+    int getBands();
+
+    /**
+     * Copies the rows from {@code y} to {@code y + rows} into the destination, {@code width * bands} bytes per row.
+     */
+    void readRows(int y, int rows, byte[] destination) throws IOException;
+}
@@ -0,0 +1,300 @@
+package org.vincentyeh.img2pdf.gui.model.image;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Decoded image kept outside the Java heap, in a direct buffer or in a memory-mapped scratch file, so that the heap
+ * does not have to fit the largest source image.
+ * <p>
+ * Direct buffers are only used up to {@link #DIRECT_LIMIT} each and {@link #DIRECT_BUDGET} in all, a quarter of the
+ * direct memory the JVM allows, which defaults to the maximum heap. Closed stores return their buffer to a pool for
+ * the next image instead of waiting for the garbage collector to free it. Larger images go to a scratch file.
+ * <p>
+ * Readers that write their output through the {@link WritableRaster} API decode straight into the store.
+ * Other readers and pixel layouts are decoded on the heap first and copied, which saves nothing but keeps them working.
+ */
+public class PixelStore implements PixelSource {
+    private static final long DIRECT_LIMIT = 256L << 20;
+    private static final long DIRECT_BUDGET = maxDirectMemory() / 4;
+    /**
+     * Direct buffers of closed stores, all of them counted in {@link #directReserved}.
+     */
+    private static final List<ByteBuffer> directPool = new ArrayList<>();
+    private static long directReserved = 0;
+    /**
+     * Formats whose readers do not assume a heap array behind the destination raster.
+     */
+    private static final List<String> DIRECT_FORMATS = Arrays.asList("jpeg", "jpg", "png");
+
+    private final int width;
+    private final int height;
+    private final int bands;
+    private final ByteBuffer pixels;
+    /**
+     * Direct buffer behind {@link #pixels}, null for a scratch file or once it is returned to the pool.
+     */
+    private ByteBuffer direct;
+    private final File scratch;
+
+    private PixelStore(int width, int height, int bands) throws IOException {
+        this.width = width;
+        this.height = height;
+        this.bands = bands;
+        long size = (long) width * height * bands;
+        if (size > Integer.MAX_VALUE)
+            throw new IOException(String.format("%dx%d image is too large to store", width, height));
+
+        this.direct = size <= DIRECT_LIMIT ? takeDirect((int) size) : null;
+        if (direct != null) {
+            direct.clear().limit((int) size);
+            this.pixels = direct.slice();
+            this.scratch = null;
+        } else {
+            this.scratch = Files.createTempFile("img2pdf-pixels", ".raw").toFile();
+            try (RandomAccessFile raf = new RandomAccessFile(scratch, "rw");
+                 FileChannel channel = raf.getChannel()) {
+                this.pixels = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            } catch (IOException | RuntimeException e) {
+                deleteScratch();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * @return An empty store, to be filled with {@link #writeRows}.
+     */
+    public static PixelStore allocate(int width, int height, int bands) throws IOException {
+        return new PixelStore(width, height, bands);
+    }
+
+    /**
+     * Decodes the first image of a file.
+     *
+     * @param bands 1 to store gray, 3 to store RGB.
+     * @param pool  Supplies the heap raster of images that cannot be decoded straight into the store.
+     */
+    public static PixelStore decode(File file, int bands, RasterPool pool) throws IOException {
+        try (ImageInputStream stream = ImageSources.open(file)) {
+            ImageReader reader = ImageSources.createReader(stream, false);
+            if (reader == null)
+                throw new IOException("Unsupported image format: " + file.getName());
+            try {
+                PixelStore store = new PixelStore(reader.getWidth(0), reader.getHeight(0), bands);
+                try {
+                    if (DIRECT_FORMATS.contains(reader.getFormatName().toLowerCase(Locale.ROOT)) && hasComponents(reader, bands))
+                        store.decodeDirectly(reader);
+                    else
+                        store.copyFrom(pool.read(reader, 0), pool);
+                    return store;
+                } catch (IOException | RuntimeException e) {
+                    store.close();
+                    throw e;
+                }
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * @return true if the reader decodes the image into 8-bit gray or RGB components without conversion.
+     */
+    static boolean hasComponents(ImageReader reader, int bands) throws IOException {
+        ImageTypeSpecifier type = reader.getRawImageType(0);
+        if (type == null)
+            return false;
+        ColorModel colorModel = type.getColorModel();
+        SampleModel sampleModel = type.getSampleModel();
+        int colorSpace = bands == 1 ? ColorSpace.TYPE_GRAY : ColorSpace.TYPE_RGB;
+        return colorModel instanceof ComponentColorModel
+                && !colorModel.hasAlpha()
+                && colorModel.getColorSpace().getType() == colorSpace
+                && sampleModel.getDataType() == DataBuffer.TYPE_BYTE
+                && sampleModel.getNumBands() == bands;
+    }
+
+    private void decodeDirectly(ImageReader reader) throws IOException {
+        int[] offsets = bands == 1 ? new int[]{0} : new int[]{0, 1, 2};
+        SampleModel sampleModel = new PixelInterleavedSampleModel(DataBuffer.TYPE_BYTE, width, height, bands, width * bands, offsets);
+        WritableRaster raster = Raster.createWritableRaster(sampleModel, new StoreDataBuffer(), null);
+        ColorModel colorModel = new ComponentColorModel(ColorSpace.getInstance(bands == 1 ? ColorSpace.CS_GRAY : ColorSpace.CS_sRGB),
+                false, false, Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setDestination(new BufferedImage(colorModel, raster, false, null));
+        reader.read(0, param);
+    }
+
+    private void copyFrom(BufferedImage image, RasterPool pool) {
+        try {
+            int[] argb = new int[width];
+            byte[] row = new byte[width * bands];
+            for (int y = 0; y < height; y++) {
+                image.getRGB(0, y, width, 1, argb, 0, width);
+                toComponents(argb, row, bands);
+                pixels.position(y * width * bands);
+                pixels.put(row);
+            }
+        } finally {
+            pool.release(image);
+        }
+    }
+
+    /**
+     * Converts ARGB pixels to gray or RGB bytes, blending transparent pixels over white.
+     */
+    static void toComponents(int[] argb, byte[] destination, int bands) {
+        for (int x = 0; x < argb.length; x++) {
+            int pixel = argb[x];
+            int alpha = pixel >>> 24;
+            int r = (pixel >> 16) & 0xff, g = (pixel >> 8) & 0xff, b = pixel & 0xff;
+            if (alpha != 0xff) {
+                r = (r * alpha + 255 * (255 - alpha)) / 255;
+                g = (g * alpha + 255 * (255 - alpha)) / 255;
+                b = (b * alpha + 255 * (255 - alpha)) / 255;
+            }
+            if (bands == 1) {
+                destination[x] = (byte) ColorAnalysis.luma(r, g, b);
+            } else {
+                destination[x * 3] = (byte) r;
+                destination[x * 3 + 1] = (byte) g;
+                destination[x * 3 + 2] = (byte) b;
+            }
+        }
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public int getBands() {
+        return bands;
+    }
+
+    @Override
+    public void readRows(int y, int rows, byte[] destination) {
+        ByteBuffer view = pixels.duplicate();
+        view.position(y * width * bands);
+        view.get(destination, 0, rows * width * bands);
+    }
+
+    /**
+     * Copies whole rows from the source into the store, starting at row {@code y}.
+     */
+    public void writeRows(int y, byte[] source, int offset, int length) {
+        ByteBuffer view = pixels.duplicate();
+        view.position(y * width * bands);
+        view.put(source, offset, length);
+    }
+
+    @Override
+    public void close() {
+        deleteScratch();
+        synchronized (directPool) {
+            if (direct != null)
+                directPool.add(direct);
+            direct = null;
+        }
+    }
+
+    /**
+     * @return The smallest pooled buffer that fits, a new one while the budget allows, or null.
+     */
+    private static ByteBuffer takeDirect(int size) {
+        synchronized (directPool) {
+            ByteBuffer best = null;
+            for (ByteBuffer buffer : directPool) {
+                if (buffer.capacity() >= size && (best == null || buffer.capacity() < best.capacity()))
+                    best = buffer;
+            }
+            if (best != null) {
+                directPool.remove(best);
+                return best;
+            }
+            // Pooled buffers too small for this image are dropped to make room for it.
+            long pooled = 0;
+            for (ByteBuffer buffer : directPool) {
+                pooled += buffer.capacity();
+            }
+            if (directReserved - pooled + size > DIRECT_BUDGET)
+                return null;
+            while (directReserved + size > DIRECT_BUDGET) {
+                directReserved -= directPool.remove(directPool.size() - 1).capacity();
+            }
+            try {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+                directReserved += size;
+                return buffer;
+            } catch (OutOfMemoryError e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * @return -XX:MaxDirectMemorySize, or the maximum heap which is its default.
+     */
+    private static long maxDirectMemory() {
+        try {
+            HotSpotDiagnosticMXBean hotspot = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+            long value = Long.parseLong(hotspot.getVMOption("MaxDirectMemorySize").getValue());
+            if (value > 0)
+                return value;
+        } catch (RuntimeException | LinkageError e) {
+            // Not a HotSpot JVM, which sizes direct memory the same way by default.
+        }
+        return Runtime.getRuntime().maxMemory();
+    }
+
+    private void deleteScratch() {
+        // A mapped file cannot be deleted on Windows until the mapping is collected.
+        if (scratch != null && !scratch.delete())
+            scratch.deleteOnExit();
+    }
+
+    /**
+     * Lets a {@link WritableRaster} address the store.
+     */
+    private class StoreDataBuffer extends DataBuffer {
+        private StoreDataBuffer() {
+            super(TYPE_BYTE, width * height * bands);
+        }
+
+        @Override
+        public int getElem(int bank, int i) {
+            return pixels.get(i) & 0xff;
+        }
+
+        @Override
+        public void setElem(int bank, int i, int val) {
+            pixels.put(i, (byte) val);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package org.vincentyeh.img2pdf.gui.model.image;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.SampleModel;
+import java.io.IOException;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reuses the rasters of decoded images, so that a folder of scans with the same size
+ * does not allocate a new 30-100 MB array for every page.
+ * <p>
+ * Images are decoded into a pooled destination through {@link ImageReadParam#setDestination}
+ * and must be given back with {@link #release} once they are no longer used.
+ * The pool holds at most {@code maxBytes} of idle rasters, the rest is left to the garbage collector.
+ */
+public class RasterPool {
+    private final long maxBytes;
+    private final AtomicLong idleBytes = new AtomicLong();
+    private final Map<Key, Deque<BufferedImage>> idle = new ConcurrentHashMap<>();
+
+    public RasterPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Decodes the image at the given index into a pooled raster.
+     */
+    public BufferedImage read(ImageReader reader, int index) throws IOException {
+        return read(reader, index, reader.getDefaultReadParam());
+    }
+
+    /**
+     * Decodes with the given parameters into a pooled raster,
+     * sized for the source region and subsampling of the parameters.
+     */
+    public BufferedImage read(ImageReader reader, int index, ImageReadParam param) throws IOException {
+        ImageTypeSpecifier type = typeOf(reader, index);
+        if (type == null)
+            return reader.read(index, param);
+
+        int width = reader.getWidth(index);
+        int height = reader.getHeight(index);
+        if (param.getSourceRegion() != null) {
+            width = Math.min(width, param.getSourceRegion().x + param.getSourceRegion().width) - Math.max(0, param.getSourceRegion().x);
+            height = Math.min(height, param.getSourceRegion().y + param.getSourceRegion().height) - Math.max(0, param.getSourceRegion().y);
+        }
+        width = (width + param.getSourceXSubsampling() - 1) / param.getSourceXSubsampling();
+        height = (height + param.getSourceYSubsampling() - 1) / param.getSourceYSubsampling();
+
+        BufferedImage destination = acquire(type, width, height);
+        param.setDestination(destination);
+        try {
+            return reader.read(index, param);
+        } catch (IOException | RuntimeException e) {
+            release(destination);
+            throw e;
+        } finally {
+            param.setDestination(null);
+        }
+    }
+
+    /**
+     * @return An idle image of the given type and size, or a new one if the pool has none.
+     */
+    public BufferedImage acquire(ImageTypeSpecifier type, int width, int height) {
+        Deque<BufferedImage> images = idle.get(new Key(type.getColorModel(), type.getSampleModel(), width, height));
+        BufferedImage image = images == null ? null : images.pollFirst();
+        if (image == null)
+            return type.createBufferedImage(width, height);
+
+        idleBytes.addAndGet(-sizeOf(image));
+        if (image.getColorModel().hasAlpha())
+            clear(image);
+        return image;
+    }
+
+    /**
+     * Gives an image back to the pool. The caller must not use it afterwards.
+     */
+    public void release(BufferedImage image) {
+        if (image == null)
+            return;
+        long size = sizeOf(image);
+        if (idleBytes.addAndGet(size) > maxBytes) {
+            idleBytes.addAndGet(-size);
+            return;
+        }
+        idle.computeIfAbsent(new Key(image.getColorModel(), image.getSampleModel(), image.getWidth(), image.getHeight()),
+                key -> new ConcurrentLinkedDeque<>()).offerFirst(image);
+    }
+
+    public long getIdleBytes() {
+        return idleBytes.get();
+    }
+
+    public void clear() {
+        idle.clear();
+        idleBytes.set(0);
+    }
+
+    private static ImageTypeSpecifier typeOf(ImageReader reader, int index) throws IOException {
+        ImageTypeSpecifier raw = reader.getRawImageType(index);
+        if (raw != null)
+            return raw;
+        Iterator<ImageTypeSpecifier> types = reader.getImageTypes(index);
+        return types.hasNext() ? types.next() : null;
+    }
+
+    private static long sizeOf(BufferedImage image) {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
+    private static void clear(BufferedImage image) {
+        // Formats with transparency may leave parts of the destination untouched.
+        int[] zeros = new int[image.getRaster().getNumBands() * image.getWidth()];
+        for (int y = 0; y < image.getHeight(); y++)
+            image.getRaster().setPixels(0, y, image.getWidth(), 1, zeros);
+    }
+
+    private static class Key {
+        private final ColorModel colorModel;
+        private final Class<?> sampleModelClass;
+        private final int dataType;
+        private final int bands;
+        private final int width;
+        private final int height;
+
+        private Key(ColorModel colorModel, SampleModel sampleModel, int width, int height) {
+            this.colorModel = colorModel;
+            this.sampleModelClass = sampleModel.getClass();
+            this.dataType = sampleModel.getDataType();
+            this.bands = sampleModel.getNumBands();
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return dataType == key.dataType && bands == key.bands && width == key.width && height == key.height
+                    && sampleModelClass == key.sampleModelClass && colorModel.equals(key.colorModel);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(sampleModelClass, dataType, bands, width, height);
+        }
+    }
+}
@@ -0,0 +1,564 @@
+package org.vincentyeh.img2pdf.gui.model.image;
+
+import javax.imageio.stream.ImageInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Decodes a baseline JPEG one row of MCUs at a time, for images of more pixels than the ImageIO reader accepts.
+ * <p>
+ * Only the interleaved Huffman-coded 8-bit JPEG with gray, YCbCr or RGB components is supported, which is what
+ * scanners and stitching tools write for images this large. Chroma is upsampled by replication.
+ */
+class SequentialJpegDecoder {
+    private static final int[] ZIGZAG = {
+            0, 1, 8, 16, 9, 2, 3, 10, 17, 24, 32, 25, 18, 11, 4, 5,
+            12, 19, 26, 33, 40, 48, 41, 34, 27, 20, 13, 6, 7, 14, 21, 28,
+            35, 42, 49, 56, 57, 50, 43, 36, 29, 22, 15, 23, 30, 37, 44, 51,
+            58, 59, 52, 45, 38, 31, 39, 46, 53, 60, 61, 54, 47, 55, 62, 63};
+    /**
+     * Basis of the inverse DCT, {@code C(u) / 2 * cos((2x + 1) u pi / 16)} at {@code [x * 8 + u]}.
+     */
+    private static final float[] IDCT = new float[64];
+
+    static {
+        for (int x = 0; x < 8; x++) {
+            for (int u = 0; u < 8; u++) {
+                double scale = u == 0 ? Math.sqrt(0.5) / 2 : 0.5;
+                IDCT[x * 8 + u] = (float) (scale * Math.cos((2 * x + 1) * u * Math.PI / 16));
+            }
+        }
+    }
+
+    private final ImageInputStream stream;
+    private final byte[] buffer = new byte[1 << 16];
+    private final float[] transformed = new float[64];
+    private int position = 0;
+    private int limit = 0;
+    private int bits = 0;
+    private int bitCount = 0;
+    /**
+     * Marker met in the entropy-coded data, -1 until then. Zeros are read past it.
+     */
+    private int marker = -1;
+
+    private final int[][] quantization = new int[4][];
+    private final Huffman[] dcTables = new Huffman[4];
+    private final Huffman[] acTables = new Huffman[4];
+    private int width;
+    private int height;
+    private Component[] components;
+    private int restartInterval = 0;
+    private boolean adobe = false;
+    private int adobeTransform = -1;
+    private boolean jfif = false;
+
+    private SequentialJpegDecoder(ImageInputStream stream) {
+        this.stream = stream;
+    }
+
+    /**
+     * Decodes the image of the stream from its start.
+     *
+     * @param bands 1 to decode to gray, 3 to decode to RGB.
+     */
+    static void decode(ImageInputStream stream, int bands, StripDecoder.RowSink sink) throws IOException {
+        new SequentialJpegDecoder(stream).decode(bands, sink);
+    }
+
+    private void decode(int bands, StripDecoder.RowSink sink) throws IOException {
+        stream.seek(0);
+        if (readByte() != 0xff || readByte() != 0xd8)
+            throw new IOException("Not a JPEG file");
+        readSegmentsUntilScan();
+        if ((long) width * bands > Integer.MAX_VALUE)
+            throw new IOException(String.format("Rows of %d pixels are too wide", width));
+
+        int maxH = 1;
+        int maxV = 1;
+        for (Component component : components) {
+            maxH = Math.max(maxH, component.h);
+            maxV = Math.max(maxV, component.v);
+        }
+        if (components.length == 1) {
+            // A single component is not interleaved, its MCU is one block whatever its sampling factors.
+            components[0].h = components[0].v = maxH = maxV = 1;
+        }
+        for (Component component : components) {
+            if (maxH % component.h != 0 || maxV % component.v != 0)
+                throw new IOException("Unsupported JPEG sampling factors");
+        }
+        int mcuWidth = 8 * maxH;
+        int mcuHeight = 8 * maxV;
+        int mcusX = (width + mcuWidth - 1) / mcuWidth;
+        int mcusY = (height + mcuHeight - 1) / mcuHeight;
+        for (Component component : components) {
+            component.lineWidth = mcusX * component.h * 8;
+            component.plane = new byte[component.lineWidth * component.v * 8];
+        }
+        boolean rgb = components.length == 3 && isRgb();
+
+        int[] coefficients = new int[64];
+        byte[] rows = new byte[width * bands * mcuHeight];
+        int restarts = 0;
+        int mcusLeft = restartInterval;
+        for (int mcuY = 0; mcuY < mcusY; mcuY++) {
+            for (int mcuX = 0; mcuX < mcusX; mcuX++) {
+                if (restartInterval > 0) {
+                    if (mcusLeft == 0) {
+                        restart(restarts++);
+                        mcusLeft = restartInterval;
+                    }
+                    mcusLeft--;
+                }
+                for (Component component : components) {
+                    for (int by = 0; by < component.v; by++) {
+                        for (int bx = 0; bx < component.h; bx++) {
+                            decodeBlock(component, coefficients);
+                            inverseDct(coefficients, component.plane,
+                                    by * 8 * component.lineWidth + (mcuX * component.h + bx) * 8, component.lineWidth);
+                        }
+                    }
+                }
+            }
+            int rowCount = Math.min(mcuHeight, height - mcuY * mcuHeight);
+            toPixels(rowCount, maxH, maxV, bands, rgb, rows);
+            sink.write(rows, 0, rowCount * width * bands);
+        }
+    }
+
+    private void readSegmentsUntilScan() throws IOException {
+        while (true) {
+            int type = readMarker();
+            if (type == 0xd8 || (type >= 0xd0 && type <= 0xd7))
+                continue;
+            if (type == 0xd9)
+                throw new EOFException("JPEG without a scan");
+            int length = readShort() - 2;
+            switch (type) {
+                case 0xc0:
+                case 0xc1:
+                    readFrame();
+                    break;
+                case 0xc4:
+                    readHuffmanTables(length);
+                    break;
+                case 0xdb:
+                    readQuantizationTables(length);
+                    break;
+                case 0xdd:
+                    restartInterval = readShort();
+                    break;
+                case 0xda:
+                    readScan();
+                    return;
+                case 0xe0:
+                case 0xee:
+                    readApplication(type, length);
+                    break;
+                default:
+                    if (type >= 0xc2 && type <= 0xcf && type != 0xc4 && type != 0xc8 && type != 0xcc)
+                        throw new IOException("Only baseline JPEG can be decoded row by row");
+                    skip(length);
+                    break;
+            }
+        }
+    }
+
+    private void readFrame() throws IOException {
+        if (readByte() != 8)
+            throw new IOException("Only 8-bit JPEG can be decoded row by row");
+        height = readShort();
+        width = readShort();
+        int count = readByte();
+        if (count != 1 && count != 3)
+            throw new IOException("Unsupported JPEG components: " + count);
+        components = new Component[count];
+        for (int i = 0; i < count; i++) {
+            Component component = new Component();
+            component.id = readByte();
+            int sampling = readByte();
+            component.h = sampling >> 4;
+            component.v = sampling & 15;
+            component.quantization = readByte() & 3;
+            if (component.h < 1 || component.v < 1)
+                throw new IOException("Invalid JPEG sampling factors");
+            components[i] = component;
+        }
+        if (height == 0)
+            throw new IOException("JPEG with the height in a DNL marker is not supported");
+    }
+
+    private void readHuffmanTables(int length) throws IOException {
+        while (length > 0) {
+            int info = readByte();
+            int[] counts = new int[17];
+            int total = 0;
+            for (int i = 1; i <= 16; i++) {
+                counts[i] = readByte();
+                total += counts[i];
+            }
+            int[] values = new int[total];
+            for (int i = 0; i < total; i++) {
+                values[i] = readByte();
+            }
+            Huffman table = new Huffman(counts, values);
+            if ((info >> 4) == 0)
+                dcTables[info & 3] = table;
+            else
+                acTables[info & 3] = table;
+            length -= 17 + total;
+        }
+    }
+
+    private void readQuantizationTables(int length) throws IOException {
+        while (length > 0) {
+            int info = readByte();
+            boolean wide = (info >> 4) != 0;
+            int[] table = new int[64];
+            for (int i = 0; i < 64; i++) {
+                table[i] = wide ? readShort() : readByte();
+            }
+            quantization[info & 3] = table;
+            length -= 1 + (wide ? 128 : 64);
+        }
+    }
+
+    private void readScan() throws IOException {
+        if (components == null)
+            throw new IOException("JPEG scan before its frame");
+        int count = readByte();
+        if (count != components.length)
+            throw new IOException("Only interleaved JPEG can be decoded row by row");
+        for (int i = 0; i < count; i++) {
+            int id = readByte();
+            int tables = readByte();
+            Component component = null;
+            for (Component candidate : components) {
+                if (candidate.id == id)
+                    component = candidate;
+            }
+            if (component == null)
+                throw new IOException("JPEG scan of an unknown component: " + id);
+            component.dc = dcTables[tables >> 4];
+            component.ac = acTables[tables & 3];
+            if (component.dc == null || component.ac == null || quantization[component.quantization] == null)
+                throw new IOException("JPEG scan without its tables");
+        }
+        skip(3);
+    }
+
+    private void readApplication(int type, int length) throws IOException {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) readByte();
+        }
+        String name = new String(data, 0, Math.min(5, length), "ISO-8859-1");
+        if (type == 0xe0 && name.equals("JFIF\0"))
+            jfif = true;
+        if (type == 0xee && name.startsWith("Adobe") && length >= 12) {
+            adobe = true;
+            adobeTransform = data[11] & 0xff;
+        }
+    }
+
+    /**
+     * Three components are RGB when an Adobe marker says so, or when they are named R, G and B and no marker
+     * says they are YCbCr, as the ImageIO reader decides.
+     */
+    private boolean isRgb() {
+        if (adobe)
+            return adobeTransform == 0;
+        if (jfif)
+            return false;
+        return components[0].id == 'R' && components[1].id == 'G' && components[2].id == 'B';
+    }
+
+    private void decodeBlock(Component component, int[] coefficients) throws IOException {
+        Arrays.fill(coefficients, 0);
+        int[] table = quantization[component.quantization];
+        int size = decodeSymbol(component.dc);
+        component.prediction += size == 0 ? 0 : extend(receive(size), size);
+        coefficients[0] = component.prediction * table[0];
+        for (int k = 1; k < 64; ) {
+            int symbol = decodeSymbol(component.ac);
+            int run = symbol >> 4;
+            size = symbol & 15;
+            if (size == 0) {
+                if (run != 15)
+                    break;
+                k += 16;
+                continue;
+            }
+            k += run;
+            if (k > 63)
+                throw new IOException("Corrupt JPEG data");
+            coefficients[ZIGZAG[k]] = extend(receive(size), size) * table[k];
+            k++;
+        }
+    }
+
+    /**
+     * Writes the 8 by 8 samples of a block into a plane, level shifted and clamped.
+     */
+    private void inverseDct(int[] coefficients, byte[] plane, int offset, int lineWidth) {
+        boolean flat = true;
+        for (int i = 1; i < 64 && flat; i++) {
+            flat = coefficients[i] == 0;
+        }
+        if (flat) {
+            byte value = clamp(coefficients[0] / 8f + 128);
+            for (int y = 0; y < 8; y++) {
+                Arrays.fill(plane, offset + y * lineWidth, offset + y * lineWidth + 8, value);
+            }
+            return;
+        }
+        float[] rows = transformed;
+        for (int v = 0; v < 8; v++) {
+            for (int x = 0; x < 8; x++) {
+                float sum = 0;
+                for (int u = 0; u < 8; u++) {
+                    sum += IDCT[x * 8 + u] * coefficients[v * 8 + u];
+                }
+                rows[v * 8 + x] = sum;
+            }
+        }
+        for (int x = 0; x < 8; x++) {
+            for (int y = 0; y < 8; y++) {
+                float sum = 0;
+                for (int v = 0; v < 8; v++) {
+                    sum += IDCT[y * 8 + v] * rows[v * 8 + x];
+                }
+                plane[offset + y * lineWidth + x] = clamp(sum + 128);
+            }
+        }
+    }
+
+    private static byte clamp(float value) {
+        int rounded = Math.round(value);
+        return (byte) (rounded < 0 ? 0 : Math.min(rounded, 255));
+    }
+
+    /**
+     * Converts the planes of a row of MCUs to gray or RGB rows.
+     */
+    private void toPixels(int rowCount, int maxH, int maxV, int bands, boolean rgb, byte[] rows) {
+        Component first = components[0];
+        for (int y = 0; y < rowCount; y++) {
+            int out = y * width * bands;
+            if (components.length == 1) {
+                int line = y * first.lineWidth;
+                for (int x = 0; x < width; x++) {
+                    byte gray = first.plane[line + x];
+                    if (bands == 1) {
+                        rows[out++] = gray;
+                    } else {
+                        rows[out++] = gray;
+                        rows[out++] = gray;
+                        rows[out++] = gray;
+                    }
+                }
+                continue;
+            }
+            Component second = components[1];
+            Component third = components[2];
+            int line0 = y * first.v / maxV * first.lineWidth;
+            int line1 = y * second.v / maxV * second.lineWidth;
+            int line2 = y * third.v / maxV * third.lineWidth;
+            for (int x = 0; x < width; x++) {
+                int c0 = first.plane[line0 + x * first.h / maxH] & 0xff;
+                int c1 = second.plane[line1 + x * second.h / maxH] & 0xff;
+                int c2 = third.plane[line2 + x * third.h / maxH] & 0xff;
+                int r;
+                int g;
+                int b;
+                if (rgb) {
+                    r = c0;
+                    g = c1;
+                    b = c2;
+                } else if (bands == 1) {
+                    rows[out++] = (byte) c0;
+                    continue;
+                } else {
+                    r = c0 + Math.round(1.402f * (c2 - 128));
+                    g = c0 - Math.round(0.344136f * (c1 - 128) + 0.714136f * (c2 - 128));
+                    b = c0 + Math.round(1.772f * (c1 - 128));
+                    r = r < 0 ? 0 : Math.min(r, 255);
+                    g = g < 0 ? 0 : Math.min(g, 255);
+                    b = b < 0 ? 0 : Math.min(b, 255);
+                }
+                if (bands == 1) {
+                    rows[out++] = (byte) ColorAnalysis.luma(r, g, b);
+                } else {
+                    rows[out++] = (byte) r;
+                    rows[out++] = (byte) g;
+                    rows[out++] = (byte) b;
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves past the restart marker due after a restart interval and resets the DC predictions.
+     */
+    private void restart(int number) throws IOException {
+        bits = 0;
+        bitCount = 0;
+        if (marker < 0) {
+            // The marker has not been reached yet, only padding bits are left before it.
+            while (true) {
+                int value = readByte();
+                if (value != 0xff)
+                    continue;
+                int next = readByte();
+                while (next == 0xff) {
+                    next = readByte();
+                }
+                if (next != 0) {
+                    marker = next;
+                    break;
+                }
+            }
+        }
+        if (marker != 0xd0 + (number & 7))
+            throw new IOException(String.format("Expected JPEG restart marker %d, found 0x%02x", number & 7, marker));
+        marker = -1;
+        for (Component component : components) {
+            component.prediction = 0;
+        }
+    }
+
+    private int decodeSymbol(Huffman table) throws IOException {
+        fill(16);
+        int peek = (bits >>> (bitCount - Huffman.LOOKUP_BITS)) & ((1 << Huffman.LOOKUP_BITS) - 1);
+        int entry = table.lookup[peek];
+        if (entry != 0) {
+            bitCount -= entry >> 8;
+            return entry & 0xff;
+        }
+        int code = 0;
+        for (int length = 1; length <= 16; length++) {
+            code = code << 1 | (bits >>> --bitCount) & 1;
+            if (code <= table.maxCode[length])
+                return table.values[table.offsets[length] + code];
+        }
+        throw new IOException("Corrupt JPEG data");
+    }
+
+    private int receive(int size) throws IOException {
+        fill(size);
+        bitCount -= size;
+        return (bits >>> bitCount) & ((1 << size) - 1);
+    }
+
+    private static int extend(int value, int size) {
+        return value < 1 << (size - 1) ? value - (1 << size) + 1 : value;
+    }
+
+    /**
+     * Makes sure at least the given number of bits is buffered. Past a marker, zeros are buffered.
+     */
+    private void fill(int count) throws IOException {
+        while (bitCount < count) {
+            int value = 0;
+            if (marker < 0) {
+                value = readByte();
+                if (value == 0xff) {
+                    int next = readByte();
+                    while (next == 0xff) {
+                        next = readByte();
+                    }
+                    if (next != 0) {
+                        marker = next;
+                        value = 0;
+                    }
+                }
+            }
+            bits = bits << 8 | value;
+            bitCount += 8;
+        }
+    }
+
+    private int readMarker() throws IOException {
+        int value = readByte();
+        while (value != 0xff) {
+            value = readByte();
+        }
+        while (value == 0xff) {
+            value = readByte();
+        }
+        return value;
+    }
+
+    private int readShort() throws IOException {
+        return readByte() << 8 | readByte();
+    }
+
+    private void skip(int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            readByte();
+        }
+    }
+
+    private int readByte() throws IOException {
+        if (position == limit) {
+            limit = stream.read(buffer, 0, buffer.length);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                throw new EOFException("JPEG data is truncated");
+            }
+        }
+        return buffer[position++] & 0xff;
+    }
+
+    private static class Component {
+        private int id;
+        private int h;
+        private int v;
+        private int quantization;
+        private Huffman dc;
+        private Huffman ac;
+        private int prediction = 0;
+        private int lineWidth;
+        /**
+         * Samples of the current row of MCUs.
+         */
+        private byte[] plane;
+    }
+
+    /**
+     * Huffman table with a lookup of the codes of up to {@link #LOOKUP_BITS} bits.
+     */
+    private static class Huffman {
+        private static final int LOOKUP_BITS = 8;
+
+        private final int[] values;
+        private final int[] maxCode = new int[17];
+        private final int[] offsets = new int[17];
+        /**
+         * Code length shifted by 8 and value of each prefix of {@link #LOOKUP_BITS} bits, 0 for longer codes.
+         */
+        private final int[] lookup = new int[1 << LOOKUP_BITS];
+
+        private Huffman(int[] counts, int[] values) {
+            this.values = values;
+            int code = 0;
+            int index = 0;
+            for (int length = 1; length <= 16; length++) {
+                offsets[length] = index - code;
+                for (int i = 0; i < counts[length]; i++, index++, code++) {
+                    if (length <= LOOKUP_BITS) {
+                        int shift = LOOKUP_BITS - length;
+                        for (int fill = 0; fill < 1 << shift; fill++) {
+                            lookup[code << shift | fill] = length << 8 | values[index];
+                        }
+                    }
+                }
+                maxCode[length] = counts[length] == 0 ? -1 : code - 1;
+                code <<= 1;
+            }
+        }
+    }
+}
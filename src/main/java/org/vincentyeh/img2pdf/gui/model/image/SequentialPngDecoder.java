@@ -0,0 +1,294 @@
+package org.vincentyeh.img2pdf.gui.model.image;
+
+import javax.imageio.stream.ImageInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Decodes a non-interlaced PNG row by row, for images of more pixels than the ImageIO reader accepts.
+ * <p>
+ * Every bit depth and color type is supported. Transparent pixels are blended over white and 16-bit samples
+ * are cut to their high byte, as {@link PixelStore} does for images decoded by ImageIO.
+ */
+class SequentialPngDecoder {
+    private static final long SIGNATURE = 0x89504E470D0A1A0AL;
+    private static final int GRAY = 0;
+    private static final int RGB = 2;
+    private static final int PALETTE = 3;
+    private static final int GRAY_ALPHA = 4;
+
+    private final ImageInputStream stream;
+    private int width;
+    private int height;
+    private int bitDepth;
+    private int colorType;
+    private int interlace;
+    private int[] palette;
+    /**
+     * Alpha of each palette entry.
+     */
+    private byte[] paletteAlpha;
+    /**
+     * Samples of the transparent color of a gray or RGB image, null if it has none.
+     */
+    private int[] transparent;
+    /**
+     * Bytes left in the IDAT chunk being read.
+     */
+    private long remaining;
+
+    private SequentialPngDecoder(ImageInputStream stream) {
+        this.stream = stream;
+    }
+
+    /**
+     * Decodes the image of the stream from its start.
+     *
+     * @param bands 1 to decode to gray, 3 to decode to RGB.
+     */
+    static void decode(ImageInputStream stream, int bands, StripDecoder.RowSink sink) throws IOException {
+        new SequentialPngDecoder(stream).decode(bands, sink);
+    }
+
+    private void decode(int bands, StripDecoder.RowSink sink) throws IOException {
+        stream.seek(0);
+        if (stream.readLong() != SIGNATURE)
+            throw new IOException("Not a PNG file");
+        readChunksUntilData();
+        if (interlace != 0)
+            throw new IOException("Interlaced PNG cannot be decoded row by row");
+
+        int channels = colorType == GRAY || colorType == PALETTE ? 1 : colorType == GRAY_ALPHA ? 2 : colorType == RGB ? 3 : 4;
+        long rowBits = (long) width * channels * bitDepth;
+        if ((rowBits + 7) / 8 + 1 > Integer.MAX_VALUE || (long) width * bands > Integer.MAX_VALUE)
+            throw new IOException(String.format("Rows of %d pixels are too wide", width));
+        int rowBytes = (int) ((rowBits + 7) / 8);
+        int pixelBytes = Math.max(1, channels * bitDepth / 8);
+        byte[] previous = new byte[rowBytes];
+        byte[] current = new byte[rowBytes];
+        byte[] output = new byte[width * bands];
+
+        Inflater inflater = new Inflater();
+        try (DataInputStream data = new DataInputStream(new InflaterInputStream(new ImageData(), inflater, 1 << 16))) {
+            for (int y = 0; y < height; y++) {
+                int filter = data.read();
+                if (filter < 0)
+                    throw new EOFException(String.format("image data ends at row %d of %d", y, height));
+                data.readFully(current);
+                unfilter(filter, current, previous, pixelBytes);
+                convert(current, channels, bands, output);
+                sink.write(output, 0, output.length);
+                byte[] swap = previous;
+                previous = current;
+                current = swap;
+            }
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Reads the chunks up to the first IDAT, leaving the stream at its data.
+     */
+    private void readChunksUntilData() throws IOException {
+        while (true) {
+            long length = stream.readUnsignedInt();
+            int type = stream.readInt();
+            long end = stream.getStreamPosition() + length + 4;
+            switch (type) {
+                case 0x49484452: // IHDR
+                    width = stream.readInt();
+                    height = stream.readInt();
+                    bitDepth = stream.readUnsignedByte();
+                    colorType = stream.readUnsignedByte();
+                    stream.readUnsignedByte();
+                    stream.readUnsignedByte();
+                    interlace = stream.readUnsignedByte();
+                    break;
+                case 0x504C5445: // PLTE
+                    palette = new int[(int) (length / 3)];
+                    for (int i = 0; i < palette.length; i++) {
+                        palette[i] = stream.readUnsignedByte() << 16 | stream.readUnsignedByte() << 8 | stream.readUnsignedByte();
+                    }
+                    break;
+                case 0x74524E53: // tRNS
+                    readTransparency((int) length);
+                    break;
+                case 0x49444154: // IDAT
+                    remaining = length;
+                    return;
+                case 0x49454E44: // IEND
+                    throw new EOFException("PNG without image data");
+                default:
+                    break;
+            }
+            stream.seek(end);
+        }
+    }
+
+    private void readTransparency(int length) throws IOException {
+        if (colorType == PALETTE) {
+            paletteAlpha = new byte[Math.max(length, palette == null ? 0 : palette.length)];
+            Arrays.fill(paletteAlpha, (byte) 0xff);
+            stream.readFully(paletteAlpha, 0, length);
+        } else if (colorType == GRAY || colorType == RGB) {
+            transparent = new int[colorType == GRAY ? 1 : 3];
+            for (int i = 0; i < transparent.length; i++) {
+                transparent[i] = stream.readUnsignedShort();
+            }
+        }
+    }
+
+    private static void unfilter(int filter, byte[] row, byte[] previous, int pixelBytes) throws IOException {
+        switch (filter) {
+            case 0:
+                break;
+            case 1:
+                for (int i = pixelBytes; i < row.length; i++) {
+                    row[i] += row[i - pixelBytes];
+                }
+                break;
+            case 2:
+                for (int i = 0; i < row.length; i++) {
+                    row[i] += previous[i];
+                }
+                break;
+            case 3:
+                for (int i = 0; i < row.length; i++) {
+                    int left = i >= pixelBytes ? row[i - pixelBytes] & 0xff : 0;
+                    row[i] += (left + (previous[i] & 0xff)) >>> 1;
+                }
+                break;
+            case 4:
+                for (int i = 0; i < row.length; i++) {
+                    int left = i >= pixelBytes ? row[i - pixelBytes] & 0xff : 0;
+                    int upperLeft = i >= pixelBytes ? previous[i - pixelBytes] & 0xff : 0;
+                    row[i] += paeth(left, previous[i] & 0xff, upperLeft);
+                }
+                break;
+            default:
+                throw new IOException("Unknown PNG filter: " + filter);
+        }
+    }
+
+    private static int paeth(int left, int up, int upperLeft) {
+        int estimate = left + up - upperLeft;
+        int toLeft = Math.abs(estimate - left);
+        int toUp = Math.abs(estimate - up);
+        int toUpperLeft = Math.abs(estimate - upperLeft);
+        if (toLeft <= toUp && toLeft <= toUpperLeft)
+            return left;
+        return toUp <= toUpperLeft ? up : upperLeft;
+    }
+
+    /**
+     * Converts an unfiltered row to gray or RGB bytes.
+     */
+    private void convert(byte[] row, int channels, int bands, byte[] output) throws IOException {
+        if (bitDepth == 8 && transparent == null && channels == bands && colorType != PALETTE) {
+            System.arraycopy(row, 0, output, 0, output.length);
+            return;
+        }
+        for (int x = 0; x < width; x++) {
+            int r;
+            int g;
+            int b;
+            int alpha = 255;
+            if (colorType == PALETTE) {
+                int index = sample(row, x, 0, 1);
+                if (palette == null || index >= palette.length)
+                    throw new IOException("PNG palette index out of range: " + index);
+                r = palette[index] >> 16;
+                g = palette[index] >> 8 & 0xff;
+                b = palette[index] & 0xff;
+                if (paletteAlpha != null && index < paletteAlpha.length)
+                    alpha = paletteAlpha[index] & 0xff;
+            } else if (channels <= 2) {
+                int gray = sample(row, x, 0, channels);
+                if (transparent != null && gray == transparent[0])
+                    alpha = 0;
+                r = g = b = level(gray);
+                if (channels == 2)
+                    alpha = level(sample(row, x, 1, channels));
+            } else {
+                int red = sample(row, x, 0, channels);
+                int green = sample(row, x, 1, channels);
+                int blue = sample(row, x, 2, channels);
+                if (transparent != null && red == transparent[0] && green == transparent[1] && blue == transparent[2])
+                    alpha = 0;
+                r = level(red);
+                g = level(green);
+                b = level(blue);
+                if (channels == 4)
+                    alpha = level(sample(row, x, 3, channels));
+            }
+            if (alpha != 255) {
+                r = (r * alpha + 255 * (255 - alpha)) / 255;
+                g = (g * alpha + 255 * (255 - alpha)) / 255;
+                b = (b * alpha + 255 * (255 - alpha)) / 255;
+            }
+            if (bands == 1) {
+                output[x] = (byte) ColorAnalysis.luma(r, g, b);
+            } else {
+                output[x * 3] = (byte) r;
+                output[x * 3 + 1] = (byte) g;
+                output[x * 3 + 2] = (byte) b;
+            }
+        }
+    }
+
+    /**
+     * @return A sample scaled to 8 bits.
+     */
+    private int level(int sample) {
+        return bitDepth == 16 ? sample >> 8 : sample * 255 / ((1 << bitDepth) - 1);
+    }
+
+    /**
+     * @return The sample of a channel of a pixel at the bit depth of the image.
+     */
+    private int sample(byte[] row, int x, int channel, int channels) {
+        if (bitDepth == 8)
+            return row[x * channels + channel] & 0xff;
+        if (bitDepth == 16) {
+            int i = (x * channels + channel) * 2;
+            return (row[i] & 0xff) << 8 | row[i + 1] & 0xff;
+        }
+        // Below 8 bits there is a single channel, packed most significant first.
+        long bit = (long) x * bitDepth;
+        return (row[(int) (bit >> 3)] & 0xff) >> (8 - bitDepth - (int) (bit & 7)) & ((1 << bitDepth) - 1);
+    }
+
+    /**
+     * The data of the consecutive IDAT chunks, as one stream.
+     */
+    private class ImageData extends InputStream {
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            while (remaining == 0) {
+                // Skips the CRC and moves on to the next chunk, which ends the data unless it is an IDAT.
+                stream.skipBytes(4);
+                long length = stream.readUnsignedInt();
+                if (stream.readInt() != 0x49444154)
+                    return -1;
+                remaining = length;
+            }
+            int count = stream.read(b, off, (int) Math.min(len, remaining));
+            if (count < 0)
+                throw new EOFException("PNG image data is truncated");
+            remaining -= count;
+            return count;
+        }
+    }
+}
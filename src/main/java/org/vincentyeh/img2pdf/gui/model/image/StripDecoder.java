@@ -0,0 +1,305 @@
+package org.vincentyeh.img2pdf.gui.model.image;
+
+import org.w3c.dom.Node;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadUpdateListener;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.*;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Decodes an image strip by strip, for images too large to be held whole even off the heap.
+ * <p>
+ * Baseline JPEG and non-interlaced PNG are decoded in a single pass into a ring of rows,
+ * which are handed over as the reader reports them complete. The ImageIO readers refuse images of more pixels
+ * than an int holds, so those are decoded by a {@link SequentialJpegDecoder} or {@link SequentialPngDecoder}.
+ * Other images are read through source regions of whole tile rows, at most {@code stripBytes} at a time.
+ * Either way the memory used does not depend on the height of the image.
+ */
+public class StripDecoder implements Closeable {
+    private static final List<String> SEQUENTIAL_FORMATS = Arrays.asList("jpeg", "jpg", "png");
+    private static final int RING_BYTES = 1 << 20;
+    /**
+     * Largest pixel count the ImageIO JPEG and PNG readers accept.
+     */
+    private static final long MAX_READER_PIXELS = Integer.MAX_VALUE - 2;
+
+    /**
+     * Receives the decoded rows in order, {@code width * bands} bytes per row.
+     */
+    public interface RowSink {
+        void write(byte[] rows, int offset, int length) throws IOException;
+    }
+
+    private final File file;
+    private final ImageInputStream stream;
+    private final ImageReader reader;
+    private final int width;
+    private final int height;
+    private final int bands;
+    private final int stripBytes;
+    private final RasterPool pool;
+
+    private StripDecoder(File file, ImageInputStream stream, ImageReader reader, int bands, int stripBytes, RasterPool pool) throws IOException {
+        this.file = file;
+        this.stream = stream;
+        this.reader = reader;
+        this.width = reader.getWidth(0);
+        this.height = reader.getHeight(0);
+        this.bands = bands;
+        this.stripBytes = stripBytes;
+        this.pool = pool;
+    }
+
+    /**
+     * Reads the header of the first image of a file. The pixels are decoded by {@link #decode}.
+     *
+     * @param bands 1 to decode to gray, 3 to decode to RGB.
+     */
+    public static StripDecoder open(File file, int bands, int stripBytes, RasterPool pool) throws IOException {
+        ImageInputStream stream = ImageSources.open(file);
+        try {
+            ImageReader reader = ImageSources.createReader(stream, false);
+            if (reader == null)
+                throw new IOException("Unsupported image format: " + file.getName());
+            try {
+                return new StripDecoder(file, stream, reader, bands, stripBytes, pool);
+            } catch (IOException | RuntimeException e) {
+                reader.dispose();
+                throw e;
+            }
+        } catch (IOException | RuntimeException e) {
+            stream.close();
+            throw e;
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getBands() {
+        return bands;
+    }
+
+    public void decode(RowSink sink) throws IOException {
+        String format = reader.getFormatName().toLowerCase(Locale.ROOT);
+        if ((long) width * height > MAX_READER_PIXELS && SEQUENTIAL_FORMATS.contains(format)) {
+            // The reader has let go of the start of its stream.
+            try (ImageInputStream own = ImageSources.open(file)) {
+                if (format.equals("png"))
+                    SequentialPngDecoder.decode(own, bands, sink);
+                else
+                    SequentialJpegDecoder.decode(own, bands, sink);
+            }
+        } else if (isSequential())
+            decodeSequentially(sink);
+        else
+            decodeRegions(sink);
+    }
+
+    private boolean isSequential() throws IOException {
+        if (!SEQUENTIAL_FORMATS.contains(reader.getFormatName().toLowerCase(Locale.ROOT)))
+            return false;
+        if (!PixelStore.hasComponents(reader, bands))
+            return false;
+
+        // Progressive JPEG and interlaced PNG deliver the image in several passes over all rows.
+        IIOMetadata metadata = reader.getImageMetadata(0);
+        if (metadata == null)
+            return false;
+        String format = metadata.getNativeMetadataFormatName();
+        Node root = metadata.getAsTree(format);
+        if (format.equals("javax_imageio_png_1.0")) {
+            Node header = find(root, "IHDR");
+            return header != null && "none".equals(attribute(header, "interlaceMethod"));
+        }
+        if (format.equals("javax_imageio_jpeg_image_1.0")) {
+            Node frame = find(root, "sof");
+            return frame != null && !"2".equals(attribute(frame, "process"));
+        }
+        return false;
+    }
+
+    private void decodeSequentially(RowSink sink) throws IOException {
+        int rowBytes = width * bands;
+        // The readers report every row as soon as it is complete, a few rows of slack are enough.
+        int ringRows = Math.max(16, RING_BYTES / rowBytes);
+        byte[] ring = new byte[rowBytes * ringRows];
+        WritableRaster raster = new RingRaster(new RingSampleModel(width, ringRows, bands), new DataBufferByte(ring, ring.length), height);
+        ColorModel colorModel = new ComponentColorModel(ColorSpace.getInstance(bands == 1 ? ColorSpace.CS_GRAY : ColorSpace.CS_sRGB),
+                false, false, Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+
+        int[] next = {0};
+        IOException[] failure = {null};
+        IIOReadUpdateListener listener = new UpdateAdapter() {
+            @Override
+            public void imageUpdate(ImageReader source, BufferedImage image, int minX, int minY, int w, int h,
+                                    int periodX, int periodY, int[] bands) {
+                if (failure[0] != null)
+                    return;
+                try {
+                    if (minX != 0 || w != width || minY != next[0] || h > ringRows)
+                        throw new IOException(String.format("rows %d-%d reported out of order", minY, minY + h - 1));
+                    for (int y = minY; y < minY + h; y++) {
+                        sink.write(ring, (y % ringRows) * rowBytes, rowBytes);
+                    }
+                    next[0] = minY + h;
+                } catch (IOException e) {
+                    failure[0] = e;
+                    reader.abort();
+                }
+            }
+        };
+
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setDestination(new BufferedImage(colorModel, raster, false, null));
+        reader.addIIOReadUpdateListener(listener);
+        try {
+            reader.read(0, param);
+        } finally {
+            reader.removeIIOReadUpdateListener(listener);
+        }
+        if (failure[0] != null)
+            throw failure[0];
+        if (next[0] != height)
+            throw new IOException(String.format("decoding stopped at row %d of %d", next[0], height));
+    }
+
+    private void decodeRegions(RowSink sink) throws IOException {
+        int tileHeight = reader.isImageTiled(0) ? reader.getTileHeight(0) : 1;
+        // The heap strip holds ARGB pixels, four bytes each.
+        int stripRows = Math.max(1, stripBytes / (width * 4 * tileHeight)) * tileHeight;
+        int[] argb = new int[width];
+        byte[] row = new byte[width * bands];
+
+        ImageReadParam param = reader.getDefaultReadParam();
+        for (int y = 0; y < height; y += stripRows) {
+            int rows = Math.min(stripRows, height - y);
+            param.setSourceRegion(new Rectangle(0, y, width, rows));
+            BufferedImage strip = pool.read(reader, 0, param);
+            try {
+                for (int i = 0; i < rows; i++) {
+                    strip.getRGB(0, i, width, 1, argb, 0, width);
+                    PixelStore.toComponents(argb, row, bands);
+                    sink.write(row, 0, row.length);
+                }
+            } finally {
+                pool.release(strip);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.dispose();
+        stream.close();
+    }
+
+    private static Node find(Node node, String name) {
+        if (node.getNodeName().equals(name))
+            return node;
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            Node found = find(child, name);
+            if (found != null)
+                return found;
+        }
+        return null;
+    }
+
+    private static String attribute(Node node, String name) {
+        Node attribute = node.getAttributes() == null ? null : node.getAttributes().getNamedItem(name);
+        return attribute == null ? null : attribute.getNodeValue();
+    }
+
+    /**
+     * Raster of the full size of the image over a {@link RingSampleModel}, which keeps only its last rows.
+     */
+    private static class RingRaster extends WritableRaster {
+        private RingRaster(RingSampleModel sampleModel, DataBuffer data, int height) {
+            super(sampleModel, data, new Rectangle(0, 0, sampleModel.getWidth(), height), new Point(0, 0), null);
+        }
+    }
+
+    /**
+     * Interleaved 8-bit samples of the rows of a ring, which row {@code y} of the image is written to at row
+     * {@code y % height}. Readers write through {@link WritableRaster#setRect}, or pixel by pixel, which
+     * are the two paths mapped onto the ring.
+     */
+    private static class RingSampleModel extends PixelInterleavedSampleModel {
+        private RingSampleModel(int width, int ringRows, int bands) {
+            super(DataBuffer.TYPE_BYTE, width, ringRows, bands, width * bands, bands == 1 ? new int[]{0} : new int[]{0, 1, 2});
+        }
+
+        @Override
+        public void setPixels(int x, int y, int w, int h, int[] iArray, DataBuffer data) {
+            byte[] ring = ((DataBufferByte) data).getData();
+            int source = 0;
+            for (int row = y; row < y + h; row++) {
+                int offset = (row % height) * scanlineStride + x * numBands;
+                for (int end = offset + w * numBands; offset < end; offset++)
+                    ring[offset] = (byte) iArray[source++];
+            }
+        }
+
+        @Override
+        public void setPixel(int x, int y, int[] iArray, DataBuffer data) {
+            byte[] ring = ((DataBufferByte) data).getData();
+            int offset = (y % height) * scanlineStride + x * numBands;
+            for (int band = 0; band < numBands; band++)
+                ring[offset + band] = (byte) iArray[band];
+        }
+    }
+
+    private static class UpdateAdapter implements IIOReadUpdateListener {
+        @Override
+        public void passStarted(ImageReader source, BufferedImage image, int pass, int minPass, int maxPass,
+                                int minX, int minY, int periodX, int periodY, int[] bands) {
+
+        }
+
+        @Override
+        public void imageUpdate(ImageReader source, BufferedImage image, int minX, int minY, int width, int height,
+                                int periodX, int periodY, int[] bands) {
+
+        }
+
+        @Override
+        public void passComplete(ImageReader source, BufferedImage image) {
+
+        }
+
+        @Override
+        public void thumbnailPassStarted(ImageReader source, BufferedImage thumbnail, int pass, int minPass, int maxPass,
+                                         int minX, int minY, int periodX, int periodY, int[] bands) {
+
+        }
+
+        @Override
+        public void thumbnailUpdate(ImageReader source, BufferedImage thumbnail, int minX, int minY, int width, int height,
+                                    int periodX, int periodY, int[] bands) {
+
+        }
+
+        @Override
+        public void thumbnailPassComplete(ImageReader source, BufferedImage thumbnail) {
+
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package org.vincentyeh.img2pdf.gui.model.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Has outputs written under a hidden temporary name in their destination folder and renames them when they are
+ * complete, so no reader ever sees a partial file. The rename stays within the file system and is atomic.
+ * <p>
+ * Without a sync policy an output is renamed as soon as it is complete and written back by the OS when it sees fit.
+ * With one, complete outputs are held until {@link #setSyncPolicy the group} is full or its oldest output has waited
+ * long enough. Then every output of the group is forced to disk and renamed, and each folder is forced once,
+ * so a crash never leaves a renamed output that is not entirely on disk, without one folder sync per file.
+ * <p>
+ * The outcome of each output is reported to its own {@link CommitListener}, which is also asked right before the rename
+ * whether the output may still be written. An output that cannot be forced to disk or renamed keeps its staging file,
+ * so the converted document is not lost.
+ */
+public class OutputStager implements Closeable {
+    private static final String SUFFIX = ".part";
+
+    private int syncFiles = 0;
+    private long syncMillis = 0;
+    private final List<Staged> group = new ArrayList<>();
+    private ScheduledExecutorService timer;
+    private ScheduledFuture<?> deadline;
+    private volatile Consumer<File> stagingListener;
+
+    /**
+     * @param files  Outputs per group, 0 to rename outputs as soon as they are complete without forcing them to disk.
+     * @param millis Longest time an output is held, 0 for no limit besides the end of its job.
+     */
+    public synchronized void setSyncPolicy(int files, long millis) {
+        if (files < 0 || millis < 0)
+            throw new IllegalArgumentException("sync policy<0");
+        this.syncFiles = files;
+        this.syncMillis = millis;
+    }
+
+    /**
+     * @param listener Told every new staging file before it is written. May be null.
+     */
+    public void setStagingListener(Consumer<File> listener) {
+        this.stagingListener = listener;
+    }
+
+    /**
+     * @return A new empty file next to the output, to be written instead of it.
+     */
+    public File stage(File output) throws IOException {
+        // Unlike Files.createTempFile, this keeps the permissions an output gets by default.
+        File staging = File.createTempFile("." + output.getName() + ".", SUFFIX, output.getAbsoluteFile().getParentFile());
+        Consumer<File> listener = stagingListener;
+        if (listener != null)
+            listener.accept(staging);
+        return staging;
+    }
+
+    /**
+     * Moves a complete staging file to its output, now or with its group, and reports the outcome to the listener.
+     */
+    public synchronized void commit(File staging, File output, CommitListener listener) {
+        if (syncFiles <= 0) {
+            try {
+                if (!listener.mayCommit()) {
+                    discard(staging);
+                    listener.onDiscarded();
+                    return;
+                }
+                move(staging, output);
+            } catch (IOException e) {
+                listener.onCommitFailed(e);
+                return;
+            }
+            listener.onCommitted();
+            return;
+        }
+        group.add(new Staged(staging, output, listener));
+        if (group.size() >= syncFiles) {
+            sync();
+        } else if (group.size() == 1 && syncMillis > 0) {
+            deadline = getTimer().schedule(this::syncLater, syncMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Deletes a staging file whose output was not completed.
+     */
+    public void discard(File staging) {
+        if (!staging.delete() && staging.exists())
+            staging.deleteOnExit();
+    }
+
+    /**
+     * Syncs and renames the outputs held so far.
+     */
+    public synchronized void flush() {
+        sync();
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            flush();
+        } finally {
+            if (timer != null)
+                timer.shutdownNow();
+            timer = null;
+        }
+    }
+
+    private synchronized void syncLater() {
+        sync();
+    }
+
+    private void sync() {
+        if (deadline != null)
+            deadline.cancel(false);
+        deadline = null;
+        if (group.isEmpty())
+            return;
+        List<Staged> staged = new ArrayList<>(group);
+        group.clear();
+
+        List<Staged> committed = new ArrayList<>(staged.size());
+        Set<Path> folders = new LinkedHashSet<>();
+        for (Staged file : staged) {
+            try {
+                if (!file.listener.mayCommit()) {
+                    discard(file.staging);
+                    file.listener.onDiscarded();
+                    continue;
+                }
+                try (FileChannel channel = FileChannel.open(file.staging.toPath(), StandardOpenOption.WRITE)) {
+                    channel.force(true);
+                }
+                move(file.staging, file.output);
+                committed.add(file);
+                folders.add(file.output.getAbsoluteFile().getParentFile().toPath());
+            } catch (IOException e) {
+                file.listener.onCommitFailed(e);
+            }
+        }
+        for (Path folder : folders) {
+            forceFolder(folder);
+        }
+        for (Staged file : committed) {
+            file.listener.onCommitted();
+        }
+    }
+
+    private static void move(File staging, File output) throws IOException {
+        try {
+            Files.move(staging.toPath(), output.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(staging.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Forces the entries of a folder to disk, where the platform allows to open a folder.
+     */
+    private static void forceFolder(Path folder) {
+        try (FileChannel channel = FileChannel.open(folder, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not supported on Windows, where the rename is durable once the file system journal is.
+        }
+    }
+
+    private ScheduledExecutorService getTimer() {
+        if (timer == null) {
+            timer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "output-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return timer;
+    }
+
+    /**
+     * Outcome of one output, reported by the thread that renames it.
+     */
+    public interface CommitListener {
+        /**
+         * Asked right before the output is forced to disk and renamed. A failure counts as a failed commit.
+         *
+         * @return false to discard the output instead.
+         */
+        boolean mayCommit() throws IOException;
+
+        /**
+         * The output is renamed into place, and forced to disk if there is a sync policy.
+         */
+        void onCommitted();
+
+        /**
+         * The output could not be forced to disk or renamed. Its staging file is left as it is.
+         */
+        void onCommitFailed(IOException e);
+
+        /**
+         * The output was not allowed to be written and its staging file is deleted.
+         */
+        void onDiscarded();
+    }
+
+    private static class Staged {
+        private final File staging;
+        private final File output;
+        private final CommitListener listener;
+
+        private Staged(File staging, File output, CommitListener listener) {
+            this.staging = staging;
+            this.output = output;
+            this.listener = listener;
+        }
+    }
+}
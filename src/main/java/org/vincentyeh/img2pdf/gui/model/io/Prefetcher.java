@@ -0,0 +1,184 @@
+package org.vincentyeh.img2pdf.gui.model.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Reads upcoming source files ahead of the conversion, so that they are in the OS page cache when decoded.
+ * <p>
+ * Files are read in the order they are enqueued. At most {@link #getLookaheadBytes()} of prefetched files may be
+ * waiting to be consumed, so the prefetched data is not evicted again before it is used.
+ */
+public class Prefetcher {
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final long lookaheadBytes;
+    private final LinkedBlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    private final Object budgetLock = new Object();
+    private long pendingBytes = 0;
+    private final Thread thread;
+
+    /**
+     * @param lookaheadBytes Prefetched bytes allowed ahead of the conversion, 0 disables prefetching.
+     */
+    public Prefetcher(long lookaheadBytes) {
+        if (lookaheadBytes < 0)
+            throw new IllegalArgumentException("lookaheadBytes<0");
+        this.lookaheadBytes = lookaheadBytes;
+        if (lookaheadBytes > 0) {
+            thread = new Thread(this::prefetchLoop, "prefetcher");
+            thread.setDaemon(true);
+            thread.start();
+        } else {
+            thread = null;
+        }
+    }
+
+    public long getLookaheadBytes() {
+        return lookaheadBytes;
+    }
+
+    public Session open() {
+        return new Session();
+    }
+
+    public void shutdown() {
+        if (thread != null)
+            thread.interrupt();
+    }
+
+    /**
+     * Prefetching of one job. Files are released when consumed or when the session is closed.
+     */
+    public class Session implements AutoCloseable {
+        private final Map<File, Long> prefetched = new HashMap<>();
+        private final Set<File> consumed = new HashSet<>();
+        private volatile boolean closed = false;
+
+        private Session() {
+
+        }
+
+        public void enqueue(File[] files) {
+            if (thread == null || closed)
+                return;
+            for (File file : files) {
+                queue.add(new Entry(this, file));
+            }
+        }
+
+        /**
+         * Marks a file as read by the conversion, which frees its share of the lookahead.
+         */
+        public void consumed(File file) {
+            long size;
+            synchronized (this) {
+                consumed.add(file);
+                Long prefetchedSize = prefetched.remove(file);
+                if (prefetchedSize == null)
+                    return;
+                size = prefetchedSize;
+            }
+            release(size);
+        }
+
+        public void consumed(File[] files) {
+            for (File file : files) {
+                consumed(file);
+            }
+        }
+
+        @Override
+        public void close() {
+            long size = 0;
+            synchronized (this) {
+                closed = true;
+                for (long value : prefetched.values()) {
+                    size += value;
+                }
+                prefetched.clear();
+                consumed.clear();
+            }
+            release(size);
+        }
+
+        private synchronized boolean shouldPrefetch(File file) {
+            return !closed && !consumed.contains(file) && !prefetched.containsKey(file);
+        }
+
+        /**
+         * @return false if the file was consumed or the session closed while it was being read.
+         */
+        private synchronized boolean markPrefetched(File file, long size) {
+            if (closed || consumed.contains(file))
+                return false;
+            prefetched.put(file, size);
+            return true;
+        }
+    }
+
+    private static class Entry {
+        private final Session session;
+        private final File file;
+
+        private Entry(Session session, File file) {
+            this.session = session;
+            this.file = file;
+        }
+    }
+
+    private void prefetchLoop() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Entry entry = queue.take();
+                if (!entry.session.shouldPrefetch(entry.file))
+                    continue;
+                long size = entry.file.length();
+                reserve(size);
+                try {
+                    readThrough(entry.file, buffer);
+                } catch (IOException e) {
+                    // The conversion reports unreadable files itself.
+                }
+                if (!entry.session.markPrefetched(entry.file, size))
+                    release(size);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void reserve(long size) throws InterruptedException {
+        synchronized (budgetLock) {
+            // A single file larger than the lookahead is still prefetched, but only when nothing else is waiting.
+            while (pendingBytes > 0 && pendingBytes + size > lookaheadBytes) {
+                budgetLock.wait();
+            }
+            pendingBytes += size;
+        }
+    }
+
+    private void release(long size) {
+        if (size == 0)
+            return;
+        synchronized (budgetLock) {
+            pendingBytes -= size;
+            budgetLock.notifyAll();
+        }
+    }
+
+    private static void readThrough(File file, ByteBuffer buffer) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer.clear();
+            while (channel.read(buffer) >= 0) {
+                buffer.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package org.vincentyeh.img2pdf.gui.model.pdf;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes 1-bit rows with CCITT Group 4 (ITU-T T.6), as read by {@code /CCITTFaxDecode} with {@code /K -1}.
+ * <p>
+ * Rows are packed most significant bit first with 1 for white, the layout of a 1-bit {@code /DeviceGray} image,
+ * and are encoded one by one against the previous row, so a page never has to be held whole.
+ */
+class CcittG4Encoder {
+    private static final String[] WHITE_TERMINATING = {
+            "00110101", "000111", "0111", "1000", "1011", "1100", "1110", "1111",
+            "10011", "10100", "00111", "01000", "001000", "000011", "110100", "110101",
+            "101010", "101011", "0100111", "0001100", "0001000", "0010111", "0000011", "0000100",
+            "0101000", "0101011", "0010011", "0100100", "0011000", "00000010", "00000011", "00011010",
+            "00011011", "00010010", "00010011", "00010100", "00010101", "00010110", "00010111", "00101000",
+            "00101001", "00101010", "00101011", "00101100", "00101101", "00000100", "00000101", "00001010",
+            "00001011", "01010010", "01010011", "01010100", "01010101", "00100100", "00100101", "01011000",
+            "01011001", "01011010", "01011011", "01001010", "01001011", "00110010", "00110011", "00110100"
+    };
+    private static final String[] WHITE_MAKEUP = {
+            "11011", "10010", "010111", "0110111", "00110110", "00110111", "01100100", "01100101",
+            "01101000", "01100111", "011001100", "011001101", "011010010", "011010011", "011010100", "011010101",
+            "011010110", "011010111", "011011000", "011011001", "011011010", "011011011", "010011000", "010011001",
+            "010011010", "011000", "010011011"
+    };
+    private static final String[] BLACK_TERMINATING = {
+            "0000110111", "010", "11", "10", "011", "0011", "0010", "00011",
+            "000101", "000100", "0000100", "0000101", "0000111", "00000100", "00000111", "000011000",
+            "0000010111", "0000011000", "0000001000", "00001100111", "00001101000", "00001101100", "00000110111", "00000101000",
+            "00000010111", "00000011000", "000011001010", "000011001011", "000011001100", "000011001101", "000001101000", "000001101001",
+            "000001101010", "000001101011", "000011010010", "000011010011", "000011010100", "000011010101", "000011010110", "000011010111",
+            "000001101100", "000001101101", "000011011010", "000011011011", "000001010100", "000001010101", "000001010110", "000001010111",
+            "000001100100", "000001100101", "000001010010", "000001010011", "000000100100", "000000110111", "000000111000", "000000100111",
+            "000000101000", "000001011000", "000001011001", "000000101011", "000000101100", "000001011010", "000001100110", "000001100111"
+    };
+    private static final String[] BLACK_MAKEUP = {
+            "0000001111", "000011001000", "000011001001", "000001011011", "000000110011", "000000110100", "000000110101", "0000001101100",
+            "0000001101101", "0000001001010", "0000001001011", "0000001001100", "0000001001101", "0000001110010", "0000001110011", "0000001110100",
+            "0000001110101", "0000001110110", "0000001110111", "0000001010010", "0000001010011", "0000001010100", "0000001010101", "0000001011010",
+            "0000001011011", "0000001100100", "0000001100101"
+    };
+    /**
+     * Make-up codes from 1792 to 2560, shared by both colors.
+     */
+    private static final String[] EXTENDED_MAKEUP = {
+            "00000001000", "00000001100", "00000001101", "000000010010", "000000010011", "000000010100", "000000010101",
+            "000000010110", "000000010111", "000000011100", "000000011101", "000000011110", "000000011111"
+    };
+    /**
+     * Vertical mode codes from VL3 to VR3.
+     */
+    private static final String[] VERTICAL = {"0000010", "000010", "010", "1", "011", "000011", "0000011"};
+    private static final String PASS = "0001";
+    private static final String HORIZONTAL = "001";
+    private static final String END_OF_LINE = "000000000001";
+
+    private static final int[] WHITE_TERMINATING_CODES = toCodes(WHITE_TERMINATING);
+    private static final int[] WHITE_MAKEUP_CODES = toCodes(WHITE_MAKEUP);
+    private static final int[] BLACK_TERMINATING_CODES = toCodes(BLACK_TERMINATING);
+    private static final int[] BLACK_MAKEUP_CODES = toCodes(BLACK_MAKEUP);
+    private static final int[] EXTENDED_MAKEUP_CODES = toCodes(EXTENDED_MAKEUP);
+    private static final int[] VERTICAL_CODES = toCodes(VERTICAL);
+    private static final int PASS_CODE = toCode(PASS);
+    private static final int HORIZONTAL_CODE = toCode(HORIZONTAL);
+    private static final int END_OF_LINE_CODE = toCode(END_OF_LINE);
+
+    private final OutputStream out;
+    private final int columns;
+    /**
+     * Positions where the color changes, of the previous row and of the current one, each followed by
+     * {@link #columns} as sentinel. The first change of a row is always from white to black.
+     */
+    private int[] reference;
+    private int[] coding;
+    private int bitBuffer;
+    private int bitCount;
+
+    CcittG4Encoder(OutputStream out, int columns) {
+        this.out = out;
+        this.columns = columns;
+        this.reference = new int[columns + 3];
+        this.coding = new int[columns + 3];
+        // The row above the first one is white.
+        fillSentinel(reference, 0);
+    }
+
+    /**
+     * Encodes the row starting at the offset, {@code (columns + 7) / 8} bytes.
+     */
+    void encodeRow(byte[] row, int offset) throws IOException {
+        findChanges(row, offset);
+        int a0 = -1;
+        boolean white = true;
+        int b = 0;
+        int a = 0;
+        while (a0 < columns) {
+            // b1 is the first change of the previous row after a0 to the color opposite to the one at a0,
+            // changes to black are at even indices.
+            while (b > 0 && reference[b - 1] > a0)
+                b--;
+            while (reference[b] <= a0 && reference[b] < columns)
+                b++;
+            if (((b & 1) == 0) != white)
+                b++;
+            int b1 = reference[b];
+            int b2 = reference[Math.min(b + 1, reference.length - 1)];
+            while (coding[a] <= a0 && coding[a] < columns)
+                a++;
+            int a1 = coding[a];
+
+            if (b2 < a1) {
+                writeCode(PASS_CODE);
+                a0 = b2;
+            } else if (Math.abs(a1 - b1) <= 3) {
+                writeCode(VERTICAL_CODES[a1 - b1 + 3]);
+                a0 = a1;
+                white = !white;
+            } else {
+                int a2 = coding[Math.min(a + 1, coding.length - 1)];
+                writeCode(HORIZONTAL_CODE);
+                writeRun(a1 - Math.max(a0, 0), white);
+                writeRun(a2 - a1, !white);
+                a0 = a2;
+            }
+        }
+        int[] previous = reference;
+        reference = coding;
+        coding = previous;
+    }
+
+    /**
+     * Writes the end of the data and pads the last byte.
+     */
+    void finish() throws IOException {
+        writeCode(END_OF_LINE_CODE);
+        writeCode(END_OF_LINE_CODE);
+        if (bitCount > 0)
+            out.write(bitBuffer << (8 - bitCount));
+        bitBuffer = 0;
+        bitCount = 0;
+    }
+
+    private void findChanges(byte[] row, int offset) {
+        int count = 0;
+        boolean white = true;
+        for (int x = 0; x < columns; ) {
+            int value = row[offset + (x >> 3)] & 0xff;
+            // Whole bytes without a change are skipped.
+            if ((x & 7) == 0 && x + 8 <= columns && value == (white ? 0xff : 0x00)) {
+                x += 8;
+                continue;
+            }
+            boolean pixel = (value >> (7 - (x & 7)) & 1) == 1;
+            if (pixel != white) {
+                coding[count++] = x;
+                white = pixel;
+            }
+            x++;
+        }
+        fillSentinel(coding, count);
+    }
+
+    private void fillSentinel(int[] changes, int count) {
+        for (int i = count; i < changes.length; i++) {
+            changes[i] = columns;
+        }
+    }
+
+    private void writeRun(int length, boolean white) throws IOException {
+        while (length >= 2560 + 64) {
+            writeCode(EXTENDED_MAKEUP_CODES[EXTENDED_MAKEUP_CODES.length - 1]);
+            length -= 2560;
+        }
+        if (length >= 64) {
+            int makeup = length / 64;
+            if (makeup >= 28)
+                writeCode(EXTENDED_MAKEUP_CODES[makeup - 28]);
+            else
+                writeCode((white ? WHITE_MAKEUP_CODES : BLACK_MAKEUP_CODES)[makeup - 1]);
+            length %= 64;
+        }
+        writeCode((white ? WHITE_TERMINATING_CODES : BLACK_TERMINATING_CODES)[length]);
+    }
+
+    /**
+     * @param code The bits of the code above its length in the lowest 4 bits.
+     */
+    private void writeCode(int code) throws IOException {
+        int length = code & 0xf;
+        bitBuffer = bitBuffer << length | code >>> 4;
+        bitCount += length;
+        while (bitCount >= 8) {
+            bitCount -= 8;
+            out.write(bitBuffer >>> bitCount);
+        }
+        bitBuffer &= (1 << bitCount) - 1;
+    }
+
+    private static int[] toCodes(String[] codes) {
+        int[] result = new int[codes.length];
+        for (int i = 0; i < codes.length; i++) {
+            result[i] = toCode(codes[i]);
+        }
+        return result;
+    }
+
+    private static int toCode(String code) {
+        return Integer.parseInt(code, 2) << 4 | code.length();
+    }
+}
@@ -0,0 +1,733 @@
+package org.vincentyeh.img2pdf.gui.model.pdf;
+
+import org.vincentyeh.img2pdf.gui.model.ColorMode;
+import org.vincentyeh.img2pdf.gui.model.Job;
+import org.vincentyeh.img2pdf.gui.model.Task;
+import org.vincentyeh.img2pdf.gui.model.image.ColorAnalysis;
+import org.vincentyeh.img2pdf.gui.model.image.Downsampler;
+import org.vincentyeh.img2pdf.gui.model.image.ImageSources;
+import org.vincentyeh.img2pdf.gui.model.image.JpegHeader;
+import org.vincentyeh.img2pdf.gui.model.image.Palette;
+import org.vincentyeh.img2pdf.gui.model.image.PixelSource;
+import org.vincentyeh.img2pdf.gui.model.image.PixelStore;
+import org.vincentyeh.img2pdf.gui.model.image.RasterPool;
+import org.vincentyeh.img2pdf.gui.model.image.StripDecoder;
+import org.vincentyeh.img2pdf.lib.image.ColorType;
+import org.vincentyeh.img2pdf.lib.pdf.framework.factory.ImagePDFFactoryListener;
+import org.vincentyeh.img2pdf.lib.pdf.parameter.PageSize;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Converts a task to PDF without the conversion library, for the cases the library cannot handle within the heap.
+ * <p>
+ * A task comes here when its job asks for something only this converter does, or when it has too many pages
+ * or too large an image for the library, as {@link #accepts} decides. Each page is written and flushed to the file
+ * before the next one is decoded, and the page tree is written as it fills, so the memory of a document
+ * does not grow with its page count.
+ */
+public class DirectConverter {
+    private static final int STRIP_BYTES = 1 << 20;
+    private static final int STREAMING_STRIP_BYTES = 16 << 20;
+    private static final long DEFAULT_STREAMING_PIXELS = 500_000_000L;
+    private static final int DEFAULT_STREAMING_PAGES = 1000;
+    private static final String IMAGE_NAME = "Im0";
+    private static final int MIDDLE_GRAY = 128;
+    /**
+     * Images within 10% of the target resolution are left alone, resampling them would blur them for little gain.
+     */
+    private static final double DPI_TOLERANCE = 1.1;
+    /**
+     * Longest side of the reduced decode a JPEG file is analyzed from before it is passed through.
+     */
+    private static final int ANALYSIS_SIDE = 1024;
+    private static final float JPEG_QUALITY = 0.9f;
+    /**
+     * Bytes of the objects of a page besides its image, and of the catalog, page tree and cross-reference table.
+     */
+    private static final long PAGE_OVERHEAD = 400;
+    private static final long DOCUMENT_OVERHEAD = 1024;
+
+    private final RasterPool pool;
+    private volatile long offHeapPixels = 0;
+    private volatile long streamingPixels = DEFAULT_STREAMING_PIXELS;
+    private volatile int streamingPages = DEFAULT_STREAMING_PAGES;
+    private volatile boolean jpegPassthrough = true;
+    private volatile boolean jpegTaskRouting = false;
+    private volatile int encodingThreads = Runtime.getRuntime().availableProcessors();
+    private ExecutorService encoders;
+
+    public DirectConverter(RasterPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Tasks with an image of at least this many pixels are converted off the heap. 0 disables it.
+     */
+    public void setOffHeapThreshold(long pixels) {
+        this.offHeapPixels = pixels;
+    }
+
+    /**
+     * Images of at least this many pixels are decoded and compressed strip by strip. 0 disables it.
+     */
+    public void setStreamingThreshold(long pixels) {
+        this.streamingPixels = pixels;
+    }
+
+    /**
+     * Tasks of at least this many pages are converted here, one page at a time,
+     * instead of by the library which keeps every page until the document is saved. 0 disables it.
+     */
+    public void setStreamingPageThreshold(int pages) {
+        this.streamingPages = pages;
+    }
+
+    /**
+     * Whether JPEG files are embedded without being decoded when their components match the color type.
+     */
+    public void setJpegPassthrough(boolean enabled) {
+        this.jpegPassthrough = enabled;
+    }
+
+    /**
+     * Whether a task is converted here because it has a JPEG file that can be embedded, with every other image of
+     * the task. Off by default, as the library may handle those other images differently.
+     */
+    public void setJpegTaskRouting(boolean enabled) {
+        this.jpegTaskRouting = enabled;
+    }
+
+    /**
+     * Number of threads encoding pages ahead when the job has a size budget.
+     */
+    public synchronized void setEncodingThreads(int threads) {
+        this.encodingThreads = threads;
+        shutdown();
+    }
+
+    /**
+     * Tasks are converted here for a color mode, target resolution, size budget, palette, linearization or
+     * compaction, for their page count or the pixel count of an image above the thresholds, and with task routing
+     * for a JPEG file that can be embedded. Jobs with one of the {@link #exclusiveOptions} cannot be built with an
+     * {@link #unsupportedSetting}, whose tasks are all left to the library.
+     *
+     * @return true if the task should be converted here instead of by the library.
+     */
+    public boolean accepts(Job job, Task task) {
+        return unsupportedSetting(job) == null && wants(job, task);
+    }
+
+    /**
+     * @return The setting that sends a task to the library although its size calls for this converter, which keeps
+     * the memory flat, or null if the task is not sent to the library for that reason.
+     */
+    public String libraryFallback(Job job, Task task) {
+        String unsupported = unsupportedSetting(job);
+        return unsupported != null && wants(job, task) ? unsupported : null;
+    }
+
+    /**
+     * @return The options of the job that only this converter implements, empty if there are none.
+     */
+    public static List<String> exclusiveOptions(Job job) {
+        List<String> options = new ArrayList<>();
+        if (job.colorMode != ColorMode.FIXED)
+            options.add("color mode " + job.colorMode);
+        if (job.targetDpi > 0 && job.pageSize != PageSize.DEPEND_ON_IMG)
+            options.add("target resolution");
+        if (job.maxDocumentBytes > 0 || job.maxPageBytes > 0)
+            options.add("size budget");
+        if (job.paletteTolerance > 0)
+            options.add("palette tolerance");
+        if (job.linearize)
+            options.add("linearize");
+        if (job.compact)
+            options.add("compact");
+        return options;
+    }
+
+    /**
+     * @return The setting of the job that only the library converts, or null if this converter supports them all.
+     */
+    public static String unsupportedSetting(Job job) {
+        if (job.encrypted)
+            return "encryption";
+        if (!PageLayout.supports(job.pageSize))
+            return "page size " + job.pageSize;
+        if (!supports(job.colorType))
+            return "color type " + job.colorType;
+        return null;
+    }
+
+    private boolean wants(Job job, Task task) {
+        long offHeap = offHeapPixels;
+        long streaming = streamingPixels;
+        if (streamingPages > 0 && task.files.length >= streamingPages)
+            return true;
+        if (!exclusiveOptions(job).isEmpty())
+            return true;
+        if (jpegPassthrough && jpegTaskRouting) {
+            int bands = bandsOf(job);
+            for (File file : task.files) {
+                JpegHeader header = readJpegHeader(file);
+                if (header != null && canPassThrough(header, bands, false))
+                    return true;
+            }
+        }
+        if (offHeap <= 0 && streaming <= 0)
+            return false;
+        for (File file : task.files) {
+            long pixels = ImageSources.readPixelCount(file);
+            if ((offHeap > 0 && pixels >= offHeap) || (streaming > 0 && pixels >= streaming))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * A linearized document is written to a temporary file in the output folder and rewritten by the
+     * {@link Linearizer}, so the first page comes first and can be shown before the rest arrives.
+     *
+     * @param listener Receives the progress, as from the library. It may throw to abort the conversion.
+     */
+    public void convert(Job job, File[] files, File output, ImagePDFFactoryListener listener) throws IOException {
+        if (!job.linearize) {
+            write(job, files, output, listener);
+        } else {
+            // The pages are written in order first and reordered next to the output.
+            File unordered = File.createTempFile(output.getName(), ".tmp", output.getAbsoluteFile().getParentFile());
+            try {
+                write(job, files, unordered, listener);
+                Linearizer.linearize(unordered, output);
+            } finally {
+                Files.deleteIfExists(unordered.toPath());
+            }
+        }
+        if (job.maxDocumentBytes > 0 && output.length() > job.maxDocumentBytes)
+            throw new IOException(String.format("The document is %d KB, above its budget of %d KB",
+                    kilobytes(output.length()), kilobytes(job.maxDocumentBytes)));
+        listener.onConversionComplete();
+    }
+
+    private void write(Job job, File[] files, File output, ImagePDFFactoryListener listener) throws IOException {
+        if (job.maxDocumentBytes > 0 || job.maxPageBytes > 0) {
+            writeWithinBudget(job, files, output, listener);
+            return;
+        }
+        int bands = bandsOf(job);
+        listener.initializing(files.length);
+        try (PdfWriter writer = createWriter(job, output)) {
+            PageTree pages = new PageTree(writer);
+
+            for (int i = 0; i < files.length; i++) {
+                int image = writer.reserve();
+                Dimension size = writeImage(ImageTarget.of(writer, image), job, files[i], bands, null);
+                writePage(writer, pages, job, size, image);
+                listener.onAppend(files[i], i + 1, files.length);
+            }
+            finish(writer, pages);
+        }
+    }
+
+    /**
+     * Writes with a byte budget. Pages are encoded ahead on the encoder threads, as many as there are threads,
+     * and written in order. Each page gets an equal share of what is left of the document budget when it starts,
+     * so what earlier pages did not use goes to later ones, capped by the page budget.
+     * <p>
+     * Every page counts with its actual size, 1-bit pages and pages at the lowest quality included. The task fails
+     * as soon as a page exceeds the page budget or the pages written exceed the document budget.
+     */
+    private void writeWithinBudget(Job job, File[] files, File output, ImagePDFFactoryListener listener) throws IOException {
+        int bands = bandsOf(job);
+        ExecutorService executor = getEncoders();
+        int ahead = Math.max(1, encodingThreads);
+        AtomicInteger hint = QualitySearch.newHint();
+        Deque<Future<EncodedImage>> encoding = new ArrayDeque<>();
+        Deque<Long> budgets = new ArrayDeque<>();
+        long reserved = 0;
+        int submitted = 0;
+
+        listener.initializing(files.length);
+        try (PdfWriter writer = createWriter(job, output)) {
+            PageTree pages = new PageTree(writer);
+
+            for (int i = 0; i < files.length; i++) {
+                while (submitted < files.length && submitted < i + ahead) {
+                    long budget = pageBudget(job, writer.getBytesWritten() + reserved, files.length - submitted);
+                    File file = files[submitted++];
+                    QualitySearch search = new QualitySearch(budget, hint);
+                    encoding.add(executor.submit(() -> {
+                        EncodedImage image = new EncodedImage();
+                        image.setSize(writeImage(image, job, file, bands, search));
+                        return image;
+                    }));
+                    budgets.add(budget);
+                    reserved += budget;
+                }
+                EncodedImage encoded = await(encoding.remove());
+                reserved -= budgets.remove();
+                if (job.maxPageBytes > 0 && encoded.getLength() + PAGE_OVERHEAD > job.maxPageBytes)
+                    throw new IOException(String.format("%s is %d KB, above the page budget of %d KB",
+                            files[i].getName(), kilobytes(encoded.getLength() + PAGE_OVERHEAD), kilobytes(job.maxPageBytes)));
+
+                int image = writer.reserve();
+                encoded.write(writer, image);
+                writePage(writer, pages, job, encoded.getSize(), image);
+                if (job.maxDocumentBytes > 0 && writer.getBytesWritten() + DOCUMENT_OVERHEAD > job.maxDocumentBytes)
+                    throw new IOException(String.format("The document exceeds its budget of %d KB at page %d of %d",
+                            kilobytes(job.maxDocumentBytes), i + 1, files.length));
+                listener.onAppend(files[i], i + 1, files.length);
+            }
+            finish(writer, pages);
+        } finally {
+            for (Future<EncodedImage> future : encoding) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * A compact document is written with object streams and its streams are deflated on the encoder threads.
+     * The {@link Linearizer} reads cross-reference tables, so linearized documents only get the parallel deflate.
+     */
+    private PdfWriter createWriter(Job job, File output) throws IOException {
+        if (!job.compact)
+            return new PdfWriter(new FileOutputStream(output));
+        int threads = encodingThreads;
+        return new PdfWriter(new FileOutputStream(output), !job.linearize, threads > 1 ? getEncoders() : null, threads);
+    }
+
+    /**
+     * @param used  Bytes written so far and budgets of the pages being encoded.
+     * @param pages Pages not started yet.
+     * @return Budget of the image of the next page.
+     */
+    private static long pageBudget(Job job, long used, int pages) {
+        long budget = Long.MAX_VALUE;
+        if (job.maxDocumentBytes > 0)
+            budget = (job.maxDocumentBytes - used - DOCUMENT_OVERHEAD) / pages - PAGE_OVERHEAD;
+        if (job.maxPageBytes > 0)
+            budget = Math.min(budget, job.maxPageBytes - PAGE_OVERHEAD);
+        return Math.max(budget, 0);
+    }
+
+    private static long kilobytes(long bytes) {
+        return (bytes + 1023) >> 10;
+    }
+
+    private static EncodedImage await(Future<EncodedImage> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while encoding");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    private synchronized ExecutorService getEncoders() {
+        if (encoders == null) {
+            AtomicInteger threadNumber = new AtomicInteger();
+            encoders = Executors.newFixedThreadPool(Math.max(1, encodingThreads), r -> {
+                Thread thread = new Thread(r, "page-encoder-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return encoders;
+    }
+
+    /**
+     * Stops the encoder threads.
+     */
+    public synchronized void shutdown() {
+        if (encoders != null)
+            encoders.shutdownNow();
+        encoders = null;
+    }
+
+    private static boolean supports(ColorType colorType) {
+        return colorType == ColorType.GRAY || colorType == ColorType.sRGB;
+    }
+
+    /**
+     * @return Bytes per pixel of the color type.
+     */
+    private static int bandsOf(Job job) {
+        switch (job.colorType) {
+            case GRAY:
+                return 1;
+            case sRGB:
+                return 3;
+            default:
+                throw new IllegalArgumentException("Unsupported color type: " + job.colorType);
+        }
+    }
+
+    /**
+     * Writes the image of a source file.
+     * <p>
+     * A JPEG file whose components match the color type is embedded as it is, with {@code /DCTDecode}, unless it has
+     * to be reduced or does not fit the budget. In {@link ColorMode#AUTO} it is only if its analysis agrees.
+     * Images above the target resolution are reduced by a {@link Downsampler} while they are decoded. Others are
+     * held in a {@link PixelStore} to be analyzed, searched or written off the heap, or, when too large for that,
+     * decoded and compressed strip by strip by a {@link StripDecoder} in the color type of the job.
+     *
+     * @param search Fits the image into its byte budget as JPEG, null without a budget.
+     * @return The size of the written image.
+     */
+    private Dimension writeImage(ImageTarget target, Job job, File file, int bands, QualitySearch search) throws IOException {
+        ColorMode mode = job.colorMode;
+        boolean auto = mode != ColorMode.FIXED;
+        JpegHeader jpeg = readJpegHeader(file);
+        Dimension size = jpeg != null ? new Dimension(jpeg.width, jpeg.height) : ImageSources.readSize(file);
+        Dimension reduced = size == null ? null : targetSize(job, size.width, size.height, bands);
+
+        boolean passThrough = reduced == null && jpeg != null && jpegPassthrough && mode != ColorMode.BILEVEL
+                && canPassThrough(jpeg, bands, auto) && (search == null || file.length() <= search.getBudget());
+        if (passThrough && auto && isStored(size, bands, true, search != null))
+            passThrough = analyzeSample(file, jpeg) == (jpeg.components == 1 ? ColorAnalysis.Kind.GRAY : ColorAnalysis.Kind.COLOR);
+        if (passThrough) {
+            writeImage(target, file, jpeg);
+            return size;
+        }
+        if (reduced != null) {
+            try (PixelStore source = downsample(file, bands, reduced)) {
+                // Compressing a downsampled photo without loss would make it larger than its source.
+                writeImage(target, source, job, jpeg != null, search);
+            }
+            return reduced;
+        }
+        // Pages are analyzed before they are written to find a palette as well.
+        if (!isStored(size, bands, auto || job.paletteTolerance > 0, search != null)) {
+            if (search != null)
+                throw new IOException(file.getName() + " is too large to fit a size budget, set a target resolution");
+            try (StripDecoder decoder = StripDecoder.open(file, bands, STREAMING_STRIP_BYTES, pool)) {
+                writeImage(target, decoder, mode == ColorMode.BILEVEL);
+                return new Dimension(decoder.getWidth(), decoder.getHeight());
+            }
+        }
+        try (PixelStore source = PixelStore.decode(file, bands, pool)) {
+            // A JPEG file analyzed as gray is written as JPEG again, like a downsampled one.
+            writeImage(target, source, job, auto && jpeg != null, search);
+            return new Dimension(source.getWidth(), source.getHeight());
+        }
+    }
+
+    /**
+     * Analyzes a JPEG file from a decode of it reduced to at most {@link #ANALYSIS_SIDE} pixels a side,
+     * in its own components so that the chroma of a color file is seen whatever the color type of the job.
+     */
+    private ColorAnalysis.Kind analyzeSample(File file, JpegHeader jpeg) throws IOException {
+        double scale = Math.min(1.0, (double) ANALYSIS_SIDE / Math.max(jpeg.width, jpeg.height));
+        Dimension sample = new Dimension(Math.max(1, (int) Math.round(jpeg.width * scale)),
+                Math.max(1, (int) Math.round(jpeg.height * scale)));
+        try (PixelStore source = scale < 1 ? downsample(file, jpeg.components, sample)
+                : PixelStore.decode(file, jpeg.components, pool)) {
+            return ColorAnalysis.of(source).kind;
+        }
+    }
+
+    private static JpegHeader readJpegHeader(File file) {
+        try {
+            return JpegHeader.read(file);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param acceptGray Whether a gray JPEG can be embedded when the bands are RGB.
+     * @return true if the JPEG can be embedded as it is for the given bands.
+     */
+    private static boolean canPassThrough(JpegHeader header, int bands, boolean acceptGray) {
+        return header.precision == 8 && (header.components == bands || (acceptGray && header.components == 1));
+    }
+
+    /**
+     * @return The size the image is reduced to for the target resolution of the job,
+     * or null if it is within {@link #DPI_TOLERANCE} of the target or no target is set.
+     */
+    private static Dimension targetSize(Job job, int width, int height, int bands) {
+        if (job.targetDpi <= 0 || job.pageSize == PageSize.DEPEND_ON_IMG)
+            return null;
+        PageLayout layout = PageLayout.of(job.pageSize, job.pageDirection, job.verticalAlign, job.horizontalAlign,
+                job.autoRotate, width, height);
+        double scale = layout.imageWidth / 72.0 * job.targetDpi / width;
+        if (scale * DPI_TOLERANCE >= 1)
+            return null;
+        int targetWidth = Math.max(1, (int) Math.round(width * scale));
+        int targetHeight = Math.max(1, (int) Math.round(height * scale));
+        if ((long) targetWidth * targetHeight * bands > Integer.MAX_VALUE)
+            return null;
+        return new Dimension(targetWidth, targetHeight);
+    }
+
+    /**
+     * Decodes the image strip by strip and reduces it to the target size on the fly.
+     */
+    private PixelStore downsample(File file, int bands, Dimension target) throws IOException {
+        try (StripDecoder decoder = StripDecoder.open(file, bands, STREAMING_STRIP_BYTES, pool)) {
+            PixelStore store = PixelStore.allocate(target.width, target.height, bands);
+            try {
+                int rowBytes = target.width * bands;
+                int[] y = {0};
+                decoder.decode(new Downsampler(decoder.getWidth(), decoder.getHeight(), target.width, target.height, bands,
+                        (rows, offset, length) -> {
+                            store.writeRows(y[0], rows, offset, length);
+                            y[0] += length / rowBytes;
+                        }));
+                return store;
+            } catch (IOException | RuntimeException e) {
+                store.close();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * @param auto   Whether the image has to be analyzed before it is written, which holds every image that fits.
+     * @param budget Whether the image has to be held whole to search its quality, even above the streaming threshold.
+     * @return true if the image is to be held whole in a {@link PixelStore}, otherwise it is decoded strip by strip.
+     */
+    private boolean isStored(Dimension size, int bands, boolean auto, boolean budget) {
+        long pixels = size == null ? -1 : (long) size.width * size.height;
+        long offHeap = offHeapPixels;
+        long streaming = streamingPixels;
+        if (pixels < 0 || pixels * bands > Integer.MAX_VALUE)
+            return false;
+        if (budget)
+            return true;
+        if (streaming > 0 && pixels >= streaming)
+            return false;
+        return auto || (offHeap > 0 && pixels >= offHeap);
+    }
+
+    private static void writePage(PdfWriter writer, PageTree pages, Job job, Dimension size, int image) throws IOException {
+        PageLayout layout = PageLayout.of(job.pageSize, job.pageDirection, job.verticalAlign, job.horizontalAlign,
+                job.autoRotate, size.width, size.height);
+        pages.addPage(writePage(writer, pages.nextParent(), layout, image));
+        // Every finished page reaches the file before the next one is decoded.
+        writer.flush();
+    }
+
+    private static void finish(PdfWriter writer, PageTree pages) throws IOException {
+        int root = pages.finish();
+        int catalog = writer.reserve();
+        writer.writeObject(catalog, String.format("<< /Type /Catalog /Pages %d 0 R >>", root));
+        writer.finish(catalog);
+    }
+
+    private static int writePage(PdfWriter writer, int parent, PageLayout layout, int image) throws IOException {
+        int content = writer.reserve();
+        writer.writeStream(content, "", layout.drawImage(IMAGE_NAME).getBytes(StandardCharsets.ISO_8859_1), true);
+        int page = writer.reserve();
+        writer.writeObject(page, String.format("<< /Type /Page /Parent %d 0 R /MediaBox %s /Resources << /XObject << /%s %d 0 R >> >> /Contents %d 0 R >>",
+                parent, layout.mediaBox(), IMAGE_NAME, image, content));
+        return page;
+    }
+
+    /**
+     * @param bilevel Whether the rows are thresholded at the middle gray, as they cannot be analyzed before.
+     */
+    private static void writeImage(ImageTarget target, StripDecoder decoder, boolean bilevel) throws IOException {
+        int width = decoder.getWidth();
+        int bands = decoder.getBands();
+        if (!bilevel) {
+            try (OutputStream stream = target.beginStream(imageDictionary(width, decoder.getHeight(), bands, 8), true)) {
+                decoder.decode(stream::write);
+            }
+            return;
+        }
+        byte[] packed = new byte[(width + 7) / 8];
+        try (OutputStream stream = beginBilevelStream(target, width, decoder.getHeight())) {
+            CcittG4Encoder encoder = new CcittG4Encoder(stream, width);
+            decoder.decode((rows, offset, length) -> {
+                for (int row = offset; row < offset + length; row += width * bands) {
+                    toBilevel(rows, row, bands, width, MIDDLE_GRAY, packed, 0);
+                    encoder.encodeRow(packed, 0);
+                }
+            });
+            encoder.finish();
+        }
+    }
+
+    private static void writeImage(ImageTarget target, File jpeg, JpegHeader header) throws IOException {
+        String dictionary = imageDictionary(header.width, header.height, header.components, 8) + " /Filter /DCTDecode";
+        // Three components are YCbCr unless an Adobe marker says otherwise, which readers only honor when declared.
+        if (header.components == 3 && header.adobeTransform == 0)
+            dictionary += " /DecodeParms << /ColorTransform 0 >>";
+        try (OutputStream stream = target.beginStream(dictionary, false)) {
+            Files.copy(jpeg.toPath(), stream);
+        }
+    }
+
+    /**
+     * Writes a decoded image in the color mode of the job. In {@link ColorMode#AUTO} its {@link ColorAnalysis}
+     * chooses between 1-bit, gray and the color type of the job, and {@link ColorMode#BILEVEL} thresholds every page
+     * at the level the analysis finds. Color pages within the palette tolerance of the job are written indexed.
+     *
+     * @param lossy  Whether the image is compressed as JPEG, unless it is written as 1-bit.
+     * @param search Chooses the JPEG quality within the byte budget, which makes the image lossy. May be null.
+     */
+    private static void writeImage(ImageTarget target, PixelSource source, Job job, boolean lossy, QualitySearch search) throws IOException {
+        ColorMode mode = job.colorMode;
+        ColorAnalysis analysis = mode == ColorMode.FIXED ? null : ColorAnalysis.of(source);
+        ColorAnalysis.Kind kind = analysis == null ? ColorAnalysis.Kind.COLOR
+                : mode == ColorMode.BILEVEL ? ColorAnalysis.Kind.BILEVEL : analysis.kind;
+        if (kind == ColorAnalysis.Kind.COLOR && job.paletteTolerance > 0) {
+            Palette palette = Palette.of(source, job.paletteTolerance);
+            if (palette != null) {
+                // Held until every pixel is mapped, the page may still exceed the tolerance of the palette.
+                EncodedImage indexed = new EncodedImage();
+                if (writeImage(indexed, source, palette) && (search == null || indexed.getLength() <= search.getBudget())) {
+                    indexed.writeTo(target);
+                    return;
+                }
+            }
+        }
+        if ((lossy || search != null) && kind != ColorAnalysis.Kind.BILEVEL)
+            writeImage(target, new JpegEncoder(source, kind == ColorAnalysis.Kind.GRAY && source.getBands() == 3), search);
+        else
+            writeImage(target, source, kind, analysis == null ? 0 : analysis.threshold);
+    }
+
+    /**
+     * @param search Finds the highest quality within the budget of the page, null for the default quality.
+     */
+    private static void writeImage(ImageTarget target, JpegEncoder encoder, QualitySearch search) throws IOException {
+        try (OutputStream stream = target.beginStream(
+                imageDictionary(encoder.getWidth(), encoder.getHeight(), encoder.getBands(), 8) + " /Filter /DCTDecode", false)) {
+            if (search == null)
+                encoder.encode(JPEG_QUALITY, stream);
+            else
+                stream.write(search.encode(encoder));
+        }
+    }
+
+    /**
+     * @param kind      {@link ColorAnalysis.Kind#COLOR} to write the image as it is, otherwise the kind to convert it to.
+     * @param threshold Gray level from which a pixel is white, for a bilevel image.
+     */
+    private static void writeImage(ImageTarget target, PixelSource source, ColorAnalysis.Kind kind, int threshold) throws IOException {
+        int width = source.getWidth();
+        int bands = source.getBands();
+        boolean bilevel = kind == ColorAnalysis.Kind.BILEVEL;
+        int outputBands = kind == ColorAnalysis.Kind.COLOR ? bands : 1;
+        int rowBytes = width * bands;
+        int outputRowBytes = bilevel ? (width + 7) / 8 : width * outputBands;
+        int stripRows = Math.max(1, STRIP_BYTES / rowBytes);
+        byte[] strip = new byte[stripRows * rowBytes];
+        byte[] output = outputBands == bands && !bilevel ? strip : new byte[stripRows * outputRowBytes];
+        try (OutputStream stream = bilevel ? beginBilevelStream(target, width, source.getHeight())
+                : target.beginStream(imageDictionary(width, source.getHeight(), outputBands, 8), true)) {
+            CcittG4Encoder encoder = bilevel ? new CcittG4Encoder(stream, width) : null;
+            for (int y = 0; y < source.getHeight(); y += stripRows) {
+                int rows = Math.min(stripRows, source.getHeight() - y);
+                source.readRows(y, rows, strip);
+                for (int row = 0; row < rows && output != strip; row++) {
+                    if (bilevel) {
+                        toBilevel(strip, row * rowBytes, bands, width, threshold, output, row * outputRowBytes);
+                        encoder.encodeRow(output, row * outputRowBytes);
+                    } else {
+                        ColorAnalysis.toGray(strip, row * rowBytes, width, output, row * outputRowBytes);
+                    }
+                }
+                if (!bilevel)
+                    stream.write(output, 0, rows * outputRowBytes);
+            }
+            if (bilevel)
+                encoder.finish();
+        }
+    }
+
+    /**
+     * Writes the image with an {@code /Indexed} color space of the {@link Palette}, 1 to 8 bits per pixel instead of 24.
+     *
+     * @return false if the pixels exceed the tolerance of the palette, which leaves the image incomplete.
+     */
+    private static boolean writeImage(ImageTarget target, PixelSource source, Palette palette) throws IOException {
+        int width = source.getWidth();
+        int rowBytes = width * 3;
+        int indexRowBytes = (width * palette.getBits() + 7) / 8;
+        int stripRows = Math.max(1, STRIP_BYTES / rowBytes);
+        byte[] strip = new byte[stripRows * rowBytes];
+        byte[] indices = new byte[stripRows * indexRowBytes];
+        StringBuilder lookup = new StringBuilder();
+        for (byte component : palette.getColors()) {
+            lookup.append(String.format("%02X", component & 0xff));
+        }
+        String dictionary = String.format("/Type /XObject /Subtype /Image /Width %d /Height %d "
+                        + "/ColorSpace [/Indexed /DeviceRGB %d <%s>] /BitsPerComponent %d",
+                width, source.getHeight(), palette.size() - 1, lookup, palette.getBits());
+        try (OutputStream stream = target.beginStream(dictionary, true)) {
+            for (int y = 0; y < source.getHeight(); y += stripRows) {
+                int rows = Math.min(stripRows, source.getHeight() - y);
+                source.readRows(y, rows, strip);
+                for (int row = 0; row < rows; row++) {
+                    palette.toIndices(strip, row * rowBytes, width, indices, row * indexRowBytes);
+                }
+                if (palette.isExceeded((long) width * source.getHeight()))
+                    return false;
+                stream.write(indices, 0, rows * indexRowBytes);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 1-bit images are compressed with CCITT Group 4, which is several times smaller than deflate for scanned text.
+     */
+    private static OutputStream beginBilevelStream(ImageTarget target, int width, int height) throws IOException {
+        return target.beginStream(imageDictionary(width, height, 1, 1)
+                + String.format(" /Filter /CCITTFaxDecode /DecodeParms << /K -1 /Columns %d /Rows %d >>", width, height), false);
+    }
+
+    /**
+     * Packs a row into bits, most significant first, 1 for the pixels at or above the threshold, which are white.
+     */
+    private static void toBilevel(byte[] pixels, int offset, int bands, int width, int threshold, byte[] bits, int bitsOffset) {
+        int packed = 0;
+        for (int x = 0, i = offset; x < width; x++, i += bands) {
+            int level = bands == 1 ? pixels[i] & 0xff : ColorAnalysis.luma(pixels[i] & 0xff, pixels[i + 1] & 0xff, pixels[i + 2] & 0xff);
+            packed = packed << 1 | (level >= threshold ? 1 : 0);
+            if ((x & 7) == 7) {
+                bits[bitsOffset + (x >> 3)] = (byte) packed;
+                packed = 0;
+            }
+        }
+        int remainder = width & 7;
+        if (remainder != 0)
+            bits[bitsOffset + (width >> 3)] = (byte) (packed << (8 - remainder));
+    }
+
+    private static String imageDictionary(int width, int height, int bands, int bitsPerComponent) {
+        return String.format("/Type /XObject /Subtype /Image /Width %d /Height %d /ColorSpace %s /BitsPerComponent %d",
+                width, height, bands == 1 ? "/DeviceGray" : "/DeviceRGB", bitsPerComponent);
+    }
+}
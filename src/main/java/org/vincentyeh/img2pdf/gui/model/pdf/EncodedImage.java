@@ -0,0 +1,64 @@
+package org.vincentyeh.img2pdf.gui.model.pdf;
+
+import java.awt.Dimension;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Image stream encoded in memory, away from the writer, to be written later with {@link #write}.
+ */
+class EncodedImage implements ImageTarget {
+    private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+    private String dictionary;
+    private Dimension size;
+
+    @Override
+    public OutputStream beginStream(String dictionary, boolean deflate) {
+        if (this.dictionary != null)
+            throw new IllegalStateException("stream already begun");
+        if (!deflate) {
+            this.dictionary = dictionary;
+            return data;
+        }
+        this.dictionary = dictionary + " /Filter /FlateDecode";
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        return new DeflaterOutputStream(data, deflater, 1 << 16) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    deflater.end();
+                }
+            }
+        };
+    }
+
+    /**
+     * @return Size of the encoded image in pixels.
+     */
+    Dimension getSize() {
+        return size;
+    }
+
+    void setSize(Dimension size) {
+        this.size = size;
+    }
+
+    int getLength() {
+        return data.size();
+    }
+
+    void write(PdfWriter writer, int number) throws IOException {
+        writeTo(ImageTarget.of(writer, number));
+    }
+
+    void writeTo(ImageTarget target) throws IOException {
+        try (OutputStream stream = target.beginStream(dictionary, false)) {
+            data.writeTo(stream);
+        }
+    }
+}
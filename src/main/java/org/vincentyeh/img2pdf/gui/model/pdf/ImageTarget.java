@@ -0,0 +1,18 @@
+package org.vincentyeh.img2pdf.gui.model.pdf;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Destination of the stream of one image XObject: the PDF itself, or memory for an image encoded ahead.
+ */
+interface ImageTarget {
+    /**
+     * @see PdfWriter#beginStream
+     */
+    OutputStream beginStream(String dictionary, boolean deflate) throws IOException;
+
+    static ImageTarget of(PdfWriter writer, int number) {
+        return (dictionary, deflate) -> writer.beginStream(number, dictionary, deflate);
+    }
+}
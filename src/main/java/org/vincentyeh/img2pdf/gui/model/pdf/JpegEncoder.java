@@ -0,0 +1,90 @@
+package org.vincentyeh.img2pdf.gui.model.pdf;
+
+import org.vincentyeh.img2pdf.gui.model.image.ColorAnalysis;
+import org.vincentyeh.img2pdf.gui.model.image.PixelSource;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+
+/**
+ * Compresses decoded pixels as baseline JPEG, for {@code /DCTDecode} image streams.
+ * <p>
+ * The pixels are copied onto the heap, which is meant for pages already reduced to their printed size.
+ */
+class JpegEncoder {
+    private final BufferedImage image;
+
+    /**
+     * @param gray Whether RGB pixels are converted to gray.
+     */
+    JpegEncoder(PixelSource source, boolean gray) throws IOException {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int bands = gray ? 1 : source.getBands();
+        byte[] pixels = new byte[width * height * bands];
+        if (bands == source.getBands()) {
+            source.readRows(0, height, pixels);
+        } else {
+            byte[] row = new byte[width * source.getBands()];
+            for (int y = 0; y < height; y++) {
+                source.readRows(y, 1, row);
+                ColorAnalysis.toGray(row, 0, width, pixels, y * width);
+            }
+        }
+        int[] offsets = bands == 1 ? new int[]{0} : new int[]{0, 1, 2};
+        WritableRaster raster = Raster.createWritableRaster(
+                new PixelInterleavedSampleModel(DataBuffer.TYPE_BYTE, width, height, bands, width * bands, offsets),
+                new DataBufferByte(pixels, pixels.length), null);
+        ColorModel colorModel = new ComponentColorModel(ColorSpace.getInstance(bands == 1 ? ColorSpace.CS_GRAY : ColorSpace.CS_sRGB),
+                false, false, Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+        this.image = new BufferedImage(colorModel, raster, false, null);
+    }
+
+    int getWidth() {
+        return image.getWidth();
+    }
+
+    int getHeight() {
+        return image.getHeight();
+    }
+
+    int getBands() {
+        return image.getRaster().getNumBands();
+    }
+
+    /**
+     * @param quality From 0 to 1, as {@link ImageWriteParam#setCompressionQuality}.
+     */
+    void encode(float quality, OutputStream out) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+        if (!writers.hasNext())
+            throw new IOException("No JPEG writer");
+        ImageWriter writer = writers.next();
+        try (ImageOutputStream stream = new MemoryCacheImageOutputStream(out)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+}
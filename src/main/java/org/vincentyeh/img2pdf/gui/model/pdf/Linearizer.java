@@ -0,0 +1,504 @@
+package org.vincentyeh.img2pdf.gui.model.pdf;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Rewrites a document written by {@link PdfWriter} as a linearized PDF, whose first page a viewer can show
+ * before the rest of the file has arrived.
+ * <p>
+ * The objects are reordered as Annex F of the PDF specification requires: the linearization dictionary and the
+ * cross-reference table of the first page, the catalog, the hint stream, the objects of the first page, the objects
+ * of every other page in order, the page tree, and the main cross-reference table. Objects are renumbered so that
+ * the first-page section comes last. Only object headers and dictionaries are rewritten, stream data is copied.
+ * <p>
+ * Objects reached from more than one page belong to the first of them; the documents written here share none.
+ * Positions and sizes are kept in arrays and dictionaries are read again when they are written,
+ * so the memory does not grow with the size of the content.
+ */
+class Linearizer {
+    private static final Pattern REFERENCE = Pattern.compile("(\\d+) 0 R");
+    private static final Pattern PARENT = Pattern.compile("/Parent \\d+ 0 R");
+    private static final Pattern PAGES = Pattern.compile("/Type\\s*/Pages\\b");
+    private static final Pattern HEADER = Pattern.compile("^\\d+ 0 obj");
+    private static final byte[] STREAM = "stream\n".getBytes(StandardCharsets.ISO_8859_1);
+    private static final int XREF_ENTRY = 20;
+    private static final int COPY_BUFFER = 1 << 16;
+
+    private final FileChannel source;
+    private final int size;
+    private final long[] offsets;
+    private final long[] ends;
+    private final int[] headLengths;
+    private long bodyStart;
+    private int root;
+
+    private Linearizer(FileChannel source, int size) {
+        this.source = source;
+        this.size = size;
+        this.offsets = new long[size];
+        this.ends = new long[size];
+        this.headLengths = new int[size];
+    }
+
+    /**
+     * Writes the linearized copy of a document to the destination.
+     */
+    static void linearize(File document, File destination) throws IOException {
+        try (FileChannel source = FileChannel.open(document.toPath(), StandardOpenOption.READ);
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(destination), COPY_BUFFER)) {
+            readCrossReference(source).write(out);
+        }
+    }
+
+    private static Linearizer readCrossReference(FileChannel source) throws IOException {
+        long length = source.size();
+        String tail = read(source, Math.max(0, length - 1024), (int) Math.min(1024, length));
+        Matcher startxref = Pattern.compile("startxref\\s+(\\d+)\\s+%%EOF\\s*$").matcher(tail);
+        if (!startxref.find())
+            throw new IOException("no startxref");
+        long xref = Long.parseLong(startxref.group(1));
+        String section = read(source, xref, 64);
+        Matcher subsection = Pattern.compile("^xref\\s+0 (\\d+)\\s*\n").matcher(section);
+        if (!subsection.find())
+            throw new IOException("not a cross-reference table written by PdfWriter");
+
+        Linearizer linearizer = new Linearizer(source, Integer.parseInt(subsection.group(1)));
+        long entries = xref + subsection.end();
+        ByteBuffer buffer = ByteBuffer.allocate(XREF_ENTRY * 4096);
+        for (int number = 0; number < linearizer.size; number += 4096) {
+            int count = Math.min(4096, linearizer.size - number);
+            buffer.clear().limit(count * XREF_ENTRY);
+            readFully(source, buffer, entries + (long) number * XREF_ENTRY);
+            for (int i = 0; i < count; i++) {
+                if (number + i > 0)
+                    linearizer.offsets[number + i] = Long.parseLong(new String(buffer.array(), i * XREF_ENTRY, 10, StandardCharsets.ISO_8859_1));
+            }
+        }
+        String trailer = read(source, entries + (long) linearizer.size * XREF_ENTRY, (int) Math.min(256, length - entries - (long) linearizer.size * XREF_ENTRY));
+        Matcher root = Pattern.compile("/Root (\\d+) 0 R").matcher(trailer);
+        if (!root.find())
+            throw new IOException("no /Root");
+        linearizer.root = Integer.parseInt(root.group(1));
+
+        // Objects are contiguous, each ends where the next one starts.
+        long[] sorted = Arrays.copyOfRange(linearizer.offsets, 1, linearizer.size);
+        Arrays.sort(sorted);
+        linearizer.bodyStart = sorted.length == 0 ? xref : sorted[0];
+        for (int number = 1; number < linearizer.size; number++) {
+            int next = Arrays.binarySearch(sorted, linearizer.offsets[number]) + 1;
+            linearizer.ends[number] = next < sorted.length ? sorted[next] : xref;
+        }
+        return linearizer;
+    }
+
+    private void write(OutputStream out) throws IOException {
+        // Pages and page tree nodes in document order.
+        IntList pages = new IntList();
+        IntList nodes = new IntList();
+        Matcher pagesEntry = Pattern.compile("/Pages (\\d+) 0 R").matcher(head(root));
+        if (!pagesEntry.find())
+            throw new IOException("no /Pages");
+        collectPages(Integer.parseInt(pagesEntry.group(1)), pages, nodes);
+        if (pages.size == 0)
+            throw new IOException("no pages");
+
+        // Objects of each page, the page first.
+        int[] owner = new int[size];
+        Arrays.fill(owner, -1);
+        owner[root] = Integer.MAX_VALUE;
+        for (int i = 0; i < nodes.size; i++)
+            owner[nodes.get(i)] = Integer.MAX_VALUE;
+        for (int i = 0; i < pages.size; i++)
+            owner[pages.get(i)] = i;
+        IntList[] pageObjects = new IntList[pages.size];
+        for (int i = 0; i < pages.size; i++) {
+            pageObjects[i] = new IntList();
+            pageObjects[i].add(pages.get(i));
+            Deque<Integer> queue = new ArrayDeque<>();
+            queue.add(pages.get(i));
+            while (!queue.isEmpty()) {
+                for (int reference : references(head(queue.remove()))) {
+                    if (reference > 0 && reference < size && owner[reference] == -1) {
+                        owner[reference] = i;
+                        pageObjects[i].add(reference);
+                        queue.add(reference);
+                    }
+                }
+            }
+        }
+        IntList others = new IntList();
+        for (int i = 0; i < nodes.size; i++)
+            others.add(nodes.get(i));
+        for (int number = 1; number < size; number++) {
+            if (owner[number] == -1)
+                others.add(number);
+        }
+
+        // The main section holds the other pages and the rest, the first-page section comes after it.
+        int[] renumbered = new int[size];
+        int next = 1;
+        for (int i = 1; i < pages.size; i++)
+            for (int j = 0; j < pageObjects[i].size; j++)
+                renumbered[pageObjects[i].get(j)] = next++;
+        for (int i = 0; i < others.size; i++)
+            renumbered[others.get(i)] = next++;
+        int mainSize = next;
+        int linearization = next++;
+        renumbered[root] = next++;
+        int hint = next++;
+        IntList first = pageObjects[0];
+        for (int i = 0; i < first.size; i++)
+            renumbered[first.get(i)] = next++;
+        int total = next;
+        int firstSectionSize = total - mainSize;
+
+        // Layout as if there were no hint stream, which is how the hint tables count.
+        long[] lengths = new long[size];
+        for (int number = 1; number < size; number++)
+            lengths[number] = rewrittenHead(number, renumbered).length + ends[number] - offsets[number] - headLengths[number];
+        long header = bodyStart;
+        long linearizationLength = linearizationDictionary(linearization, 0, 0, 0, 0, 0, 0, 0).length;
+        long firstXrefOffset = header + linearizationLength;
+        long firstXrefLength = firstCrossReferenceHead(mainSize, firstSectionSize).length
+                + (long) firstSectionSize * XREF_ENTRY + firstTrailer(total, 0, 0).length;
+        long catalogOffset = firstXrefOffset + firstXrefLength;
+        long position = catalogOffset + lengths[root];
+        long hintOffset = position;
+
+        long[] positions = new long[size];
+        long[] pageStarts = new long[pages.size];
+        long[] pageLengths = new long[pages.size];
+        for (int i = 0; i < pages.size; i++) {
+            pageStarts[i] = position;
+            for (int j = 0; j < pageObjects[i].size; j++) {
+                int number = pageObjects[i].get(j);
+                positions[number] = position;
+                position += lengths[number];
+            }
+            pageLengths[i] = position - pageStarts[i];
+        }
+        for (int i = 0; i < others.size; i++) {
+            positions[others.get(i)] = position;
+            position += lengths[others.get(i)];
+        }
+
+        byte[] hintStream = hintStream(hint, pageObjects, pageStarts, pageLengths, lengths);
+        long shift = hintStream.length;
+        long firstPageEnd = pageStarts[0] + pageLengths[0] + shift;
+        long mainXrefOffset = position + shift;
+        byte[] mainHead = String.format("xref\n0 %d\n", mainSize).getBytes(StandardCharsets.ISO_8859_1);
+        byte[] mainTrailer = String.format("trailer\n<< /Size %d >>\nstartxref\n%d\n%%%%EOF\n", mainSize, firstXrefOffset)
+                .getBytes(StandardCharsets.ISO_8859_1);
+        long fileLength = mainXrefOffset + mainHead.length + (long) mainSize * XREF_ENTRY + mainTrailer.length;
+
+        // Header, linearization dictionary and the cross-reference section of the first page.
+        copy(out, 0, header);
+        out.write(linearizationDictionary(linearization, fileLength, hintOffset, shift, renumbered[pages.get(0)],
+                firstPageEnd, pages.size, mainXrefOffset + mainHead.length));
+        out.write(firstCrossReferenceHead(mainSize, firstSectionSize));
+        StringBuilder entries = new StringBuilder();
+        appendEntry(entries, header);
+        appendEntry(entries, catalogOffset);
+        appendEntry(entries, hintOffset);
+        for (int i = 0; i < first.size; i++)
+            appendEntry(entries, positions[first.get(i)] + shift);
+        out.write(entries.toString().getBytes(StandardCharsets.ISO_8859_1));
+        out.write(firstTrailer(total, renumbered[root], mainXrefOffset));
+
+        writeObject(out, root, renumbered);
+        out.write(hintStream);
+        for (int i = 0; i < pages.size; i++)
+            for (int j = 0; j < pageObjects[i].size; j++)
+                writeObject(out, pageObjects[i].get(j), renumbered);
+        for (int i = 0; i < others.size; i++)
+            writeObject(out, others.get(i), renumbered);
+
+        // The main cross-reference section, in the order of the new numbers.
+        out.write(mainHead);
+        long[] byNumber = new long[mainSize];
+        for (int number = 1; number < size; number++) {
+            if (renumbered[number] < mainSize)
+                byNumber[renumbered[number]] = positions[number] + shift;
+        }
+        entries.setLength(0);
+        entries.append("0000000000 65535 f \n");
+        for (int number = 1; number < mainSize; number++) {
+            appendEntry(entries, byNumber[number]);
+            if (entries.length() >= COPY_BUFFER) {
+                out.write(entries.toString().getBytes(StandardCharsets.ISO_8859_1));
+                entries.setLength(0);
+            }
+        }
+        out.write(entries.toString().getBytes(StandardCharsets.ISO_8859_1));
+        out.write(mainTrailer);
+    }
+
+    private void collectPages(int node, IntList pages, IntList nodes) throws IOException {
+        String head = head(node);
+        if (!PAGES.matcher(head).find()) {
+            pages.add(node);
+            return;
+        }
+        nodes.add(node);
+        for (int kid : references(head)) {
+            collectPages(kid, pages, nodes);
+        }
+    }
+
+    /**
+     * Hint stream with the page offset and shared object hint tables. There are no shared objects,
+     * so the shared object table only lists the objects of the first page, one group each.
+     */
+    private byte[] hintStream(int number, IntList[] pageObjects, long[] pageStarts, long[] pageLengths, long[] lengths) {
+        int pages = pageObjects.length;
+        int leastObjects = Integer.MAX_VALUE;
+        int mostObjects = 0;
+        long leastLength = Long.MAX_VALUE;
+        long mostLength = 0;
+        for (int i = 0; i < pages; i++) {
+            leastObjects = Math.min(leastObjects, pageObjects[i].size);
+            mostObjects = Math.max(mostObjects, pageObjects[i].size);
+            leastLength = Math.min(leastLength, pageLengths[i]);
+            mostLength = Math.max(mostLength, pageLengths[i]);
+        }
+        int objectBits = bits(mostObjects - leastObjects);
+        int lengthBits = bits(mostLength - leastLength);
+        IntList first = pageObjects[0];
+
+        BitWriter table = new BitWriter();
+        table.write(leastObjects, 32);
+        table.write(pageStarts[0], 32);
+        table.write(objectBits, 16);
+        table.write(leastLength, 32);
+        table.write(lengthBits, 16);
+        // The content stream of a page is counted as the whole page, as Acrobat does.
+        table.write(0, 32);
+        table.write(0, 16);
+        table.write(leastLength, 32);
+        table.write(lengthBits, 16);
+        table.write(0, 16);
+        table.write(bits(first.size), 16);
+        table.write(0, 16);
+        table.write(1, 16);
+        for (int i = 0; i < pages; i++)
+            table.write(pageObjects[i].size - leastObjects, objectBits);
+        table.pad();
+        for (int i = 0; i < pages; i++)
+            table.write(pageLengths[i] - leastLength, lengthBits);
+        table.pad();
+        // Shared object references and content stream offsets take no bits.
+        for (int i = 0; i < pages; i++)
+            table.write(pageLengths[i] - leastLength, lengthBits);
+        table.pad();
+
+        int sharedTable = table.size();
+        long leastGroup = Long.MAX_VALUE;
+        long mostGroup = 0;
+        for (int i = 0; i < first.size; i++) {
+            leastGroup = Math.min(leastGroup, lengths[first.get(i)]);
+            mostGroup = Math.max(mostGroup, lengths[first.get(i)]);
+        }
+        int groupBits = bits(mostGroup - leastGroup);
+        table.write(0, 32);
+        table.write(0, 32);
+        table.write(first.size, 32);
+        table.write(first.size, 32);
+        table.write(0, 16);
+        table.write(leastGroup, 32);
+        table.write(groupBits, 16);
+        for (int i = 0; i < first.size; i++)
+            table.write(lengths[first.get(i)] - leastGroup, groupBits);
+        table.pad();
+        for (int i = 0; i < first.size; i++)
+            table.write(0, 1);
+        table.pad();
+
+        byte[] data = table.toByteArray();
+        byte[] head = String.format("%d 0 obj\n<< /S %d /Length %d >>\nstream\n", number, sharedTable, data.length)
+                .getBytes(StandardCharsets.ISO_8859_1);
+        byte[] end = "\nendstream\nendobj\n".getBytes(StandardCharsets.ISO_8859_1);
+        byte[] object = Arrays.copyOf(head, head.length + data.length + end.length);
+        System.arraycopy(data, 0, object, head.length, data.length);
+        System.arraycopy(end, 0, object, head.length + data.length, end.length);
+        return object;
+    }
+
+    /**
+     * The values are padded to a fixed width, so the dictionary can be measured before they are known.
+     */
+    private static byte[] linearizationDictionary(int number, long length, long hintOffset, long hintLength, int firstPage,
+                                                  long firstPageEnd, int pages, long mainEntries) {
+        return String.format("%d 0 obj\n<< /Linearized 1 /L %10d /H [ %10d %10d ] /O %10d /E %10d /N %10d /T %10d >>\nendobj\n",
+                number, length, hintOffset, hintLength, firstPage, firstPageEnd, pages, mainEntries).getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] firstCrossReferenceHead(int start, int count) {
+        return String.format("xref\n%d %d\n", start, count).getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] firstTrailer(int size, int root, long mainXrefOffset) {
+        return String.format("trailer\n<< /Size %d /Root %10d 0 R /Prev %10d >>\nstartxref\n0\n%%%%EOF\n", size, root, mainXrefOffset)
+                .getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static void appendEntry(StringBuilder entries, long offset) {
+        entries.append(String.format("%010d 00000 n \n", offset));
+    }
+
+    private void writeObject(OutputStream out, int number, int[] renumbered) throws IOException {
+        out.write(rewrittenHead(number, renumbered));
+        copy(out, offsets[number] + headLengths[number], ends[number]);
+    }
+
+    /**
+     * @return The header and dictionary of an object, through the {@code stream} keyword, with new numbers.
+     */
+    private byte[] rewrittenHead(int number, int[] renumbered) throws IOException {
+        String head = HEADER.matcher(head(number)).replaceFirst(renumbered[number] + " 0 obj");
+        Matcher matcher = REFERENCE.matcher(head);
+        StringBuffer rewritten = new StringBuffer();
+        while (matcher.find()) {
+            int reference = Integer.parseInt(matcher.group(1));
+            if (reference <= 0 || reference >= size)
+                throw new IOException("object " + number + " refers to missing object " + reference);
+            matcher.appendReplacement(rewritten, renumbered[reference] + " 0 R");
+        }
+        matcher.appendTail(rewritten);
+        return rewritten.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * @return An object through the {@code stream} keyword, or whole if it is not a stream.
+     */
+    private String head(int number) throws IOException {
+        long length = ends[number] - offsets[number];
+        int read = (int) Math.min(length, 1024);
+        while (true) {
+            ByteBuffer buffer = ByteBuffer.allocate(read);
+            readFully(source, buffer, offsets[number]);
+            int stream = indexOf(buffer.array(), STREAM);
+            if (stream >= 0 || read == length) {
+                int headLength = stream >= 0 ? stream + STREAM.length : read;
+                headLengths[number] = headLength;
+                return new String(buffer.array(), 0, headLength, StandardCharsets.ISO_8859_1);
+            }
+            read = (int) Math.min(length, (long) read * 4);
+        }
+    }
+
+    private static int[] references(String head) {
+        Matcher matcher = REFERENCE.matcher(PARENT.matcher(head).replaceAll(""));
+        IntList references = new IntList();
+        while (matcher.find())
+            references.add(Integer.parseInt(matcher.group(1)));
+        return Arrays.copyOf(references.values, references.size);
+    }
+
+    private void copy(OutputStream out, long from, long to) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER);
+        for (long position = from; position < to; ) {
+            buffer.clear().limit((int) Math.min(COPY_BUFFER, to - position));
+            readFully(source, buffer, position);
+            out.write(buffer.array(), 0, buffer.position());
+            position += buffer.position();
+        }
+    }
+
+    private static String read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) > 0) ;
+        return new String(buffer.array(), 0, buffer.position(), StandardCharsets.ISO_8859_1);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long start = position - buffer.position();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) < 0)
+                throw new IOException("unexpected end of file");
+        }
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern) {
+        outer:
+        for (int i = 0; i + pattern.length <= data.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j])
+                    continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return Bits needed to write values from 0 to {@code value}.
+     */
+    private static int bits(long value) {
+        return 64 - Long.numberOfLeadingZeros(value);
+    }
+
+    private static class IntList {
+        private int[] values = new int[16];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        int get(int index) {
+            return values[index];
+        }
+    }
+
+    /**
+     * Packs values most significant bit first, as the hint tables are.
+     */
+    private static class BitWriter {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private int current;
+        private int used;
+
+        void write(long value, int bits) {
+            for (int bit = bits - 1; bit >= 0; bit--) {
+                current = current << 1 | (int) (value >>> bit & 1);
+                if (++used == 8) {
+                    bytes.write(current);
+                    current = 0;
+                    used = 0;
+                }
+            }
+        }
+
+        /**
+         * Fills the last byte with zeros, each item of the tables starts on a byte boundary.
+         */
+        void pad() {
+            if (used > 0)
+                write(0, 8 - used);
+        }
+
+        int size() {
+            return bytes.size();
+        }
+
+        byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+    }
+}
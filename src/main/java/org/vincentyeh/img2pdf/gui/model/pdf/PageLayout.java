@@ -0,0 +1,90 @@
+package org.vincentyeh.img2pdf.gui.model.pdf;
+
+import org.vincentyeh.img2pdf.lib.pdf.parameter.PageAlign;
+import org.vincentyeh.img2pdf.lib.pdf.parameter.PageDirection;
+import org.vincentyeh.img2pdf.lib.pdf.parameter.PageSize;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Size of a page and position of its image, in points, following the page settings of the conversion library:
+ * the image is scaled to fit the page, keeping its aspect ratio, and aligned as requested.
+ * With {@link PageSize#DEPEND_ON_IMG} the page takes the size of the image, one point per pixel.
+ */
+public class PageLayout {
+    private static final Map<String, float[]> SIZES = new HashMap<>();
+
+    static {
+        // Portrait width and height in points.
+        SIZES.put("A0", new float[]{2383.94f, 3370.39f});
+        SIZES.put("A1", new float[]{1683.78f, 2383.94f});
+        SIZES.put("A2", new float[]{1190.55f, 1683.78f});
+        SIZES.put("A3", new float[]{841.89f, 1190.55f});
+        SIZES.put("A4", new float[]{595.28f, 841.89f});
+        SIZES.put("A5", new float[]{419.53f, 595.28f});
+        SIZES.put("A6", new float[]{297.64f, 419.53f});
+        SIZES.put("LETTER", new float[]{612f, 792f});
+        SIZES.put("LEGAL", new float[]{612f, 1008f});
+    }
+
+    public final float pageWidth;
+    public final float pageHeight;
+    public final float imageX;
+    public final float imageY;
+    public final float imageWidth;
+    public final float imageHeight;
+
+    private PageLayout(float pageWidth, float pageHeight, float imageX, float imageY, float imageWidth, float imageHeight) {
+        this.pageWidth = pageWidth;
+        this.pageHeight = pageHeight;
+        this.imageX = imageX;
+        this.imageY = imageY;
+        this.imageWidth = imageWidth;
+        this.imageHeight = imageHeight;
+    }
+
+    /**
+     * @return true if the size is known to this layout, otherwise only the conversion library can lay it out.
+     */
+    public static boolean supports(PageSize size) {
+        return size == PageSize.DEPEND_ON_IMG || SIZES.containsKey(size.name());
+    }
+
+    public static PageLayout of(PageSize size, PageDirection direction,
+                                PageAlign.VerticalAlign verticalAlign, PageAlign.HorizontalAlign horizontalAlign,
+                                boolean autoRotate, int imageWidth, int imageHeight) {
+        if (size == PageSize.DEPEND_ON_IMG)
+            return new PageLayout(imageWidth, imageHeight, 0, 0, imageWidth, imageHeight);
+
+        float[] portrait = SIZES.get(size.name());
+        if (portrait == null)
+            throw new IllegalArgumentException("Unsupported page size: " + size);
+        boolean landscape = autoRotate ? imageWidth > imageHeight : direction != null && direction.name().equalsIgnoreCase("Landscape");
+        float pageWidth = landscape ? portrait[1] : portrait[0];
+        float pageHeight = landscape ? portrait[0] : portrait[1];
+
+        float scale = Math.min(pageWidth / imageWidth, pageHeight / imageHeight);
+        float width = imageWidth * scale;
+        float height = imageHeight * scale;
+
+        // Compared by name, the library has more constants than the ones referenced here.
+        String horizontal = horizontalAlign == null ? "CENTER" : horizontalAlign.name();
+        String vertical = verticalAlign == null ? "CENTER" : verticalAlign.name();
+        float x = horizontal.equals("LEFT") ? 0 : horizontal.equals("RIGHT") ? pageWidth - width : (pageWidth - width) / 2;
+        float y = vertical.equals("BOTTOM") ? 0 : vertical.equals("TOP") ? pageHeight - height : (pageHeight - height) / 2;
+        return new PageLayout(pageWidth, pageHeight, x, y, width, height);
+    }
+
+    /**
+     * @return The content stream drawing the image resource {@code name} at its place on the page.
+     */
+    public String drawImage(String name) {
+        return String.format(Locale.ROOT, "q %.4f 0 0 %.4f %.4f %.4f cm /%s Do Q\n", imageWidth, imageHeight, imageX, imageY, name);
+    }
+
+    public String mediaBox() {
+        return String.format(Locale.ROOT, "[0 0 %.4f %.4f]", pageWidth, pageHeight);
+    }
+}
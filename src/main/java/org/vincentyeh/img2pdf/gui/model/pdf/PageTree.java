@@ -0,0 +1,101 @@
+package org.vincentyeh.img2pdf.gui.model.pdf;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Balanced page tree, written node by node while the pages are added.
+ * <p>
+ * A node is written as soon as it has {@link #FAN_OUT} kids, so only one open node per level is kept
+ * and the memory of the tree grows with the logarithm of the page count.
+ */
+class PageTree {
+    private static final int FAN_OUT = 32;
+
+    private final PdfWriter writer;
+    private final List<Node> levels = new ArrayList<>();
+
+    PageTree(PdfWriter writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * @return The number of the node the next page belongs to, to be written as its {@code /Parent}.
+     */
+    int nextParent() {
+        return open(0).number;
+    }
+
+    /**
+     * Adds a page whose {@code /Parent} is the last value of {@link #nextParent}.
+     */
+    void addPage(int page) throws IOException {
+        add(0, page, 1);
+    }
+
+    /**
+     * Writes the open nodes.
+     *
+     * @return The number of the root node.
+     */
+    int finish() throws IOException {
+        if (levels.isEmpty()) {
+            int root = writer.reserve();
+            writer.writeObject(root, "<< /Type /Pages /Kids [] /Count 0 >>");
+            return root;
+        }
+        for (int level = 0; ; level++) {
+            Node node = levels.get(level);
+            if (level == levels.size() - 1) {
+                write(node, 0);
+                return node.number;
+            }
+            if (node.size > 0)
+                close(level);
+        }
+    }
+
+    private Node open(int level) {
+        while (levels.size() <= level)
+            levels.add(new Node());
+        Node node = levels.get(level);
+        if (node.number == 0)
+            node.number = writer.reserve();
+        return node;
+    }
+
+    private void add(int level, int kid, long count) throws IOException {
+        Node node = open(level);
+        node.kids[node.size++] = kid;
+        node.count += count;
+        if (node.size == FAN_OUT)
+            close(level);
+    }
+
+    private void close(int level) throws IOException {
+        Node node = levels.get(level);
+        int parent = open(level + 1).number;
+        write(node, parent);
+        levels.set(level, new Node());
+        add(level + 1, node.number, node.count);
+    }
+
+    private void write(Node node, int parent) throws IOException {
+        StringBuilder body = new StringBuilder("<< /Type /Pages");
+        if (parent != 0)
+            body.append(" /Parent ").append(parent).append(" 0 R");
+        body.append(" /Kids [");
+        for (int i = 0; i < node.size; i++)
+            body.append(node.kids[i]).append(" 0 R ");
+        body.append("] /Count ").append(node.count).append(" >>");
+        writer.writeObject(node.number, body.toString());
+    }
+
+    private static class Node {
+        private int number;
+        private final int[] kids = new int[FAN_OUT];
+        private int size;
+        private long count;
+    }
+}
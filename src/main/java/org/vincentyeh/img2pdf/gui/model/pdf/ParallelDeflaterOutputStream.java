@@ -0,0 +1,157 @@
+package org.vincentyeh.img2pdf.gui.model.pdf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a zlib stream whose blocks are deflated on several threads, like pigz.
+ * <p>
+ * Each block of {@link #BLOCK_SIZE} bytes is deflated on its own, primed with the last 32 KB of the block before
+ * it, and ends with a sync flush on a byte boundary, so the blocks joined in order form a single deflate stream.
+ * It is slightly larger than the output of one deflater. At most a few blocks per thread are in flight,
+ * and a stream of a single block is deflated by the calling thread.
+ */
+class ParallelDeflaterOutputStream extends OutputStream {
+    static final int BLOCK_SIZE = 1 << 20;
+    private static final int DICTIONARY_SIZE = 32 << 10;
+
+    private final OutputStream out;
+    private final ExecutorService executor;
+    private final int maxPending;
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    private final Adler32 checksum = new Adler32();
+    private byte[] block = new byte[BLOCK_SIZE];
+    private int filled = 0;
+    private byte[] dictionary;
+    private boolean started = false;
+    private boolean closed = false;
+
+    /**
+     * @param threads Threads of the executor, which bounds the blocks in flight.
+     */
+    ParallelDeflaterOutputStream(OutputStream out, ExecutorService executor, int threads) {
+        this.out = out;
+        this.executor = executor;
+        this.maxPending = Math.max(1, threads) * 2;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int copied = Math.min(len, BLOCK_SIZE - filled);
+            System.arraycopy(b, off, block, filled, copied);
+            filled += copied;
+            off += copied;
+            len -= copied;
+            if (filled == BLOCK_SIZE)
+                submit(false);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            if (!started) {
+                // A single block is not worth a task.
+                writeHeader();
+                checksum.update(block, 0, filled);
+                out.write(deflate(block, filled, null, true));
+            } else {
+                submit(true);
+                while (!pending.isEmpty())
+                    out.write(await(pending.remove()));
+            }
+            long adler = checksum.getValue();
+            out.write(new byte[]{(byte) (adler >> 24), (byte) (adler >> 16), (byte) (adler >> 8), (byte) adler});
+        } finally {
+            for (Future<byte[]> future : pending)
+                future.cancel(true);
+            out.close();
+        }
+    }
+
+    private void submit(boolean last) throws IOException {
+        if (!started) {
+            writeHeader();
+            started = true;
+        }
+        byte[] data = block;
+        int length = filled;
+        byte[] primer = dictionary;
+        checksum.update(data, 0, length);
+        pending.add(executor.submit(() -> deflate(data, length, primer, last)));
+        if (!last) {
+            dictionary = Arrays.copyOfRange(data, length - DICTIONARY_SIZE, length);
+            block = new byte[BLOCK_SIZE];
+            filled = 0;
+        }
+        while (pending.size() > maxPending)
+            out.write(await(pending.remove()));
+    }
+
+    private void writeHeader() throws IOException {
+        // Deflate with a 32 KB window at the default level.
+        out.write(new byte[]{0x78, (byte) 0x9C});
+    }
+
+    private static byte[] deflate(byte[] data, int length, byte[] dictionary, boolean last) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            if (dictionary != null)
+                deflater.setDictionary(dictionary);
+            deflater.setInput(data, 0, length);
+            ByteArrayOutputStream output = new ByteArrayOutputStream(length / 2 + 64);
+            byte[] buffer = new byte[1 << 16];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int count = deflater.deflate(buffer);
+                    output.write(buffer, 0, count);
+                }
+            } else {
+                int count;
+                do {
+                    count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    output.write(buffer, 0, count);
+                } while (count == buffer.length || !deflater.needsInput());
+            }
+            return output.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] await(Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while deflating");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IOException(cause);
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package org.vincentyeh.img2pdf.gui.model.pdf;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes the objects of a PDF file to the output as soon as they are complete.
+ * <p>
+ * Only the byte offset of every object is kept until {@link #finish} writes the cross-reference table,
+ * so the memory of a document does not depend on the size of its content.
+ * Object numbers can be reserved before the object is written, for forward references.
+ * <p>
+ * A compact writer packs the objects that are not streams into compressed object streams of
+ * {@link #OBJECTS_PER_STREAM} objects and ends with a compressed cross-reference stream instead of a table,
+ * which makes documents of many pages noticeably smaller. Streams can also be deflated on several threads.
+ */
+public class PdfWriter implements Closeable {
+    private static final int OBJECTS_PER_STREAM = 100;
+
+    private final CountingOutputStream out;
+    private final boolean objectStreams;
+    private final ExecutorService deflaters;
+    private final int deflaterThreads;
+    private long[] offsets = new long[64];
+    /**
+     * Object stream of each object, 0 for an object written on its own. The offset is then the index in the stream.
+     */
+    private int[] containers = new int[64];
+    private int objectCount = 0;
+    private boolean streaming = false;
+    private final ByteArrayOutputStream packed = new ByteArrayOutputStream();
+    private final StringBuilder packedIndex = new StringBuilder();
+    private int[] packedNumbers = new int[OBJECTS_PER_STREAM];
+    private int packedCount = 0;
+
+    public PdfWriter(OutputStream out) throws IOException {
+        this(out, false, null, 0);
+    }
+
+    /**
+     * @param objectStreams   Whether objects are packed into object streams and indexed by a cross-reference stream.
+     * @param deflaters       Deflates the blocks of large streams in parallel, null to deflate on the calling thread.
+     * @param deflaterThreads Threads of the deflaters.
+     */
+    public PdfWriter(OutputStream out, boolean objectStreams, ExecutorService deflaters, int deflaterThreads) throws IOException {
+        this.out = new CountingOutputStream(new BufferedOutputStream(out, 1 << 16));
+        this.objectStreams = objectStreams;
+        this.deflaters = deflaters;
+        this.deflaterThreads = deflaterThreads;
+        // Object streams need PDF 1.5.
+        write(objectStreams ? "%PDF-1.5\n" : "%PDF-1.4\n");
+        // Binary comment line, so that transfer tools treat the file as binary.
+        this.out.write(new byte[]{'%', (byte) 0xE2, (byte) 0xE3, (byte) 0xCF, (byte) 0xD3, '\n'});
+    }
+
+    /**
+     * @return The number of a new object, to be written later with {@link #writeObject} or {@link #beginStream}.
+     */
+    public int reserve() {
+        objectCount++;
+        if (objectCount >= offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            containers = Arrays.copyOf(containers, offsets.length);
+        }
+        return objectCount;
+    }
+
+    public void writeObject(int number, String body) throws IOException {
+        if (objectStreams) {
+            pack(number, body);
+            return;
+        }
+        beginObject(number);
+        write(body);
+        write("\nendobj\n");
+    }
+
+    /**
+     * Starts a stream object. The data written to the returned stream is deflated when {@code deflate} is set,
+     * otherwise it must already be encoded as declared by the {@code /Filter} entry of the dictionary.
+     * The length is written as a separate object after the stream is closed.
+     *
+     * @param dictionary Entries of the stream dictionary without {@code /Length}, e.g. {@code "/Type /XObject"}.
+     */
+    public OutputStream beginStream(int number, String dictionary, boolean deflate) throws IOException {
+        if (streaming)
+            throw new IllegalStateException("a stream is open");
+        int lengthNumber = reserve();
+        beginObject(number);
+        write(String.format("<< %s%s /Length %d 0 R >>\nstream\n", dictionary, deflate ? " /Filter /FlateDecode" : "", lengthNumber));
+        streaming = true;
+        long start = out.count;
+
+        OutputStream body = new FilterOutputStream(out) {
+            private boolean closed = false;
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (closed)
+                    return;
+                closed = true;
+                long length = PdfWriter.this.out.count - start;
+                streaming = false;
+                write("\nendstream\nendobj\n");
+                writeObject(lengthNumber, Long.toString(length));
+            }
+
+            private void write(String text) throws IOException {
+                PdfWriter.this.write(text);
+            }
+        };
+        if (!deflate)
+            return body;
+        if (deflaters != null)
+            return new ParallelDeflaterOutputStream(body, deflaters, deflaterThreads);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        return new DeflaterOutputStream(body, deflater, 1 << 16) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    deflater.end();
+                }
+            }
+        };
+    }
+
+    /**
+     * Writes a complete stream object.
+     */
+    public void writeStream(int number, String dictionary, byte[] data, boolean deflate) throws IOException {
+        try (OutputStream stream = beginStream(number, dictionary, deflate)) {
+            stream.write(data);
+        }
+    }
+
+    /**
+     * Pushes the objects written so far to the underlying output.
+     */
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    public long getBytesWritten() {
+        return out.count;
+    }
+
+    /**
+     * Writes the cross-reference table and the trailer. Every reserved object must have been written.
+     */
+    public void finish(int rootNumber) throws IOException {
+        if (streaming)
+            throw new IllegalStateException("a stream is open");
+        if (objectStreams) {
+            finishCrossReferenceStream(rootNumber);
+            return;
+        }
+        long xref = out.count;
+        StringBuilder table = new StringBuilder();
+        table.append("xref\n0 ").append(objectCount + 1).append('\n');
+        table.append("0000000000 65535 f \n");
+        for (int i = 1; i <= objectCount; i++) {
+            if (offsets[i] == 0)
+                throw new IllegalStateException("object " + i + " was reserved but not written");
+            table.append(String.format("%010d 00000 n \n", offsets[i]));
+            if (table.length() >= 1 << 16) {
+                write(table.toString());
+                table.setLength(0);
+            }
+        }
+        table.append(String.format("trailer\n<< /Size %d /Root %d 0 R >>\nstartxref\n%d\n%%%%EOF\n", objectCount + 1, rootNumber, xref));
+        write(table.toString());
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * Adds an object to the object stream being filled, which is written when it is full.
+     */
+    private void pack(int number, String body) throws IOException {
+        if (streaming)
+            throw new IllegalStateException("a stream is open");
+        checkWritable(number);
+        // Marked as written until the number of its object stream is known.
+        containers[number] = -1;
+        packedIndex.append(number).append(' ').append(packed.size()).append(' ');
+        packed.write(body.getBytes(StandardCharsets.ISO_8859_1));
+        packed.write('\n');
+        packedNumbers[packedCount++] = number;
+        if (packedCount == OBJECTS_PER_STREAM)
+            writeObjectStream();
+    }
+
+    private void writeObjectStream() throws IOException {
+        int number = reserve();
+        byte[] index = packedIndex.toString().getBytes(StandardCharsets.ISO_8859_1);
+        ByteArrayOutputStream data = new ByteArrayOutputStream(packed.size() / 2 + 64);
+        try (OutputStream deflater = new DeflaterOutputStream(data)) {
+            deflater.write(index);
+            packed.writeTo(deflater);
+        }
+        // The length of an object stream cannot be in an object stream itself.
+        beginObject(number);
+        write(String.format("<< /Type /ObjStm /N %d /First %d /Filter /FlateDecode /Length %d >>\nstream\n",
+                packedCount, index.length, data.size()));
+        data.writeTo(out);
+        write("\nendstream\nendobj\n");
+        for (int i = 0; i < packedCount; i++) {
+            containers[packedNumbers[i]] = number;
+            offsets[packedNumbers[i]] = i;
+        }
+        packed.reset();
+        packedIndex.setLength(0);
+        packedCount = 0;
+    }
+
+    /**
+     * Writes the cross-reference stream, which is also the trailer, with 1 byte for the type of each entry,
+     * as many as the largest offset needs for the offset or object stream, and 2 for the generation or index.
+     */
+    private void finishCrossReferenceStream(int rootNumber) throws IOException {
+        if (packedCount > 0)
+            writeObjectStream();
+        int number = reserve();
+        long xref = out.count;
+        int offsetBytes = Math.max(1, (64 - Long.numberOfLeadingZeros(Math.max(xref, objectCount)) + 7) / 8);
+        int entryBytes = 3 + offsetBytes;
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        try (OutputStream deflater = new DeflaterOutputStream(data)) {
+            byte[] entry = new byte[entryBytes];
+            writeEntry(deflater, entry, 0, 0, 0xffff);
+            for (int i = 1; i <= objectCount; i++) {
+                if (i == number)
+                    writeEntry(deflater, entry, 1, xref, 0);
+                else if (offsets[i] == 0 && containers[i] == 0)
+                    throw new IllegalStateException("object " + i + " was reserved but not written");
+                else if (containers[i] == 0)
+                    writeEntry(deflater, entry, 1, offsets[i], 0);
+                else
+                    writeEntry(deflater, entry, 2, containers[i], (int) offsets[i]);
+            }
+        }
+        offsets[number] = xref;
+        write(String.format("%d 0 obj\n<< /Type /XRef /Size %d /Root %d 0 R /W [1 %d 2] /Filter /FlateDecode /Length %d >>\nstream\n",
+                number, objectCount + 1, rootNumber, offsetBytes, data.size()));
+        data.writeTo(out);
+        write(String.format("\nendstream\nendobj\nstartxref\n%d\n%%%%EOF\n", xref));
+        out.flush();
+    }
+
+    private static void writeEntry(OutputStream stream, byte[] entry, int type, long field, int last) throws IOException {
+        entry[0] = (byte) type;
+        for (int i = entry.length - 3; i >= 1; i--) {
+            entry[i] = (byte) field;
+            field >>>= 8;
+        }
+        entry[entry.length - 2] = (byte) (last >> 8);
+        entry[entry.length - 1] = (byte) last;
+        stream.write(entry);
+    }
+
+    private void checkWritable(int number) {
+        if (number < 1 || number > objectCount)
+            throw new IllegalArgumentException("object " + number + " was not reserved");
+        if (offsets[number] != 0 || containers[number] != 0)
+            throw new IllegalStateException("object " + number + " was already written");
+    }
+
+    private void beginObject(int number) throws IOException {
+        if (streaming)
+            throw new IllegalStateException("a stream is open");
+        checkWritable(number);
+        offsets[number] = out.count;
+        write(number + " 0 obj\n");
+    }
+
+    private void write(String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count = 0;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.vincentyeh.img2pdf.gui.model.pdf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Finds the highest JPEG quality at which a page fits its byte budget.
+ * <p>
+ * The qualities are searched in {@link #LEVELS} steps. The search starts at the level chosen for the previous page,
+ * which pages of one batch rarely stray far from, and gallops away from it before bisecting, so a page usually
+ * costs two encodings. Every encoding is kept until the search ends and the chosen one is never encoded twice.
+ */
+class QualitySearch {
+    static final int LEVELS = 19;
+    private static final int INITIAL_LEVEL = 14;
+
+    private final long budget;
+    private final AtomicInteger hint;
+
+    /**
+     * @param hint Level chosen for the previous page, updated with the level chosen for this one.
+     */
+    QualitySearch(long budget, AtomicInteger hint) {
+        this.budget = budget;
+        this.hint = hint;
+    }
+
+    static AtomicInteger newHint() {
+        return new AtomicInteger(INITIAL_LEVEL);
+    }
+
+    long getBudget() {
+        return budget;
+    }
+
+    /**
+     * @return The encoding at the highest level within the budget, or at the lowest level if none is.
+     */
+    byte[] encode(JpegEncoder encoder) throws IOException {
+        byte[][] encoded = new byte[LEVELS][];
+        int start = Math.max(0, Math.min(LEVELS - 1, hint.get()));
+        // best fits the budget, above does not.
+        int best = -1;
+        int above = LEVELS;
+        if (fits(encoder, encoded, start))
+            best = start;
+        else
+            above = start;
+
+        int step = 1;
+        while (above - best > 1) {
+            int level;
+            if (best >= 0 && above == LEVELS)
+                level = Math.min(LEVELS - 1, best + step);
+            else if (best < 0 && above < LEVELS)
+                level = Math.max(0, above - step);
+            else
+                level = (best + above) >>> 1;
+            step <<= 1;
+            if (fits(encoder, encoded, level))
+                best = level;
+            else
+                above = level;
+        }
+        int chosen = Math.max(best, 0);
+        hint.set(chosen);
+        if (encoded[chosen] == null)
+            fits(encoder, encoded, chosen);
+        return encoded[chosen];
+    }
+
+    /**
+     * @return Quality of a level, from 0.05 to 0.95.
+     */
+    static float quality(int level) {
+        return (level + 1) * 0.05f;
+    }
+
+    private boolean fits(JpegEncoder encoder, byte[][] encoded, int level) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.encode(quality(level), out);
+        encoded[level] = out.toByteArray();
+        return encoded[level].length <= budget;
+    }
+}
@@ -0,0 +1,61 @@
+package org.vincentyeh.img2pdf.gui.model.schedule;
+
+import org.vincentyeh.img2pdf.gui.model.Task;
+
+import org.vincentyeh.img2pdf.gui.model.image.ImageSources;
+
+import java.io.File;
+
+/**
+ * Estimates the conversion cost of a task without decoding its images.
+ */
+public enum CostModel {
+    /**
+     * Total size of the source files.
+     */
+    BYTES(8e6) {
+        @Override
+        public long estimate(Task task) {
+            long total = 0;
+            for (File file : task.files) {
+                total += file.length();
+            }
+            return total;
+        }
+    },
+    /**
+     * Total pixel count of the first image of each source file, read from the image headers only.
+     * Falls back to the file size for unreadable files.
+     */
+    PIXELS(20e6) {
+        @Override
+        public long estimate(Task task) {
+            long total = 0;
+            for (File file : task.files) {
+                total += headerPixels(file);
+            }
+            return total;
+        }
+    };
+
+    private final double defaultRate;
+
+    CostModel(double defaultRate) {
+        this.defaultRate = defaultRate;
+    }
+
+    public abstract long estimate(Task task);
+
+    /**
+     * @return A rough conversion rate of one thread, in units of {@link #estimate} per second, for predictions made
+     * before a job has measured the actual rate.
+     */
+    public double getDefaultRate() {
+        return defaultRate;
+    }
+
+    private static long headerPixels(File file) {
+        long pixels = ImageSources.readPixelCount(file);
+        return pixels < 0 ? file.length() : pixels;
+    }
+}
@@ -0,0 +1,114 @@
+package org.vincentyeh.img2pdf.gui.model.schedule;
+
+import org.vincentyeh.img2pdf.gui.model.Task;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tasks of a job in execution order, together with their estimated costs.
+ */
+public class Schedule {
+    public final SchedulingPolicy policy;
+    public final CostModel costModel;
+    private final List<Task> tasks;
+    private final long[] costs;
+    private final LongAdder measuredCost = new LongAdder();
+    private final LongAdder measuredNanos = new LongAdder();
+
+    private Schedule(SchedulingPolicy policy, CostModel costModel, List<Task> tasks, long[] costs) {
+        this.policy = policy;
+        this.costModel = costModel;
+        this.tasks = tasks;
+        this.costs = costs;
+    }
+
+    public static Schedule plan(List<Task> tasks, SchedulingPolicy policy, CostModel costModel) {
+        if (policy == null)
+            throw new IllegalArgumentException("policy==null");
+        if (costModel == null)
+            throw new IllegalArgumentException("costModel==null");
+        long[] estimates = tasks.parallelStream().mapToLong(costModel::estimate).toArray();
+
+        Integer[] order = new Integer[tasks.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        // Arrays.sort is stable, so equal costs keep the order of the source tree.
+        switch (policy) {
+            case LARGEST_FIRST:
+                Arrays.sort(order, Comparator.comparingLong((Integer i) -> estimates[i]).reversed());
+                break;
+            case SMALLEST_FIRST:
+                Arrays.sort(order, Comparator.comparingLong((Integer i) -> estimates[i]));
+                break;
+            case FIFO:
+            default:
+                break;
+        }
+
+        List<Task> ordered = new ArrayList<>(order.length);
+        long[] costs = new long[order.length];
+        for (int i = 0; i < order.length; i++) {
+            ordered.add(tasks.get(order[i]));
+            costs[i] = estimates[order[i]];
+        }
+        return new Schedule(policy, costModel, Collections.unmodifiableList(ordered), costs);
+    }
+
+    public List<Task> getTasks() {
+        return tasks;
+    }
+
+    public long getCost(int position) {
+        return costs[position];
+    }
+
+    public long getTotalCost() {
+        long total = 0;
+        for (long cost : costs) {
+            total += cost;
+        }
+        return total;
+    }
+
+    /**
+     * Records how long the task at the given position took to convert.
+     */
+    public void recordDuration(int position, long nanos) {
+        measuredCost.add(costs[position]);
+        measuredNanos.add(nanos);
+    }
+
+    /**
+     * @return The conversion rate of one thread measured by {@link #recordDuration}, or NaN before any task finished.
+     */
+    public double getMeasuredRate() {
+        long nanos = measuredNanos.sum();
+        if (nanos <= 0)
+            return Double.NaN;
+        return measuredCost.sum() / (nanos / 1e9);
+    }
+
+    /**
+     * Simulates the dispatch of the tasks, in order, to the first idle of {@code workers} threads.
+     *
+     * @param costPerSecond Conversion rate of one thread, in units of the cost model.
+     * @return The predicted makespan in seconds.
+     */
+    public double predictMakespan(double costPerSecond, int workers) {
+        if (costPerSecond <= 0 || workers < 1)
+            return Double.NaN;
+        PriorityQueue<Double> finishTimes = new PriorityQueue<>();
+        for (int i = 0; i < workers; i++) {
+            finishTimes.add(0.0);
+        }
+        double makespan = 0;
+        for (long cost : costs) {
+            double finish = finishTimes.poll() + cost / costPerSecond;
+            makespan = Math.max(makespan, finish);
+            finishTimes.add(finish);
+        }
+        return makespan;
+    }
+}
@@ -0,0 +1,19 @@
+package org.vincentyeh.img2pdf.gui.model.schedule;
+
+/**
+ * Order in which the tasks of a job are handed to the conversion threads.
+ */
+public enum SchedulingPolicy {
+    /**
+     * Order of the source tree.
+     */
+    FIFO,
+    /**
+     * Longest processing time first, so that no large task starts when the other threads are about to be idle.
+     */
+    LARGEST_FIRST,
+    /**
+     * Smallest tasks first, for fast feedback.
+     */
+    SMALLEST_FIRST
+}
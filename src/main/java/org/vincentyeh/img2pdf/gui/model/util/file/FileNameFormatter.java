@@ -17,6 +17,12 @@ import java.util.regex.Pattern;
  * @author VincentYeh
  */
 public class FileNameFormatter extends NameFormatter<File> {
+    /**
+     * Number of the part of a split document. When the document is not split, the token is dropped together with
+     * the separator before it, or after it if it starts the name, so {@code <NAME>_<PART>.pdf} gives {@code name.pdf}.
+     */
+    public static final String PART = "<PART>";
+    private static final Pattern UNUSED_PART = Pattern.compile("[-_. ]" + PART + "|" + PART + "[-_ ]?");
 
     public FileNameFormatter(String pattern) {
         super(pattern);
@@ -24,16 +30,33 @@ public class FileNameFormatter extends NameFormatter<File> {
 
     @Override
     public String format(File data) throws FormatException{
+        return format(data, 0, 1);
+    }
+
+    /**
+     * Formats the name of one part of a split document. Parts are numbered from 1, zero-padded to the width of
+     * {@code parts}. If the pattern has no {@link #PART} token, the number is appended before the extension.
+     *
+     * @param part 0 if the document is not split.
+     */
+    public String format(File data, int part, int parts) throws FormatException{
         try{
             HashMap<String, String> map = new HashMap<>();
             getFileMap(data, map);
             getCurrentTimeMap(map);
             getModifyTimeMap(data, map);
             verify(map);
-            String buf=pattern;
+            String partNumber = part > 0 ? String.format("%0" + String.valueOf(parts).length() + "d", part) : "";
+            map.put(PART, partNumber);
+            String buf = part > 0 ? pattern : UNUSED_PART.matcher(pattern).replaceAll("");
             for (String key : map.keySet()) {
                 buf = buf.replace(key, map.get(key));
             }
+            if (part > 0 && !pattern.contains(PART)) {
+                int extension = buf.lastIndexOf('.');
+                buf = extension > 0 ? buf.substring(0, extension) + "_" + partNumber + buf.substring(extension)
+                        : buf + "_" + partNumber;
+            }
 
             return buf;
         }catch (IllegalArgumentException e){
@@ -1,5 +1,8 @@
 package org.vincentyeh.img2pdf.gui.view;
 
+import org.vincentyeh.img2pdf.gui.model.CollisionPolicy;
+import org.vincentyeh.img2pdf.gui.model.DestinationIndex;
+import org.vincentyeh.img2pdf.gui.model.SplitPolicy;
 import org.vincentyeh.img2pdf.gui.model.Task;
 import org.vincentyeh.img2pdf.lib.image.ColorType;
 import org.vincentyeh.img2pdf.lib.pdf.parameter.PageAlign;
@@ -44,6 +47,8 @@ public class JUIMediator implements UIMediator {
     private JButton outputFolderBrowseButton;
     private JTextField outputFolderField;
     private JList<String> logList;
+    private JSpinner splitPagesSpinner;
+    private JSpinner splitMegabytesSpinner;
 
     private JFileChooser sourceFilesChooser;
     private JFileChooser outputFolderChooser;
@@ -315,6 +320,20 @@ public class JUIMediator implements UIMediator {
             });
         }
 
+        public void linkSplitPagesSpinner(JSpinner spinner) {
+            mediator.splitPagesSpinner = spinner;
+            mediator.splitPagesSpinner.setModel(new SpinnerNumberModel(0, 0, Integer.MAX_VALUE, 10));
+            mediator.splitPagesSpinner.addChangeListener(e -> mediator.notifyUI("split_policy_change",
+                    mediator.splitPagesSpinner.getValue(), mediator.splitMegabytesSpinner.getValue()));
+        }
+
+        public void linkSplitMegabytesSpinner(JSpinner spinner) {
+            mediator.splitMegabytesSpinner = spinner;
+            mediator.splitMegabytesSpinner.setModel(new SpinnerNumberModel(0, 0, Integer.MAX_VALUE, 10));
+            mediator.splitMegabytesSpinner.addChangeListener(e -> mediator.notifyUI("split_policy_change",
+                    mediator.splitPagesSpinner.getValue(), mediator.splitMegabytesSpinner.getValue()));
+        }
+
         public void linkLogList(JList<String> list) {
             mediator.logList = list;
         }
@@ -412,6 +431,15 @@ public class JUIMediator implements UIMediator {
             System.out.printf("Page Direction changed: %s\n", direction);
             state.setPageDirection(direction);
         }
+        if (event.equals("split_policy_change")) {
+            int pages = (int) data[0];
+            int megabytes = (int) data[1];
+            System.out.printf("Split Policy changed: %d pages, %d MB\n", pages, megabytes);
+            state.setSplitPolicy(new SplitPolicy(pages, (long) megabytes << 20));
+            // The parts are cut when the sources are parsed, so the task list is parsed again.
+            if (listener != null && state.getSourceFiles() != null)
+                listener.onSourcesUpdate(this, state);
+        }
         if (event.equals("color_type_change")) {
             ColorType color = (ColorType) data[0];
             System.out.printf("Color Type changed: %s\n", color);
@@ -439,6 +467,8 @@ public class JUIMediator implements UIMediator {
         }
         if (event.equals("stop_button_click")) {
             System.out.printf("Stop Button clicked\n");
+            if (listener != null)
+                listener.onStopButtonClick(this);
         }
 
         if(event.equals("encryption_change")){
@@ -464,20 +494,8 @@ public class JUIMediator implements UIMediator {
 
     @Override
     public void setRunningState(boolean running) {
-        if (running) {
-            convertButton.setEnabled(false);
-            stopButton.setEnabled(true);
-            clearAllButton.setEnabled(false);
-            sourceBrowseButton.setEnabled(false);
-            outputFolderBrowseButton.setEnabled(false);
-        } else {
-            convertButton.setEnabled(true);
-            stopButton.setEnabled(false);
-            clearAllButton.setEnabled(true);
-            sourceBrowseButton.setEnabled(true);
-            outputFolderBrowseButton.setEnabled(true);
-
-        }
+        // Jobs are frozen when queued, so the settings stay editable while converting.
+        stopButton.setEnabled(running);
     }
 
 
@@ -486,8 +504,15 @@ public class JUIMediator implements UIMediator {
         DefaultMutableTreeNode root = (DefaultMutableTreeNode) model.getRoot();
         root.removeAllChildren();
 
+        DestinationIndex index = new DestinationIndex(tasks, state.getDestinationFolder());
         for (Task task : tasks) {
-            DefaultMutableTreeNode node1 = new DefaultMutableTreeNode(task.destination.getName());
+            String name = task.destination.getName();
+            int sharing = index.countSharing(task);
+            if (index.isOverwritten(task))
+                name += " [skipped, overwritten by a later task]";
+            else if (sharing > 1)
+                name += String.format(" [overwrites %d earlier task(s)]", sharing - 1);
+            DefaultMutableTreeNode node1 = new DefaultMutableTreeNode(name);
             for (File file : task.files) {
                 DefaultMutableTreeNode node2 = new DefaultMutableTreeNode(file.getName());
                 node1.add(node2);
@@ -526,6 +551,21 @@ public class JUIMediator implements UIMediator {
         listModel.clear();
     }
 
+    @Override
+    public CollisionPolicy chooseCollisionPolicy(DestinationIndex index) {
+        int tasks = index.getCollisions().values().stream().mapToInt(List::size).sum();
+        String message = String.format("%d tasks share %d output name(s), so all but the last of each would be skipped.%n"
+                + "Rename them?", tasks, index.getCollisions().size());
+        Object[] options = {"Add numbers", "Add parent folders", "Keep names"};
+        int choice = JOptionPane.showOptionDialog(null, message, "Output name conflicts", JOptionPane.DEFAULT_OPTION,
+                JOptionPane.WARNING_MESSAGE, null, options, options[0]);
+        if (choice == 0)
+            return CollisionPolicy.SUFFIX;
+        if (choice == 1)
+            return CollisionPolicy.PARENT;
+        return CollisionPolicy.OVERWRITE;
+    }
+
     public void setListener(MediatorListener listener) {
         this.listener = listener;
     }
@@ -565,6 +605,10 @@ public class JUIMediator implements UIMediator {
 
         encryptCheckBox.setSelected(false);
 
+        SplitPolicy splitPolicy = state.getSplitPolicy();
+        splitPagesSpinner.setValue(splitPolicy.maxPages);
+        splitMegabytesSpinner.setValue((int) Math.min(splitPolicy.maxBytes >> 20, Integer.MAX_VALUE));
+
         updateSourceTree(new LinkedList<>());
     }
 
@@ -1,5 +1,7 @@
 package org.vincentyeh.img2pdf.gui.view;
 
+import org.vincentyeh.img2pdf.gui.model.CollisionPolicy;
+import org.vincentyeh.img2pdf.gui.model.DestinationIndex;
 import org.vincentyeh.img2pdf.gui.model.Task;
 
 import java.util.List;
@@ -15,4 +17,11 @@ public interface UIMediator {
     void initialize();
     void setListener(MediatorListener listener);
 
+    /**
+     * Offers to rename the tasks that share a destination instead of skipping all but the last of each.
+     *
+     * @return The chosen policy, {@link CollisionPolicy#OVERWRITE} to keep the names.
+     */
+    CollisionPolicy chooseCollisionPolicy(DestinationIndex index);
+
 }
@@ -1,11 +1,17 @@
 package org.vincentyeh.img2pdf.gui.view;
 
+import org.vincentyeh.img2pdf.gui.model.CollisionPolicy;
+import org.vincentyeh.img2pdf.gui.model.ColorMode;
+import org.vincentyeh.img2pdf.gui.model.SplitPolicy;
+import org.vincentyeh.img2pdf.gui.model.schedule.CostModel;
+import org.vincentyeh.img2pdf.gui.model.schedule.SchedulingPolicy;
 import org.vincentyeh.img2pdf.lib.image.ColorType;
 import org.vincentyeh.img2pdf.lib.pdf.parameter.PageAlign;
 import org.vincentyeh.img2pdf.lib.pdf.parameter.PageDirection;
 import org.vincentyeh.img2pdf.lib.pdf.parameter.PageSize;
 
 import java.io.File;
+import java.util.Arrays;
 
 public class UIState {
     private static UIState instance = null;
@@ -34,11 +40,40 @@ public class UIState {
     private PageDirection pageDirection;
     private String fileFilterPattern = null;
 
+    private SchedulingPolicy schedulingPolicy = enumProperty("img2pdf.scheduling", SchedulingPolicy.FIFO);
+    private CostModel costModel = enumProperty("img2pdf.cost.model", CostModel.BYTES);
+    private int targetDpi = Integer.getInteger("img2pdf.target.dpi", 0);
+    private long maxDocumentBytes = Long.getLong("img2pdf.max.document.kb", 0L) << 10;
+    private long maxPageBytes = Long.getLong("img2pdf.max.page.kb", 0L) << 10;
+    private int paletteTolerance = Integer.getInteger("img2pdf.palette.tolerance", 0);
+    private boolean linearize = Boolean.getBoolean("img2pdf.linearize");
+    private boolean compact = Boolean.getBoolean("img2pdf.compact");
+    private ColorMode colorMode = enumProperty("img2pdf.color.mode", ColorMode.FIXED);
+    private SplitPolicy splitPolicy = new SplitPolicy(Integer.getInteger("img2pdf.split.pages", 0),
+            Long.getLong("img2pdf.split.mb", 0L) << 20);
+    private CollisionPolicy collisionPolicy = enumProperty("img2pdf.collision.policy", CollisionPolicy.OVERWRITE);
+
 
     private UIState() {
 
     }
 
+    /**
+     * @return The constant named by the system property, or the default if it is unset or names no constant.
+     */
+    private static <E extends Enum<E>> E enumProperty(String key, E defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null)
+            return defaultValue;
+        try {
+            return Enum.valueOf(defaultValue.getDeclaringClass(), value.trim());
+        } catch (IllegalArgumentException e) {
+            System.err.printf("Ignoring -D%s=%s, expected one of %s; using %s%n", key, value,
+                    Arrays.toString(defaultValue.getDeclaringClass().getEnumConstants()), defaultValue);
+            return defaultValue;
+        }
+    }
+
     public void setRunning(boolean running) {
         this.running = running;
     }
@@ -153,4 +188,92 @@ public class UIState {
     public void setOutputFormat(String outputFormat) {
         this.outputFormat = outputFormat;
     }
+
+    public SchedulingPolicy getSchedulingPolicy() {
+        return schedulingPolicy;
+    }
+
+    public void setSchedulingPolicy(SchedulingPolicy schedulingPolicy) {
+        this.schedulingPolicy = schedulingPolicy;
+    }
+
+    public CostModel getCostModel() {
+        return costModel;
+    }
+
+    public void setCostModel(CostModel costModel) {
+        this.costModel = costModel;
+    }
+
+    public int getTargetDpi() {
+        return targetDpi;
+    }
+
+    public void setTargetDpi(int targetDpi) {
+        this.targetDpi = targetDpi;
+    }
+
+    public long getMaxDocumentBytes() {
+        return maxDocumentBytes;
+    }
+
+    public void setMaxDocumentBytes(long maxDocumentBytes) {
+        this.maxDocumentBytes = maxDocumentBytes;
+    }
+
+    public long getMaxPageBytes() {
+        return maxPageBytes;
+    }
+
+    public void setMaxPageBytes(long maxPageBytes) {
+        this.maxPageBytes = maxPageBytes;
+    }
+
+    public int getPaletteTolerance() {
+        return paletteTolerance;
+    }
+
+    public void setPaletteTolerance(int paletteTolerance) {
+        this.paletteTolerance = paletteTolerance;
+    }
+
+    public boolean isLinearize() {
+        return linearize;
+    }
+
+    public void setLinearize(boolean linearize) {
+        this.linearize = linearize;
+    }
+
+    public boolean isCompact() {
+        return compact;
+    }
+
+    public void setCompact(boolean compact) {
+        this.compact = compact;
+    }
+
+    public ColorMode getColorMode() {
+        return colorMode;
+    }
+
+    public void setColorMode(ColorMode colorMode) {
+        this.colorMode = colorMode;
+    }
+
+    public SplitPolicy getSplitPolicy() {
+        return splitPolicy;
+    }
+
+    public void setSplitPolicy(SplitPolicy splitPolicy) {
+        this.splitPolicy = splitPolicy;
+    }
+
+    public CollisionPolicy getCollisionPolicy() {
+        return collisionPolicy;
+    }
+
+    public void setCollisionPolicy(CollisionPolicy collisionPolicy) {
+        this.collisionPolicy = collisionPolicy;
+    }
 }
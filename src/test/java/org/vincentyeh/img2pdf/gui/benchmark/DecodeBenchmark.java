@@ -0,0 +1,105 @@
+package org.vincentyeh.img2pdf.gui.benchmark;
+
+import org.vincentyeh.img2pdf.gui.model.image.ImageSources;
+import org.vincentyeh.img2pdf.gui.model.image.RasterPool;
+
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+
+/**
+ * Compares the garbage produced by decoding the images of a folder.
+ * <pre>
+ * allocate  every image is decoded into a new raster
+ * pooled    images are decoded into rasters reused through {@link RasterPool}
+ * </pre>
+ * Reports the bytes allocated by the decoding thread and the collections that happened meanwhile.
+ * Run with the heap and collector of production, e.g. -Xmx1g -XX:+UseG1GC, to see the effect on pauses.
+ * <p>
+ * Run with the test classpath: {@code DecodeBenchmark <image folder> [rounds]}.
+ */
+public class DecodeBenchmark {
+    private static final long POOL_BYTES = 512L << 20;
+
+    private DecodeBenchmark() {
+
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1)
+            throw new IllegalArgumentException("image folder is required");
+        run(new File(args[0]), args.length > 1 ? Integer.parseInt(args[1]) : 2, System.out);
+    }
+
+    public static void run(File folder, int rounds, PrintStream out) throws IOException {
+        ImageSources.initialize();
+        List<File> files = ReadBenchmark.listImages(folder);
+        out.printf("%d file(s)\n", files.size());
+
+        RasterPool pool = new RasterPool(POOL_BYTES);
+        for (int round = 1; round <= rounds; round++) {
+            report(out, round, "allocate", files, null);
+            report(out, round, "pooled", files, pool);
+        }
+    }
+
+    private static void report(PrintStream out, int round, String method, List<File> files, RasterPool pool) throws IOException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long allocatedBefore = allocatedBytes(threads);
+        long collectionsBefore = 0, collectionMillisBefore = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            collectionsBefore += collector.getCollectionCount();
+            collectionMillisBefore += collector.getCollectionTime();
+        }
+        long started = System.nanoTime();
+
+        for (File file : files)
+            decode(file, pool);
+
+        double seconds = (System.nanoTime() - started) / 1e9;
+        long collections = -collectionsBefore, collectionMillis = -collectionMillisBefore;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            collections += collector.getCollectionCount();
+            collectionMillis += collector.getCollectionTime();
+        }
+        long allocated = allocatedBytes(threads) - allocatedBefore;
+        out.printf("round %d %-8s %8.2f s %10.1f MB allocated %8.1f MB/s %5d GC(s) %7d ms in GC\n",
+                round, method, seconds, allocated / 1e6, allocated / 1e6 / seconds, collections, collectionMillis);
+    }
+
+    private static void decode(File file, RasterPool pool) throws IOException {
+        try (ImageInputStream stream = ImageSources.open(file)) {
+            ImageReader reader = ImageSources.createReader(stream, false);
+            if (reader == null)
+                return;
+            try {
+                if (pool == null) {
+                    reader.read(0).flush();
+                } else {
+                    pool.release(pool.read(reader, 0));
+                }
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * @return The bytes allocated by the current thread so far, or -1 if the JVM does not report them.
+     */
+    private static long allocatedBytes(ThreadMXBean threads) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threads;
+            if (hotspot.isThreadAllocatedMemorySupported() && hotspot.isThreadAllocatedMemoryEnabled())
+                return hotspot.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
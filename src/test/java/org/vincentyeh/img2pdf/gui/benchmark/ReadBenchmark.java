@@ -0,0 +1,102 @@
+package org.vincentyeh.img2pdf.gui.benchmark;
+
+import org.vincentyeh.img2pdf.gui.model.image.ImageSources;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compares the ways of reading the source images of a folder.
+ * <pre>
+ * stream   ImageIO.read(InputStream) with the ImageIO disk cache on, the default of stream-based readers
+ * file     ImageIO.read(File)
+ * mapped   {@link ImageSources#open}, memory-mapped without the disk cache
+ * </pre>
+ * Each round reads every image once per method. Later rounds run with a warm page cache.
+ * <p>
+ * Run with the test classpath: {@code ReadBenchmark <image folder> [rounds]}.
+ */
+public class ReadBenchmark {
+    private ReadBenchmark() {
+
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1)
+            throw new IllegalArgumentException("image folder is required");
+        run(new File(args[0]), args.length > 1 ? Integer.parseInt(args[1]) : 2, System.out);
+    }
+
+    public static void run(File folder, int rounds, PrintStream out) throws IOException {
+        // The ImageIO settings of the application, which only the stream method departs from.
+        ImageSources.initialize();
+        List<File> files = listImages(folder);
+        long bytes = files.stream().mapToLong(File::length).sum();
+        out.printf("%d file(s), %.1f MB\n", files.size(), bytes / 1e6);
+
+        for (int round = 1; round <= rounds; round++) {
+            report(out, round, "stream", bytes, measure(files, ReadBenchmark::readStream));
+            report(out, round, "file", bytes, measure(files, ImageIO::read));
+            report(out, round, "mapped", bytes, measure(files, ReadBenchmark::readMapped));
+        }
+    }
+
+    static List<File> listImages(File folder) throws IOException {
+        try (Stream<Path> paths = Files.walk(folder.toPath())) {
+            return paths.filter(Files::isRegularFile)
+                    .filter(path -> path.getFileName().toString().toLowerCase().matches(".*\\.(png|jpe?g|bmp|gif|tiff?)"))
+                    .map(Path::toFile)
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private interface Reader {
+        BufferedImage read(File file) throws IOException;
+    }
+
+    private static long measure(List<File> files, Reader reader) throws IOException {
+        long started = System.nanoTime();
+        for (File file : files) {
+            BufferedImage image = reader.read(file);
+            if (image != null)
+                image.flush();
+        }
+        return System.nanoTime() - started;
+    }
+
+    private static BufferedImage readStream(File file) throws IOException {
+        boolean useCache = ImageIO.getUseCache();
+        ImageIO.setUseCache(true);
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            return ImageIO.read(in);
+        } finally {
+            ImageIO.setUseCache(useCache);
+        }
+    }
+
+    private static BufferedImage readMapped(File file) throws IOException {
+        try (ImageInputStream stream = ImageSources.open(file)) {
+            ImageReader reader = ImageSources.createReader(stream, false);
+            if (reader == null)
+                return null;
+            try {
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static void report(PrintStream out, int round, String method, long bytes, long nanos) {
+        double seconds = nanos / 1e9;
+        out.printf("round %d %-7s %8.2f s %8.1f MB/s\n", round, method, seconds, bytes / 1e6 / seconds);
+    }
+}
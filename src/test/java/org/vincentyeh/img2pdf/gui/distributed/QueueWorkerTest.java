@@ -0,0 +1,164 @@
+package org.vincentyeh.img2pdf.gui.distributed;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.vincentyeh.img2pdf.gui.daemon.JobDescription;
+import org.vincentyeh.img2pdf.gui.model.Model;
+import org.vincentyeh.img2pdf.gui.model.image.ImageSources;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs several {@link QueueWorker}s, each with its own {@link Model} as separate processes would have, on one
+ * {@link QueueDirectory}.
+ */
+public class QueueWorkerTest {
+    private static final Pattern CLAIM = Pattern.compile("\\] claimed (\\S+)\\.(\\d+)\\.lease ");
+
+    private final List<Model> models = new ArrayList<>();
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    private final PrintStream log = new PrintStream(output, true);
+    private Path root;
+
+    @Before
+    public void createRoot() throws IOException {
+        ImageSources.initialize();
+        root = Files.createTempDirectory("queue");
+    }
+
+    @After
+    public void deleteRoot() throws IOException {
+        for (Model model : models) {
+            model.shutdown();
+        }
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void finishesEachTaskOnce() throws Exception {
+        QueueDirectory queue = new QueueDirectory(root.resolve("queue"), 60_000);
+        assertEquals(8, queue.enqueue(describe(8)));
+
+        Thread[] workers = new Thread[3];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = start(queue, "worker-" + i);
+        }
+        for (Thread worker : workers) {
+            worker.join(60_000);
+            assertFalse("worker still running", worker.isAlive());
+        }
+
+        assertTrue(queue.listUnfinished().isEmpty());
+        assertEquals(8, count("queue/done"));
+        assertEquals(0, count("queue/failed"));
+        assertEquals(8, count("out"));
+        // Leases do not expire here, so every task is claimed by exactly one worker, at the first generation.
+        List<String> claimed = new ArrayList<>();
+        Matcher claim = CLAIM.matcher(output.toString("UTF-8"));
+        while (claim.find()) {
+            assertFalse("claimed twice: " + claim.group(1), claimed.contains(claim.group(1)));
+            assertEquals("0", claim.group(2));
+            claimed.add(claim.group(1));
+        }
+        assertEquals(8, claimed.size());
+    }
+
+    @Test
+    public void reclaimsExpiredLease() throws Exception {
+        QueueDirectory queue = new QueueDirectory(root.resolve("queue"), 500);
+        assertEquals(1, queue.enqueue(describe(1)));
+        String task = queue.listUnfinished().get(0);
+
+        // A worker that holds the task past the timeout with its heartbeats, then stops.
+        Lease abandoned = queue.tryClaim(task, "stopped");
+        assertNotNull(abandoned);
+        for (int i = 0; i < 10; i++) {
+            Thread.sleep(100);
+            assertTrue(queue.heartbeat(abandoned));
+            assertNull(queue.tryClaim(task, "other"));
+        }
+
+        Thread worker = start(queue, "worker");
+        worker.join(60_000);
+        assertFalse("worker still running", worker.isAlive());
+
+        assertTrue(queue.listUnfinished().isEmpty());
+        assertEquals(1, count("out"));
+        Matcher claim = CLAIM.matcher(output.toString("UTF-8"));
+        assertTrue(claim.find());
+        assertEquals(task, claim.group(1));
+        assertEquals("1", claim.group(2));
+        // The stopped worker finds out that it lost the task.
+        assertFalse(queue.isOwner(abandoned));
+        assertFalse(queue.heartbeat(abandoned));
+        assertFalse(queue.complete(abandoned, false, "late"));
+        assertEquals(0, count("queue/failed"));
+    }
+
+    /**
+     * @return A job of one source directory per task, each holding a small image.
+     */
+    private Properties describe(int tasks) throws IOException {
+        StringBuilder sources = new StringBuilder();
+        for (int i = 0; i < tasks; i++) {
+            File directory = Files.createDirectories(root.resolve("sources/d" + i)).toFile();
+            BufferedImage image = new BufferedImage(16 + i, 16, BufferedImage.TYPE_INT_RGB);
+            image.setRGB(i, 0, 0xff0000);
+            ImageIO.write(image, "png", new File(directory, "page.png"));
+            if (i > 0)
+                sources.append(File.pathSeparator);
+            sources.append(directory);
+        }
+        Properties description = new Properties();
+        description.setProperty(JobDescription.SOURCES, sources.toString());
+        description.setProperty(JobDescription.DESTINATION, Files.createDirectories(root.resolve("out")).toString());
+        return description;
+    }
+
+    /**
+     * Starts a worker that exits once the queue is drained.
+     */
+    private Thread start(QueueDirectory queue, String workerId) {
+        Model model = new Model(2);
+        models.add(model);
+        QueueWorker worker = new QueueWorker(queue, model, workerId, 2, true, log);
+        Thread thread = new Thread(() -> {
+            try {
+                worker.run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, workerId);
+        thread.start();
+        return thread;
+    }
+
+    private int count(String directory) throws IOException {
+        try (Stream<Path> files = Files.list(root.resolve(directory))) {
+            return (int) files.count();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package org.vincentyeh.img2pdf.gui.model.image;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the output of the {@link Downsampler} with an area average computed in floating point.
+ */
+public class DownsamplerTest {
+
+    @Test
+    public void averagesAreas() throws IOException {
+        Random random = new Random(3);
+        int[][] sizes = {{10, 10, 3, 3}, {100, 37, 33, 12}, {999, 13, 998, 12}, {1000, 100, 1, 1}, {250, 350, 124, 175}};
+        for (int[] size : sizes) {
+            for (int bands : new int[]{1, 3}) {
+                byte[] source = new byte[size[0] * size[1] * bands];
+                random.nextBytes(source);
+                check(source, size[0], size[1], size[2], size[3], bands);
+            }
+        }
+    }
+
+    @Test
+    public void keepsTheSameSize() throws IOException {
+        byte[] source = new byte[7 * 5 * 3];
+        new Random(4).nextBytes(source);
+        assertArrayEquals(source, downsample(source, 7, 5, 7, 5, 3, 7 * 3));
+    }
+
+    @Test
+    public void acceptsSeveralRowsPerWrite() throws IOException {
+        byte[] source = new byte[64 * 48];
+        new Random(5).nextBytes(source);
+        assertArrayEquals(downsample(source, 64, 48, 20, 15, 1, 64), downsample(source, 64, 48, 20, 15, 1, 64 * 16));
+    }
+
+    @Test
+    public void keepsFlatAreas() throws IOException {
+        byte[] source = new byte[300 * 200 * 3];
+        Arrays.fill(source, (byte) 200);
+        byte[] reduced = downsample(source, 300, 200, 97, 61, 3, 300 * 3);
+        for (byte value : reduced) {
+            assertEquals(200, value & 0xff);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesToEnlarge() {
+        new Downsampler(100, 100, 101, 50, 1, (rows, offset, length) -> {
+        });
+    }
+
+    private static void check(byte[] source, int sourceWidth, int sourceHeight, int width, int height, int bands) throws IOException {
+        byte[] reduced = downsample(source, sourceWidth, sourceHeight, width, height, bands, sourceWidth * bands);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                for (int band = 0; band < bands; band++) {
+                    long expected = Math.round(average(source, sourceWidth, sourceHeight, width, height, bands, x, y, band));
+                    int actual = reduced[(y * width + x) * bands + band] & 0xff;
+                    assertTrue(String.format("%dx%d to %dx%d at %d,%d: %d instead of %d",
+                            sourceWidth, sourceHeight, width, height, x, y, actual, expected), Math.abs(actual - expected) <= 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param rowsPerWrite Bytes handed to the downsampler at once, whole rows.
+     */
+    private static byte[] downsample(byte[] source, int sourceWidth, int sourceHeight, int width, int height, int bands,
+                                     int rowsPerWrite) throws IOException {
+        byte[] reduced = new byte[width * height * bands];
+        int[] rows = {0};
+        Downsampler downsampler = new Downsampler(sourceWidth, sourceHeight, width, height, bands, (data, offset, length) -> {
+            assertEquals(width * bands, length);
+            System.arraycopy(data, offset, reduced, rows[0]++ * width * bands, length);
+        });
+        for (int offset = 0; offset < source.length; offset += rowsPerWrite) {
+            downsampler.write(source, offset, Math.min(rowsPerWrite, source.length - offset));
+        }
+        assertEquals(height, rows[0]);
+        return reduced;
+    }
+
+    /**
+     * @return The mean of the source area covered by an output pixel, weighting border pixels by the part inside.
+     */
+    private static double average(byte[] source, int sourceWidth, int sourceHeight, int width, int height, int bands,
+                                  int x, int y, int band) {
+        double left = (double) x * sourceWidth / width;
+        double right = (double) (x + 1) * sourceWidth / width;
+        double top = (double) y * sourceHeight / height;
+        double bottom = (double) (y + 1) * sourceHeight / height;
+        double sum = 0;
+        for (int sourceY = (int) top; sourceY < Math.ceil(bottom); sourceY++) {
+            for (int sourceX = (int) left; sourceX < Math.ceil(right); sourceX++) {
+                double weight = (Math.min(sourceX + 1, right) - Math.max(sourceX, left)) * (Math.min(sourceY + 1, bottom) - Math.max(sourceY, top));
+                sum += weight * (source[(sourceY * sourceWidth + sourceX) * bands + band] & 0xff);
+            }
+        }
+        return sum / ((right - left) * (bottom - top));
+    }
+}
@@ -0,0 +1,179 @@
+package org.vincentyeh.img2pdf.gui.model.image;
+
+import org.junit.Test;
+import org.w3c.dom.NodeList;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Decodes small baseline JPEG files written by ImageIO and compares them with {@link ImageIO#read}.
+ * <p>
+ * The IDCT and color conversion differ by rounding only. ImageIO interpolates subsampled chroma where the decoder
+ * replicates it, so subsampled files are compared on smooth images with a wider tolerance.
+ */
+public class SequentialJpegDecoderTest {
+    private static final String FORMAT = "javax_imageio_jpeg_image_1.0";
+
+    @Test
+    public void decodesFullChroma() throws IOException {
+        check(jpeg(color(64, 48), 1, 1, 0), 3, 3, 0.25);
+    }
+
+    @Test
+    public void decodesSubsampledChroma() throws IOException {
+        check(jpeg(color(67, 45), 2, 2, 0), 3, 10, 3);
+        check(jpeg(color(50, 33), 2, 1, 0), 3, 10, 3);
+    }
+
+    @Test
+    public void decodesRestartIntervals() throws IOException {
+        check(jpeg(color(91, 70), 2, 2, 1), 3, 10, 3);
+        check(jpeg(color(91, 70), 1, 1, 5), 3, 3, 0.25);
+    }
+
+    @Test
+    public void decodesGray() throws IOException {
+        check(jpeg(gray(75, 41), 1, 1, 0), 1, 3, 0.25);
+        check(jpeg(gray(75, 41), 1, 1, 3), 1, 3, 0.25);
+    }
+
+    @Test
+    public void replicatesGrayToRgb() throws IOException {
+        byte[] file = jpeg(gray(30, 20), 1, 1, 0);
+        byte[] gray = decode(file, 1);
+        byte[] rgb = decode(file, 3);
+        for (int i = 0; i < gray.length; i++) {
+            for (int band = 0; band < 3; band++) {
+                assertEquals(gray[i], rgb[i * 3 + band]);
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void refusesProgressive() throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+        decode(write(writer, color(32, 32), null, param), 3);
+    }
+
+    /**
+     * @param tolerance     Largest difference of a sample from the one of ImageIO.
+     * @param meanTolerance Largest mean difference of the samples.
+     */
+    private static void check(byte[] file, int bands, int tolerance, double meanTolerance) throws IOException {
+        BufferedImage expected = ImageIO.read(new ByteArrayInputStream(file));
+        byte[] decoded = decode(file, bands);
+        int width = expected.getWidth();
+        assertEquals(width * expected.getHeight() * bands, decoded.length);
+
+        long total = 0;
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < width; x++) {
+                int rgb = expected.getRGB(x, y);
+                for (int band = 0; band < bands; band++) {
+                    // Gray samples are compared raw, as getRGB would convert them to sRGB.
+                    int sample = bands == 1 ? expected.getRaster().getSample(x, y, 0) : rgb >> (16 - band * 8) & 0xff;
+                    int difference = Math.abs(sample - (decoded[(y * width + x) * bands + band] & 0xff));
+                    assertTrue(String.format("sample %d of %d,%d differs by %d", band, x, y, difference), difference <= tolerance);
+                    total += difference;
+                }
+            }
+        }
+        double mean = (double) total / decoded.length;
+        assertTrue("mean difference " + mean, mean <= meanTolerance);
+    }
+
+    private static byte[] decode(byte[] file, int bands) throws IOException {
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        try (ImageInputStream stream = ImageIO.createImageInputStream(new ByteArrayInputStream(file))) {
+            SequentialJpegDecoder.decode(stream, bands, decoded::write);
+        }
+        return decoded.toByteArray();
+    }
+
+    /**
+     * @param horizontal      Sampling factors of the luma, the chroma is sampled once per MCU.
+     * @param restartInterval MCUs between restart markers, 0 for none.
+     */
+    private static byte[] jpeg(BufferedImage image, int horizontal, int vertical, int restartInterval) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(0.95f);
+        IIOMetadata metadata = writer.getDefaultImageMetadata(new ImageTypeSpecifier(image), param);
+        IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(FORMAT);
+        NodeList components = root.getElementsByTagName("componentSpec");
+        for (int i = 0; i < components.getLength(); i++) {
+            IIOMetadataNode component = (IIOMetadataNode) components.item(i);
+            component.setAttribute("HsamplingFactor", String.valueOf(i == 0 ? horizontal : 1));
+            component.setAttribute("VsamplingFactor", String.valueOf(i == 0 ? vertical : 1));
+        }
+        if (restartInterval > 0) {
+            IIOMetadataNode restart = new IIOMetadataNode("dri");
+            restart.setAttribute("interval", String.valueOf(restartInterval));
+            IIOMetadataNode markers = (IIOMetadataNode) root.getElementsByTagName("markerSequence").item(0);
+            markers.insertBefore(restart, root.getElementsByTagName("sos").item(0));
+        }
+        metadata.setFromTree(FORMAT, root);
+        return write(writer, image, metadata, param);
+    }
+
+    private static byte[] write(ImageWriter writer, BufferedImage image, IIOMetadata metadata, ImageWriteParam param) throws IOException {
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(file)) {
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, metadata), param);
+        } finally {
+            writer.dispose();
+        }
+        return file.toByteArray();
+    }
+
+    /**
+     * @return Smooth color gradients with some detail in the luma.
+     */
+    private static BufferedImage color(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = (int) (128 + 80 * Math.sin(x / 9.0));
+                int g = (int) (128 + 80 * Math.cos(y / 7.0));
+                int b = 40 + (x + y) * 200 / (width + height);
+                // Equal steps in every channel are edges of the luma only.
+                if ((x / 4 + y / 4) % 7 == 0) {
+                    r -= 40;
+                    g -= 40;
+                    b -= 40;
+                }
+                image.setRGB(x, y, r << 16 | g << 8 | b);
+            }
+        }
+        return image;
+    }
+
+    private static BufferedImage gray(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.getRaster().setSample(x, y, 0, (x * 7 + y * 3) % 256 > 200 ? 20 : 128 + (int) (100 * Math.sin((x + y) / 6.0)));
+            }
+        }
+        return image;
+    }
+}
@@ -0,0 +1,307 @@
+package org.vincentyeh.img2pdf.gui.model.image;
+
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Decodes PNG files of every color type and bit depth and compares them with {@link ImageIO#read}, with the
+ * transparency blended over white and 16-bit samples cut to their high byte as the decoder documents.
+ * <p>
+ * The files are written here, so that every row uses another of the five filters and the image data spans several
+ * IDAT chunks.
+ */
+public class SequentialPngDecoderTest {
+    private static final int GRAY = 0;
+    private static final int RGB = 2;
+    private static final int PALETTE = 3;
+    private static final int GRAY_ALPHA = 4;
+    private static final int RGB_ALPHA = 6;
+
+    private final Random random = new Random(6);
+
+    @Test
+    public void decodesGray() throws IOException {
+        for (int bitDepth : new int[]{1, 2, 4, 8, 16}) {
+            check(new Png(GRAY, bitDepth, 37, 11));
+        }
+    }
+
+    @Test
+    public void decodesRgb() throws IOException {
+        check(new Png(RGB, 8, 29, 11));
+        check(new Png(RGB, 16, 29, 11));
+    }
+
+    @Test
+    public void decodesPalette() throws IOException {
+        for (int bitDepth : new int[]{1, 2, 4, 8}) {
+            Png png = new Png(PALETTE, bitDepth, 31, 11);
+            png.palette = new int[1 << bitDepth];
+            for (int i = 0; i < png.palette.length; i++) {
+                png.palette[i] = random.nextInt(0x1000000);
+            }
+            // Entries past the end of the tRNS chunk are opaque.
+            png.paletteAlpha = new byte[(png.palette.length + 1) / 2];
+            random.nextBytes(png.paletteAlpha);
+            check(png);
+        }
+    }
+
+    @Test
+    public void decodesAlpha() throws IOException {
+        check(new Png(GRAY_ALPHA, 8, 23, 11));
+        check(new Png(GRAY_ALPHA, 16, 23, 11));
+        check(new Png(RGB_ALPHA, 8, 23, 11));
+        check(new Png(RGB_ALPHA, 16, 23, 11));
+    }
+
+    @Test
+    public void decodesTransparentColors() throws IOException {
+        Png gray = new Png(GRAY, 8, 19, 11);
+        gray.transparent = new int[]{gray.samples[0]};
+        check(gray);
+        Png rgb = new Png(RGB, 16, 19, 11);
+        rgb.transparent = new int[]{rgb.samples[3], rgb.samples[4], rgb.samples[5]};
+        System.arraycopy(rgb.samples, 3, rgb.samples, 30, 3);
+        check(rgb);
+
+        // Transparent pixels are white, others keep their color.
+        byte[] decoded = decode(gray.write(), 1);
+        for (int i = 0; i < decoded.length; i++) {
+            assertEquals(gray.samples[i] == gray.transparent[0] ? 255 : gray.samples[i], decoded[i] & 0xff);
+        }
+        decoded = decode(rgb.write(), 3);
+        for (int band = 0; band < 3; band++) {
+            assertEquals(255, decoded[3 + band] & 0xff);
+            assertEquals(255, decoded[30 + band] & 0xff);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void refusesInterlaced() throws IOException {
+        Png png = new Png(GRAY, 8, 8, 8);
+        png.interlace = 1;
+        decode(png.write(), 1);
+    }
+
+    private void check(Png png) throws IOException {
+        byte[] file = png.write();
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(file));
+        Raster raster = image.getRaster();
+        for (int bands : new int[]{1, 3}) {
+            byte[] decoded = decode(file, bands);
+            assertEquals(png.width * png.height * bands, decoded.length);
+            for (int y = 0; y < png.height; y++) {
+                for (int x = 0; x < png.width; x++) {
+                    int[] rgb = png.expected(image, raster.getPixel(x, y, (int[]) null), x, y);
+                    for (int band = 0; band < bands; band++) {
+                        int expected = bands == 1 ? ColorAnalysis.luma(rgb[0], rgb[1], rgb[2]) : rgb[band];
+                        assertEquals(String.format("color type %d, %d bits, %d bands, sample %d of %d,%d",
+                                png.colorType, png.bitDepth, bands, band, x, y),
+                                expected, decoded[(y * png.width + x) * bands + band] & 0xff);
+                    }
+                }
+            }
+        }
+    }
+
+    private static byte[] decode(byte[] file, int bands) throws IOException {
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        try (ImageInputStream stream = ImageIO.createImageInputStream(new ByteArrayInputStream(file))) {
+            SequentialPngDecoder.decode(stream, bands, decoded::write);
+        }
+        return decoded.toByteArray();
+    }
+
+    /**
+     * A PNG of random samples.
+     */
+    private class Png {
+        final int colorType;
+        final int bitDepth;
+        final int width;
+        final int height;
+        final int channels;
+        /**
+         * Samples of each channel of each pixel, at the bit depth of the image.
+         */
+        final int[] samples;
+        int[] palette;
+        byte[] paletteAlpha;
+        int[] transparent;
+        int interlace;
+
+        Png(int colorType, int bitDepth, int width, int height) {
+            this.colorType = colorType;
+            this.bitDepth = bitDepth;
+            this.width = width;
+            this.height = height;
+            channels = colorType == GRAY || colorType == PALETTE ? 1 : colorType == GRAY_ALPHA ? 2 : colorType == RGB ? 3 : 4;
+            samples = new int[width * height * channels];
+            for (int i = 0; i < samples.length; i++) {
+                samples[i] = random.nextInt(1 << bitDepth);
+            }
+        }
+
+        /**
+         * @param pixel Samples of the pixel as ImageIO decoded them.
+         * @return The red, green and blue the decoder should give the pixel.
+         */
+        int[] expected(BufferedImage image, int[] pixel, int x, int y) {
+            int[] rgb = new int[3];
+            int alpha;
+            if (colorType == PALETTE) {
+                int argb = image.getRGB(x, y);
+                for (int band = 0; band < 3; band++) {
+                    rgb[band] = argb >> (16 - band * 8) & 0xff;
+                }
+                alpha = argb >>> 24;
+            } else {
+                boolean color = colorType == RGB || colorType == RGB_ALPHA;
+                boolean matches = transparent != null;
+                for (int band = 0; band < 3; band++) {
+                    int sample = pixel[color ? band : 0];
+                    rgb[band] = level(sample);
+                    if (transparent != null && band < transparent.length)
+                        matches &= sample == transparent[band];
+                }
+                alpha = matches ? 0 : colorType == GRAY_ALPHA || colorType == RGB_ALPHA ? level(pixel[channels - 1]) : 255;
+            }
+            for (int band = 0; band < 3; band++) {
+                rgb[band] = (rgb[band] * alpha + 255 * (255 - alpha)) / 255;
+            }
+            return rgb;
+        }
+
+        private int level(int sample) {
+            return bitDepth == 16 ? sample >> 8 : sample * 255 / ((1 << bitDepth) - 1);
+        }
+
+        byte[] write() throws IOException {
+            int rowBytes = (width * channels * bitDepth + 7) / 8;
+            int pixelBytes = Math.max(1, channels * bitDepth / 8);
+            ByteArrayOutputStream filtered = new ByteArrayOutputStream();
+            try (DeflaterOutputStream deflater = new DeflaterOutputStream(filtered)) {
+                byte[] previous = new byte[rowBytes];
+                for (int y = 0; y < height; y++) {
+                    byte[] row = pack(y, rowBytes);
+                    int filter = y % 5;
+                    deflater.write(filter);
+                    deflater.write(filter(filter, row, previous, pixelBytes));
+                    previous = row;
+                }
+            }
+
+            ByteArrayOutputStream file = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(file);
+            out.writeLong(0x89504E470D0A1A0AL);
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            DataOutputStream headerData = new DataOutputStream(header);
+            headerData.writeInt(width);
+            headerData.writeInt(height);
+            headerData.write(new byte[]{(byte) bitDepth, (byte) colorType, 0, 0, (byte) interlace});
+            chunk(out, "IHDR", header.toByteArray());
+            chunk(out, "tEXt", "Comment\0skipped".getBytes(StandardCharsets.ISO_8859_1));
+            if (palette != null) {
+                byte[] entries = new byte[palette.length * 3];
+                for (int i = 0; i < palette.length; i++) {
+                    entries[i * 3] = (byte) (palette[i] >> 16);
+                    entries[i * 3 + 1] = (byte) (palette[i] >> 8);
+                    entries[i * 3 + 2] = (byte) palette[i];
+                }
+                chunk(out, "PLTE", entries);
+            }
+            if (paletteAlpha != null)
+                chunk(out, "tRNS", paletteAlpha);
+            if (transparent != null) {
+                ByteArrayOutputStream values = new ByteArrayOutputStream();
+                for (int value : transparent) {
+                    values.write(value >> 8);
+                    values.write(value);
+                }
+                chunk(out, "tRNS", values.toByteArray());
+            }
+            byte[] data = filtered.toByteArray();
+            for (int offset = 0; offset < data.length; offset += 97) {
+                byte[] part = new byte[Math.min(97, data.length - offset)];
+                System.arraycopy(data, offset, part, 0, part.length);
+                chunk(out, "IDAT", part);
+            }
+            chunk(out, "IEND", new byte[0]);
+            return file.toByteArray();
+        }
+
+        private byte[] pack(int y, int rowBytes) {
+            byte[] row = new byte[rowBytes];
+            for (int i = 0; i < width * channels; i++) {
+                int sample = samples[y * width * channels + i];
+                if (bitDepth == 16) {
+                    row[i * 2] = (byte) (sample >> 8);
+                    row[i * 2 + 1] = (byte) sample;
+                } else {
+                    int bit = i * bitDepth;
+                    row[bit >> 3] |= (byte) (sample << (8 - bitDepth - (bit & 7)));
+                }
+            }
+            return row;
+        }
+    }
+
+    private static byte[] filter(int filter, byte[] row, byte[] previous, int pixelBytes) {
+        byte[] filtered = new byte[row.length];
+        for (int i = 0; i < row.length; i++) {
+            int left = i >= pixelBytes ? row[i - pixelBytes] & 0xff : 0;
+            int up = previous[i] & 0xff;
+            int upperLeft = i >= pixelBytes ? previous[i - pixelBytes] & 0xff : 0;
+            int prediction;
+            switch (filter) {
+                case 1:
+                    prediction = left;
+                    break;
+                case 2:
+                    prediction = up;
+                    break;
+                case 3:
+                    prediction = (left + up) / 2;
+                    break;
+                case 4:
+                    int estimate = left + up - upperLeft;
+                    int toLeft = Math.abs(estimate - left);
+                    int toUp = Math.abs(estimate - up);
+                    int toUpperLeft = Math.abs(estimate - upperLeft);
+                    prediction = toLeft <= toUp && toLeft <= toUpperLeft ? left : toUp <= toUpperLeft ? up : upperLeft;
+                    break;
+                default:
+                    prediction = 0;
+                    break;
+            }
+            filtered[i] = (byte) (row[i] - prediction);
+        }
+        return filtered;
+    }
+
+    private static void chunk(DataOutputStream out, String type, byte[] data) throws IOException {
+        byte[] name = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(name);
+        crc.update(data);
+        out.writeInt(data.length);
+        out.write(name);
+        out.write(data);
+        out.writeInt((int) crc.getValue());
+    }
+}
@@ -0,0 +1,165 @@
+package org.vincentyeh.img2pdf.gui.model.pdf;
+
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Encodes 1-bit images and decodes them again with the CCITT T.6 decoder of the JDK TIFF reader,
+ * which every pixel has to survive.
+ */
+public class CcittG4EncoderTest {
+
+    @Test
+    public void roundTripsOddWidths() throws IOException {
+        Random random = new Random(1);
+        for (int width : new int[]{1, 7, 9, 13, 1001}) {
+            roundTrip(noise(random, width, 17, 10), width, 17);
+        }
+    }
+
+    @Test
+    public void roundTripsRunsOverMakeupCodes() throws IOException {
+        // Runs of 2560 pixels and more need several makeup codes.
+        int width = 6001;
+        int rowBytes = (width + 7) / 8;
+        byte[] image = new byte[rowBytes * 6];
+        fill(image, 0, 0, width);
+        fill(image, rowBytes, 0, 2560);
+        fill(image, rowBytes * 2, 2561, width);
+        fill(image, rowBytes * 3, 100, 5200);
+        fill(image, rowBytes * 5, 5999, width);
+        roundTrip(image, width, 6);
+    }
+
+    @Test
+    public void roundTripsNoise() throws IOException {
+        Random random = new Random(2);
+        roundTrip(noise(random, 2480, 40, 2), 2480, 40);
+        roundTrip(noise(random, 2480, 40, 10), 2480, 40);
+    }
+
+    @Test
+    public void roundTripsPatterns() throws IOException {
+        int width = 1203;
+        int height = 300;
+        int rowBytes = (width + 7) / 8;
+        byte[] image = new byte[rowBytes * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                // Checkers, then stripes that differ from row to row, then all black.
+                boolean white = y < 100 ? ((x / 37 + y / 23) & 1) == 0 : y < 200 && x % (y - 98) == 0;
+                if (white)
+                    image[y * rowBytes + x / 8] |= (byte) (0x80 >> (x % 8));
+            }
+        }
+        roundTrip(image, width, height);
+    }
+
+    /**
+     * @param oneIn One pixel in that many is black.
+     */
+    private static byte[] noise(Random random, int width, int height, int oneIn) {
+        int rowBytes = (width + 7) / 8;
+        byte[] image = new byte[rowBytes * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (random.nextInt(oneIn) != 0)
+                    image[y * rowBytes + x / 8] |= (byte) (0x80 >> (x % 8));
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Sets the pixels from {@code from} to {@code to} of the row white.
+     */
+    private static void fill(byte[] image, int offset, int from, int to) {
+        for (int x = from; x < to; x++) {
+            image[offset + x / 8] |= (byte) (0x80 >> (x % 8));
+        }
+    }
+
+    private static void roundTrip(byte[] image, int width, int height) throws IOException {
+        int rowBytes = (width + 7) / 8;
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        CcittG4Encoder encoder = new CcittG4Encoder(encoded, width);
+        for (int y = 0; y < height; y++) {
+            encoder.encodeRow(image, y * rowBytes);
+        }
+        encoder.finish();
+
+        BufferedImage decoded = decode(encoded.toByteArray(), width, height);
+        assertEquals(width, decoded.getWidth());
+        assertEquals(height, decoded.getHeight());
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                boolean white = (image[y * rowBytes + x / 8] >> (7 - x % 8) & 1) == 1;
+                boolean decodedWhite = (decoded.getRGB(x, y) & 0xffffff) == 0xffffff;
+                assertEquals(String.format("pixel %d,%d of %dx%d", x, y, width, height), white, decodedWhite);
+            }
+        }
+    }
+
+    /**
+     * Wraps the data in a TIFF of one strip and reads it with the JDK reader.
+     */
+    private static BufferedImage decode(byte[] data, int width, int height) throws IOException {
+        Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName("tiff");
+        // The TIFF reader comes with Java 9.
+        assumeTrue(readers.hasNext());
+
+        ByteArrayOutputStream tiff = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(tiff);
+        int entries = 9;
+        out.writeBytes("MM");
+        out.writeShort(42);
+        out.writeInt(8);
+        out.writeShort(entries);
+        writeEntry(out, 256, width);
+        writeEntry(out, 257, height);
+        writeShortEntry(out, 258, 1);
+        writeShortEntry(out, 259, 4);
+        writeShortEntry(out, 262, 0);
+        writeEntry(out, 273, 8 + 2 + entries * 12 + 4);
+        writeShortEntry(out, 277, 1);
+        writeEntry(out, 278, height);
+        writeEntry(out, 279, data.length);
+        out.writeInt(0);
+        out.write(data);
+
+        ImageReader reader = readers.next();
+        try {
+            reader.setInput(ImageIO.createImageInputStream(new ByteArrayInputStream(tiff.toByteArray())));
+            return reader.read(0);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    private static void writeEntry(DataOutputStream out, int tag, int value) throws IOException {
+        out.writeShort(tag);
+        out.writeShort(4);
+        out.writeInt(1);
+        out.writeInt(value);
+    }
+
+    private static void writeShortEntry(DataOutputStream out, int tag, int value) throws IOException {
+        out.writeShort(tag);
+        out.writeShort(3);
+        out.writeInt(1);
+        out.writeShort(value);
+        out.writeShort(0);
+    }
+}
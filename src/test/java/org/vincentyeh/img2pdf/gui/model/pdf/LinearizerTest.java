@@ -0,0 +1,255 @@
+package org.vincentyeh.img2pdf.gui.model.pdf;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Linearizes documents written by {@link PdfWriter} and checks the linearization dictionary, the cross-reference
+ * sections and the page offset hint table against the objects actually found in the file.
+ */
+public class LinearizerTest {
+    private static final Pattern DICTIONARY = Pattern.compile(
+            "(\\d+) 0 obj\n<< /Linearized 1 /L +(\\d+) /H \\[ +(\\d+) +(\\d+) \\] /O +(\\d+) /E +(\\d+) /N +(\\d+) /T +(\\d+) >>\nendobj\n");
+    private static final Pattern OBJECT = Pattern.compile("(?m)^(\\d+) 0 obj\n");
+
+    private File document;
+    private File linearized;
+
+    @Before
+    public void createFiles() throws IOException {
+        document = File.createTempFile("document", ".pdf");
+        linearized = File.createTempFile("linearized", ".pdf");
+    }
+
+    @After
+    public void deleteFiles() {
+        document.delete();
+        linearized.delete();
+    }
+
+    @Test
+    public void linearizesOnePage() throws IOException {
+        check(new int[]{1000});
+    }
+
+    @Test
+    public void linearizesPagesOfDifferentSizes() throws IOException {
+        check(new int[]{5000, 120, 70000, 120, 3});
+    }
+
+    @Test
+    public void linearizesManyPages() throws IOException {
+        // More pages than a node of the page tree holds.
+        int[] sizes = new int[100];
+        for (int i = 0; i < sizes.length; i++)
+            sizes[i] = 100 + i * 37;
+        check(sizes);
+    }
+
+    /**
+     * @param imageSizes Bytes of the image of each page.
+     */
+    private void check(int[] imageSizes) throws IOException {
+        write(imageSizes);
+        Linearizer.linearize(document, linearized);
+        String file = new String(Files.readAllBytes(linearized.toPath()), StandardCharsets.ISO_8859_1);
+
+        Matcher dictionary = DICTIONARY.matcher(file);
+        assertTrue("no linearization dictionary", dictionary.find() && dictionary.start() < 1024);
+        long length = Long.parseLong(dictionary.group(2));
+        int hintOffset = Integer.parseInt(dictionary.group(3));
+        int hintLength = Integer.parseInt(dictionary.group(4));
+        int firstPage = Integer.parseInt(dictionary.group(5));
+        long firstPageEnd = Long.parseLong(dictionary.group(6));
+        int pages = Integer.parseInt(dictionary.group(7));
+        long mainEntries = Long.parseLong(dictionary.group(8));
+        assertEquals(file.length(), length);
+        assertEquals(imageSizes.length, pages);
+
+        // Object headers, outside of the binary hint stream.
+        Map<Integer, Integer> offsets = new TreeMap<>();
+        List<Integer> positions = new ArrayList<>();
+        Matcher object = OBJECT.matcher(file);
+        while (object.find()) {
+            if (object.start() > hintOffset && object.start() < hintOffset + hintLength)
+                continue;
+            offsets.put(Integer.parseInt(object.group(1)), object.start());
+            positions.add(object.start());
+        }
+        int mainXref = file.lastIndexOf("xref\n", (int) mainEntries);
+        positions.add(mainXref);
+        int hint = Integer.parseInt(dictionary.group(1)) + 2;
+        assertEquals(hintOffset, (int) offsets.get(hint));
+        assertTrue(file.startsWith("endobj\n", hintOffset + hintLength - "endobj\n".length()));
+
+        // Both cross-reference sections point at the objects, and the first one is read first.
+        int firstXref = dictionary.end();
+        assertTrue(file.startsWith("xref\n", firstXref));
+        assertEquals(offsets.size(), checkSection(file, firstXref, offsets) + checkSection(file, mainXref, offsets));
+        assertEquals(mainEntries, file.indexOf('\n', mainXref + "xref\n".length()) + 1);
+        Matcher startxref = Pattern.compile("startxref\n(\\d+)\n%%EOF\n$").matcher(file);
+        assertTrue(startxref.find());
+        assertEquals(firstXref, Integer.parseInt(startxref.group(1)));
+
+        // Page objects in file order, which must be the order of the pages.
+        List<Integer> pageStarts = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> entry : offsets.entrySet()) {
+            int end = positions.get(positions.indexOf(entry.getValue()) + 1);
+            if (file.substring(entry.getValue(), end).contains("/Type /Page "))
+                pageStarts.add(entry.getValue());
+        }
+        pageStarts.sort(null);
+        assertEquals(pages, pageStarts.size());
+        assertEquals((int) offsets.get(firstPage), (int) pageStarts.get(0));
+
+        // Page offset hint table, with positions counted as if there were no hint stream.
+        String hintHead = file.substring(hintOffset, file.indexOf("stream\n", hintOffset) + "stream\n".length());
+        int sharedTable = Integer.parseInt(find(hintHead, "/S (\\d+)"));
+        int dataLength = Integer.parseInt(find(hintHead, "/Length (\\d+)"));
+        byte[] data = Arrays.copyOfRange(file.getBytes(StandardCharsets.ISO_8859_1),
+                hintOffset + hintHead.length(), hintOffset + hintHead.length() + dataLength);
+        BitReader table = new BitReader(data);
+        long leastObjects = table.read(32);
+        long firstPageOffset = table.read(32);
+        int objectBits = (int) table.read(16);
+        long leastLength = table.read(32);
+        int lengthBits = (int) table.read(16);
+        // Content streams are counted as the whole page.
+        assertEquals(0, table.read(32));
+        assertEquals(0, table.read(16));
+        assertEquals(leastLength, table.read(32));
+        assertEquals(lengthBits, table.read(16));
+        int sharedBits = (int) table.read(16);
+        table.read(16);
+        table.read(16);
+        table.read(16);
+        long[] objectCounts = new long[pages];
+        for (int i = 0; i < pages; i++)
+            objectCounts[i] = leastObjects + table.read(objectBits);
+        table.pad();
+        long[] pageLengths = new long[pages];
+        for (int i = 0; i < pages; i++)
+            pageLengths[i] = leastLength + table.read(lengthBits);
+        table.pad();
+        for (int i = 0; i < pages; i++)
+            assertEquals(0, table.read(sharedBits));
+        table.pad();
+        table.pad();
+        table.pad();
+        for (int i = 0; i < pages; i++)
+            assertEquals(pageLengths[i], leastLength + table.read(lengthBits));
+        table.pad();
+        assertEquals(sharedTable, table.position() / 8);
+
+        assertEquals(pageStarts.get(0) - hintLength, firstPageOffset);
+        for (int i = 0; i < pages; i++) {
+            long start = pageStarts.get(i);
+            long end = start + pageLengths[i];
+            if (i + 1 < pages)
+                assertEquals("end of page " + i, (long) pageStarts.get(i + 1), end);
+            else
+                assertTrue(file.startsWith("endobj\n", (int) end - "endobj\n".length()));
+            assertEquals("objects of page " + i, objectCounts[i],
+                    positions.stream().filter(position -> position >= start && position < end).count());
+            // The image of the page is among its objects.
+            int pageEnd = file.indexOf("endobj\n", (int) start);
+            int image = Integer.parseInt(find(file.substring((int) start, pageEnd), "/XObject << /\\w+ (\\d+) 0 R"));
+            assertTrue("image of page " + i, offsets.get(image) > start && offsets.get(image) < end);
+        }
+        assertEquals(pageStarts.get(0) + pageLengths[0], firstPageEnd);
+    }
+
+    /**
+     * @return The number of objects in use in the section, after checking each against its header.
+     */
+    private static int checkSection(String file, int offset, Map<Integer, Integer> offsets) {
+        Matcher head = Pattern.compile("xref\n(\\d+) (\\d+)\n").matcher(file);
+        assertTrue(head.find(offset) && head.start() == offset);
+        int first = Integer.parseInt(head.group(1));
+        int count = Integer.parseInt(head.group(2));
+        int inUse = 0;
+        for (int i = 0; i < count; i++) {
+            String entry = file.substring(head.end() + i * 20, head.end() + i * 20 + 20);
+            if (entry.charAt(17) != 'n')
+                continue;
+            assertEquals("entry of object " + (first + i), offsets.get(first + i), Integer.valueOf(entry.substring(0, 10)));
+            inUse++;
+        }
+        return inUse;
+    }
+
+    private static String find(String text, String regex) {
+        Matcher matcher = Pattern.compile(regex).matcher(text);
+        assertTrue(regex, matcher.find());
+        return matcher.group(1);
+    }
+
+    /**
+     * Writes a page per image, as {@link DirectConverter} does, with stream data that cannot be taken for a header.
+     */
+    private void write(int[] imageSizes) throws IOException {
+        try (PdfWriter writer = new PdfWriter(new FileOutputStream(document))) {
+            PageTree pages = new PageTree(writer);
+            for (int size : imageSizes) {
+                byte[] pixels = new byte[size];
+                Arrays.fill(pixels, (byte) 'x');
+                int image = writer.reserve();
+                writer.writeStream(image, String.format("/Type /XObject /Subtype /Image /Width %d /Height 1 /ColorSpace /DeviceGray /BitsPerComponent 8", size), pixels, false);
+                int content = writer.reserve();
+                writer.writeStream(content, "", "q 100 0 0 100 0 0 cm /Im0 Do Q".getBytes(StandardCharsets.ISO_8859_1), false);
+                int page = writer.reserve();
+                writer.writeObject(page, String.format("<< /Type /Page /Parent %d 0 R /MediaBox [0 0 100 100] /Resources << /XObject << /Im0 %d 0 R >> >> /Contents %d 0 R >>",
+                        pages.nextParent(), image, content));
+                pages.addPage(page);
+            }
+            int root = pages.finish();
+            int catalog = writer.reserve();
+            writer.writeObject(catalog, String.format("<< /Type /Catalog /Pages %d 0 R >>", root));
+            writer.finish(catalog);
+        }
+    }
+
+    /**
+     * Reads values most significant bit first, as the hint tables are written.
+     */
+    private static class BitReader {
+        private final byte[] data;
+        private int position;
+
+        BitReader(byte[] data) {
+            this.data = data;
+        }
+
+        long read(int bits) {
+            long value = 0;
+            for (int i = 0; i < bits; i++, position++)
+                value = value << 1 | (data[position >> 3] >> (7 - (position & 7)) & 1);
+            return value;
+        }
+
+        void pad() {
+            position = (position + 7) & ~7;
+        }
+
+        int position() {
+            return position;
+        }
+    }
+}